@@ -0,0 +1,262 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class is a compact layout of the keywords index: document names are interned into int
+ * ids by a DocTable, and each keyword maps to a Postings object with primitive arrays, so the
+ * index has three objects per keyword instead of one per occurrence.
+ *
+ * After compress, posting lists are kept as CompressedPostings instead. A compressed list that
+ * is merged into or removed from is decompressed back into a Postings, and stays that way until
+ * the next compress.
+ *
+ */
+class CompactIndex
+{
+	/**
+	 * Document ids.
+	 */
+	final DocTable docTable;
+
+	/**
+	 * Posting list of every keyword.
+	 */
+	final HashMap<String,Postings> postings;
+
+	/**
+	 * Compressed posting list of every keyword that is not in postings.
+	 */
+	final HashMap<String,CompressedPostings> packed;
+
+	/**
+	 * Creates an empty index.
+	 */
+	CompactIndex()
+	{
+		docTable = new DocTable();
+		postings = new HashMap<String,Postings>(1000);
+		packed = new HashMap<String,CompressedPostings>();
+	}
+
+	/**
+	 * Builds a compact copy of a keywords index.
+	 *
+	 * @param index Keywords index
+	 * @return Compact index with the same occurrences, in the same order
+	 */
+	static CompactIndex from(Map<String,? extends List<Occurrence>> index)
+	{
+		CompactIndex ci = new CompactIndex();
+		for(Map.Entry<String,? extends List<Occurrence>> e : index.entrySet())
+		{
+			List<Occurrence> occs = e.getValue();
+			Postings p = new Postings(occs.size());
+			for(Occurrence o : occs)
+			{
+				p.docs[p.size] = ci.docTable.intern(o.document);
+				p.freqs[p.size] = o.frequency;
+				p.size++;
+			}
+			ci.postings.put(e.getKey(), p);
+		}
+		return ci;
+	}
+
+	/**
+	 * Merges the keywords of one document, like LittleSearchEngine.mergeKeyWords.
+	 *
+	 * @param kws Keywords hash table for a document
+	 */
+	void merge(HashMap<String,Occurrence> kws)
+	{
+		for(Map.Entry<String,Occurrence> e : kws.entrySet())
+		{
+			Postings p = unpack(e.getKey());
+			if(p == null)
+			{
+				p = new Postings(1);
+				postings.put(e.getKey(), p);
+			}
+			Occurrence o = e.getValue();
+			p.add(docTable.intern(o.document), o.frequency);
+		}
+	}
+
+	/**
+	 * Removes a document from the posting lists of the given keywords.
+	 *
+	 * @param doc Document name
+	 * @param kws Keywords to look in, null to look in every keyword
+	 * @return True if the document was found
+	 */
+	boolean remove(String doc, String[] kws)
+	{
+		int id = docTable.id(doc);
+		if(id == -1)
+			return false;
+		if(kws == null)
+		{
+			Set<String> all = keywords();
+			kws = all.toArray(new String[all.size()]);
+		}
+		boolean found = false;
+		for(String kw : kws)
+		{
+			Postings p = unpack(kw);
+			if(p != null && p.remove(id))
+			{
+				found = true;
+				if(p.size == 0)
+					postings.remove(kw);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Returns the occurrences of a keyword as a new list of Occurrence objects.
+	 *
+	 * @param kw Keyword
+	 * @return Occurrences in descending order of frequency, null if the keyword is not indexed
+	 */
+	ArrayList<Occurrence> occurrences(String kw)
+	{
+		Postings p = postings.get(kw);
+		if(p == null && packed.containsKey(kw))
+			p = packed.get(kw).decode();
+		if(p == null)
+			return null;
+		ArrayList<Occurrence> occs = new ArrayList<Occurrence>(p.size);
+		for(int i = 0; i < p.size; i++)
+			occs.add(new Occurrence(docTable.name(p.docs[i]), p.freqs[i]));
+		return occs;
+	}
+
+	/**
+	 * Returns the whole index as occurrence lists.
+	 *
+	 * @return Keywords index in the occurrence list layout
+	 */
+	HashMap<String,ArrayList<Occurrence>> toOccurrenceLists()
+	{
+		Set<String> all = keywords();
+		HashMap<String,ArrayList<Occurrence>> index = new HashMap<String,ArrayList<Occurrence>>(all.size() * 2);
+		for(String kw : all)
+			index.put(kw, occurrences(kw));
+		return index;
+	}
+
+	/**
+	 * Returns every keyword in the index.
+	 *
+	 * @return Set of keywords, compressed or not
+	 */
+	Set<String> keywords()
+	{
+		if(packed.isEmpty())
+			return postings.keySet();
+		HashSet<String> all = new HashSet<String>(postings.keySet());
+		all.addAll(packed.keySet());
+		return all;
+	}
+
+	/**
+	 * Compresses every posting list that is not compressed yet.
+	 */
+	void compress()
+	{
+		for(Map.Entry<String,Postings> e : postings.entrySet())
+			packed.put(e.getKey(), CompressedPostings.encode(e.getValue()));
+		postings.clear();
+	}
+
+	/**
+	 * Returns the posting list of a keyword for changing it, decompressing it first if needed.
+	 *
+	 * @param kw Keyword
+	 * @return Posting list, null if the keyword is not indexed
+	 */
+	private Postings unpack(String kw)
+	{
+		Postings p = postings.get(kw);
+		if(p == null)
+		{
+			CompressedPostings cp = packed.remove(kw);
+			if(cp != null)
+			{
+				p = cp.decode();
+				postings.put(kw, p);
+			}
+		}
+		return p;
+	}
+
+	/**
+	 * Returns a read-only view of the occurrences of a keyword. An Occurrence object is made each
+	 * time an entry is read, so searches that stop early only pay for the entries they look at.
+	 *
+	 * @param kw Keyword
+	 * @return Occurrences in descending order of frequency, null if the keyword is not indexed
+	 */
+	List<Occurrence> view(String kw)
+	{
+		final Postings p = postings.get(kw);
+		if(p == null)
+		{
+			CompressedPostings cp = packed.get(kw);
+			return cp == null ? null : cp.view(docTable);
+		}
+		return new AbstractList<Occurrence>()
+		{
+			public Occurrence get(int i)
+			{
+				if(i >= p.size)
+					throw new IndexOutOfBoundsException("Index: " + i + ", size: " + p.size);
+				return new Occurrence(docTable.name(p.docs[i]), p.freqs[i]);
+			}
+
+			public int size()
+			{
+				return p.size;
+			}
+		};
+	}
+
+	/**
+	 * Estimates the heap used by the index, not counting keyword and document name Strings.
+	 *
+	 * @return Estimated bytes
+	 */
+	long heapBytes()
+	{
+		// hash table slot and node per keyword, plus the posting arrays
+		long bytes = 16 + 4L * postings.size() * 2 + 16 + 4L * packed.size() * 2 + docTable.heapBytes();
+		for(Postings p : postings.values())
+			bytes += 32 + p.heapBytes();
+		for(CompressedPostings cp : packed.values())
+			bytes += 32 + cp.heapBytes();
+		return bytes;
+	}
+
+	/**
+	 * Estimates the heap used by a keywords index in the occurrence list layout, with the same
+	 * assumptions as heapBytes (compressed references, 12 byte object headers).
+	 *
+	 * @param index Keywords index
+	 * @return Estimated bytes
+	 */
+	static long heapBytes(Map<String,? extends List<Occurrence>> index)
+	{
+		long bytes = 16 + 4L * index.size() * 2;
+		for(List<Occurrence> occs : index.values())
+		{
+			int capacity = occs.size();
+			if(occs instanceof ArrayList)
+				capacity = Math.max(capacity, 10);
+			// hash table node, ArrayList, its element array, one Occurrence per entry
+			bytes += 32 + 24 + 16 + 4L * capacity + 24L * occs.size();
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,138 @@
+package search;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Compares reading every posting list of an index in three layouts: the ArrayLists of Occurrence
+ * objects of keywordsIndex, the int arrays of Postings, and CompressedPostings decoded a block at
+ * a time into reused arrays. Also times decoding whole lists back into Postings, as a compressed
+ * list that is changed must be, and prints the estimated memory of each layout.
+ *
+ * Usage: java search.CompressedPostingsBenchmark docsFile noiseWordsFile
+ *
+ */
+class CompressedPostingsBenchmark
+{
+	/**
+	 * Number of timed rounds, after as many warm-up rounds.
+	 */
+	static final int ROUNDS = 20;
+
+	public static void main(String[] args)
+	throws FileNotFoundException
+	{
+		if(args.length != 2)
+		{
+			System.err.println("Usage: java search.CompressedPostingsBenchmark docsFile noiseWordsFile");
+			return;
+		}
+		LittleSearchEngine engine = new LittleSearchEngine();
+		engine.makeIndex(args[0], args[1]);
+		HashMap<String,ArrayList<Occurrence>> map = engine.keywordsIndex;
+		CompactIndex compact = CompactIndex.from(map);
+		String[] keys = map.keySet().toArray(new String[map.size()]);
+		ArrayList<ArrayList<Occurrence>> lists = new ArrayList<ArrayList<Occurrence>>(keys.length);
+		Postings[] plain = new Postings[keys.length];
+		CompressedPostings[] packed = new CompressedPostings[keys.length];
+		long entries = 0;
+		for(int i = 0; i < keys.length; i++)
+		{
+			lists.add(map.get(keys[i]));
+			plain[i] = compact.postings.get(keys[i]);
+			packed[i] = CompressedPostings.encode(plain[i]);
+			entries += plain[i].size;
+		}
+
+		// the documents are checked once here; the timed loops read every entry and check frequencies
+		int[] docs = new int[CompressedPostings.BLOCK];
+		int[] freqs = new int[CompressedPostings.BLOCK];
+		for(int i = 0; i < keys.length; i++)
+		{
+			for(int b = 0; b < packed[i].blockStart.length; b++)
+			{
+				int n = packed[i].decodeBlock(b, docs, freqs, 0);
+				for(int j = 0; j < n; j++)
+				{
+					Occurrence o = lists.get(i).get(b * CompressedPostings.BLOCK + j);
+					if(!o.document.equals(compact.docTable.name(docs[j])) || o.frequency != freqs[j])
+						throw new IllegalStateException("compressed list of " + keys[i] + " differs");
+				}
+			}
+		}
+
+		long listNanos = 0;
+		long plainNanos = 0;
+		long blockNanos = 0;
+		long decodeNanos = 0;
+		long sink = 0;
+		for(int round = 0; round < 2 * ROUNDS; round++)
+		{
+			long t0 = System.nanoTime();
+			long fromLists = 0;
+			long docSum = 0;
+			for(ArrayList<Occurrence> occs : lists)
+			{
+				for(int j = 0; j < occs.size(); j++)
+				{
+					Occurrence o = occs.get(j);
+					fromLists += o.frequency;
+					docSum += o.document.hashCode();
+				}
+			}
+			long t1 = System.nanoTime();
+			long fromPlain = 0;
+			for(Postings p : plain)
+			{
+				for(int j = 0; j < p.size; j++)
+				{
+					fromPlain += p.freqs[j];
+					docSum += p.docs[j];
+				}
+			}
+			long t2 = System.nanoTime();
+			long fromBlocks = 0;
+			for(CompressedPostings cp : packed)
+			{
+				for(int b = 0; b < cp.blockStart.length; b++)
+				{
+					int n = cp.decodeBlock(b, docs, freqs, 0);
+					for(int j = 0; j < n; j++)
+					{
+						fromBlocks += freqs[j];
+						docSum += docs[j];
+					}
+				}
+			}
+			long t3 = System.nanoTime();
+			long decoded = 0;
+			for(CompressedPostings cp : packed)
+				decoded += cp.decode().size;
+			long t4 = System.nanoTime();
+
+			if(fromLists != fromPlain || fromPlain != fromBlocks || decoded != entries)
+				throw new IllegalStateException("layouts disagree");
+			if(round >= ROUNDS)
+			{
+				listNanos += t1 - t0;
+				plainNanos += t2 - t1;
+				blockNanos += t3 - t2;
+				decodeNanos += t4 - t3;
+			}
+			sink += docSum + decoded;
+		}
+
+		long packedBytes = 0;
+		for(CompressedPostings cp : packed)
+			packedBytes += cp.heapBytes();
+		long plainBytes = 0;
+		for(Postings p : plain)
+			plainBytes += p.heapBytes();
+		double reads = (double)entries * ROUNDS;
+		System.out.printf("%d keywords, %d entries%s%n", keys.length, entries, sink == 1 ? " " : "");
+		System.out.printf("ArrayList<Occurrence>:     %6.2f ns/entry, ~%d bytes%n", listNanos / reads, CompactIndex.heapBytes(map));
+		System.out.printf("Postings arrays:           %6.2f ns/entry, ~%d bytes of lists%n", plainNanos / reads, plainBytes);
+		System.out.printf("CompressedPostings blocks: %6.2f ns/entry, ~%d bytes of lists%n", blockNanos / reads, packedBytes);
+		System.out.printf("CompressedPostings decode: %6.2f ns/entry into new Postings%n", decodeNanos / reads);
+	}
+}
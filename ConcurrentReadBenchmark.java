@@ -0,0 +1,185 @@
+package search;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Stress test of concurrent reads: many reader threads search published snapshots while one
+ * writer thread keeps re-indexing documents, publishing a snapshot every few changes and, half
+ * way through, turning on the query cache. Readers take turns at topK, Boolean and wildcard
+ * searches, each either on a snapshot they hold or through the engine (and, for topK, its cache),
+ * and check what they see: snapshot versions never go back, a snapshot gives the same result
+ * every time it is asked, and every result is a list of distinct documents. When the writer is
+ * done, the last snapshot and the cache are checked against the index itself, and the engine's
+ * Boolean and wildcard searches against the last snapshot. Prints the read and write rates.
+ *
+ * Usage: java search.ConcurrentReadBenchmark docsFile noiseWordsFile [readers]
+ *
+ */
+class ConcurrentReadBenchmark
+{
+	/**
+	 * Documents re-indexed by the writer.
+	 */
+	static final int WRITES = 3000;
+
+	/**
+	 * Document changes per published snapshot.
+	 */
+	static final int REFRESH_EVERY = 8;
+
+	/**
+	 * Reader threads when none are given.
+	 */
+	static final int READERS = 8;
+
+	/**
+	 * Empty keyword list, for the unused parts of Boolean queries.
+	 */
+	static final List<String> NONE = Collections.<String>emptyList();
+
+	public static void main(String[] args)
+	throws Exception
+	{
+		if(args.length < 2 || args.length > 3)
+		{
+			System.err.println("Usage: java search.ConcurrentReadBenchmark docsFile noiseWordsFile [readers]");
+			return;
+		}
+		int readers = args.length == 3 ? Integer.parseInt(args[2]) : READERS;
+		final LittleSearchEngine engine = new LittleSearchEngine();
+		engine.makeIndex(args[0], args[1]);
+		final String[] docs = engine.documentKeywords.keySet().toArray(new String[0]);
+		final String[] keys = engine.keywordsIndex.keySet().toArray(new String[0]);
+		if(docs.length == 0)
+		{
+			System.err.println("No keywords in " + args[0]);
+			return;
+		}
+		engine.enableConcurrentReads(REFRESH_EVERY);
+
+		final AtomicBoolean done = new AtomicBoolean();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final AtomicLong queries = new AtomicLong();
+		final AtomicLong versions = new AtomicLong();
+		Thread[] threads = new Thread[readers];
+		for(int t = 0; t < readers; t++)
+		{
+			final Random random = new Random(t);
+			threads[t] = new Thread()
+			{
+				public void run()
+				{
+					try
+					{
+						long version = 0;
+						long n = 0;
+						while(!done.get())
+						{
+							IndexSnapshot snap = engine.snapshot();
+							if(snap.getVersion() < version)
+								throw new IllegalStateException("snapshot version went back from " + version + " to " + snap.getVersion());
+							if(snap.getVersion() > version)
+								versions.incrementAndGet();
+							version = snap.getVersion();
+							List<String> q = Arrays.asList(keys[random.nextInt(keys.length)], keys[random.nextInt(keys.length)]);
+							String pattern = prefixPattern(q.get(0));
+							int k = 1 + random.nextInt(10);
+							boolean onSnapshot = (n & 1) == 0;
+							ArrayList<String> res;
+							ArrayList<String> again = null;
+							switch((int)(n / 2 % 3))
+							{
+								case 0:
+									res = onSnapshot ? snap.topK(q, k) : engine.topK(q, k);
+									if(onSnapshot)
+										again = snap.topK(q, k);
+									break;
+								case 1:
+									res = onSnapshot ? snap.booleanSearch(q.subList(0, 1), q.subList(1, 2), NONE, k) : engine.booleanSearch(q.subList(0, 1), q.subList(1, 2), NONE, k);
+									if(onSnapshot)
+										again = snap.booleanSearch(q.subList(0, 1), q.subList(1, 2), NONE, k);
+									break;
+								default:
+									res = onSnapshot ? snap.wildcardSearch(pattern, k) : engine.wildcardSearch(pattern, k);
+									if(onSnapshot)
+										again = snap.wildcardSearch(pattern, k);
+									break;
+							}
+							if(res.size() > k || new HashSet<String>(res).size() != res.size())
+								throw new IllegalStateException("bad result " + res + " for " + q + " / " + pattern);
+							if(again != null && !again.equals(res))
+								throw new IllegalStateException("snapshot " + version + " changed under " + q + " / " + pattern);
+							n++;
+						}
+						queries.addAndGet(n);
+					}
+					catch(Throwable e)
+					{
+						failure.compareAndSet(null, e);
+					}
+				}
+			};
+		}
+
+		long start = System.nanoTime();
+		for(Thread t : threads)
+			t.start();
+		Random random = new Random(-1);
+		try
+		{
+			for(int i = 0; i < WRITES && failure.get() == null; i++)
+			{
+				if(i == WRITES / 2)
+					engine.enableQueryCache(1000);
+				engine.addDocument(docs[random.nextInt(docs.length)]);
+			}
+			engine.refresh();
+		}
+		finally
+		{
+			done.set(true);
+			for(Thread t : threads)
+				t.join();
+		}
+		long nanos = System.nanoTime() - start;
+		if(failure.get() != null)
+			throw new IllegalStateException("reader failed", failure.get());
+
+		IndexSnapshot last = engine.snapshot();
+		for(String kw : keys)
+		{
+			List<Occurrence> published = last.postingList(kw);
+			ArrayList<Occurrence> occs = engine.getOccurrences(kw);
+			if(!String.valueOf(published).equals(String.valueOf(occs)))
+				throw new IllegalStateException("last snapshot differs from the index on " + kw);
+		}
+		for(int i = 0; i + 1 < keys.length; i += 2)
+		{
+			List<String> q = Arrays.asList(keys[i], keys[i + 1]);
+			if(!engine.topK(q, 5).equals(last.topK(q, 5)))
+				throw new IllegalStateException("cached result differs from the last snapshot on " + q);
+			if(!engine.booleanSearch(q, NONE, NONE, 5).equals(last.booleanSearch(q, NONE, NONE, 5))
+					|| !engine.booleanSearch(NONE, q, NONE, 5).equals(last.booleanSearch(NONE, q, NONE, 5)))
+				throw new IllegalStateException("Boolean search differs from the last snapshot on " + q);
+			String pattern = prefixPattern(keys[i]);
+			if(!engine.wildcardSearch(pattern, 5).equals(last.wildcardSearch(pattern, 5)))
+				throw new IllegalStateException("wildcard search differs from the last snapshot on " + pattern);
+		}
+
+		double seconds = nanos / 1e9;
+		System.out.printf("%d readers, %d keywords, %d documents%n", readers, keys.length, docs.length);
+		System.out.printf("reads:  %.0f queries/s, %d snapshot versions seen by readers%n", queries.get() / seconds, versions.get());
+		System.out.printf("writes: %.0f documents/s, %d snapshots published%n", WRITES / seconds, last.getVersion());
+		System.out.println("cache:  " + engine.getQueryCache());
+	}
+
+	/**
+	 * Returns a wildcard pattern for the keywords that start like kw.
+	 */
+	private static String prefixPattern(String kw)
+	{
+		return kw.substring(0, Math.min(2, kw.length())) + "*";
+	}
+}
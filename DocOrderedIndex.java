@@ -0,0 +1,840 @@
+package search;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class is a read-only secondary view of the keywords index, ordered by document id instead
+ * of frequency, together with per-document statistics for ranked retrieval. A view is never
+ * changed once made: update makes the next version from the keywords whose occurrence lists
+ * changed, sharing the postings of every other keyword.
+ *
+ * For every keyword it keeps the document ids in ascending order with the matching frequencies,
+ * and for every document its length (total number of keyword occurrences), its BM25 length
+ * normalization, and the Euclidean norm of its TF-IDF vector. Scoring a posting therefore only
+ * reads primitive arrays. The norm depends on the inverse document frequency of every keyword of
+ * the document, which changes whenever the number of documents does, so it is kept as three sums
+ * per document that an update adjusts for the changed keywords only:
+ *
+ * <pre>
+ * norm^2 = sum of (w * (ln N - ln df))^2 = A ln^2 N - 2 B ln N + C
+ * A = sum of w^2, B = sum of w^2 ln df, C = sum of w^2 ln^2 df
+ * </pre>
+ *
+ * where w is the log-scaled frequency of a keyword in the document and df the number of documents
+ * the keyword is in. An update costs time in proportion to the changed occurrence lists plus the
+ * number of documents, not to the size of the index.
+ *
+ */
+class DocOrderedIndex
+{
+	/**
+	 * BM25 term frequency saturation.
+	 */
+	static final float K1 = 1.2f;
+
+	/**
+	 * BM25 length normalization strength.
+	 */
+	static final float B = 0.75f;
+
+	/**
+	 * Occurrences of one keyword in ascending order of document id.
+	 */
+	static class DocPostings
+	{
+		final int[] docs;
+		final int[] freqs;
+
+		DocPostings(int[] docs, int[] freqs)
+		{
+			this.docs = docs;
+			this.freqs = freqs;
+		}
+
+		int size()
+		{
+			return docs.length;
+		}
+	}
+
+	/**
+	 * Postings of a keyword that was removed, in the overlay.
+	 */
+	private static final DocPostings NONE = new DocPostings(new int[0], new int[0]);
+
+	/**
+	 * Document ids. The table is shared by all versions of the view, and only the update that makes
+	 * the next version adds to it; searches read names.
+	 */
+	final DocTable docTable;
+
+	/**
+	 * Name of each document, by id, as of this version.
+	 */
+	final String[] names;
+
+	/**
+	 * Postings of all keywords as of the last fold.
+	 */
+	private final HashMap<String,DocPostings> base;
+
+	/**
+	 * Postings of keywords changed since the last fold. NONE marks a removed keyword.
+	 */
+	private final HashMap<String,DocPostings> overlay;
+
+	/**
+	 * Number of keyword occurrences in each document.
+	 */
+	final int[] docLength;
+
+	/**
+	 * Sums A, B and C of the TF-IDF norm of each document, see the class comment.
+	 */
+	private final double[] sumW2;
+	private final double[] sumW2Ldf;
+	private final double[] sumW2Ldf2;
+
+	/**
+	 * Number of documents with at least one keyword.
+	 */
+	final int docCount;
+
+	/**
+	 * K1 * (1 - B + B * length / average length), for each document.
+	 */
+	final float[] bm25Norm;
+
+	/**
+	 * Euclidean length of the TF-IDF vector of each document.
+	 */
+	final float[] tfidfNorm;
+
+	/**
+	 * Highest BM25 and TF-IDF score a single posting of a keyword can contribute, in this version.
+	 * Found the first time a search uses the keyword.
+	 */
+	private final ConcurrentHashMap<String,float[]> maxScores = new ConcurrentHashMap<String,float[]>();
+
+	/**
+	 * Builds the view from occurrence lists.
+	 *
+	 * @param lists Occurrence lists of all keywords
+	 */
+	DocOrderedIndex(Map<String,? extends List<Occurrence>> lists)
+	{
+		docTable = new DocTable();
+		base = new HashMap<String,DocPostings>(lists.size() * 2);
+		for(Map.Entry<String,? extends List<Occurrence>> e : lists.entrySet())
+		{
+			DocPostings p = docOrdered(docTable, e.getValue());
+			if(p != null)
+				base.put(e.getKey(), p);
+		}
+		int n = docTable.size();
+		int[] length = new int[n];
+		double[] a = new double[n];
+		double[] b = new double[n];
+		double[] c = new double[n];
+		for(DocPostings p : base.values())
+			addWeights(p, 1, length, a, b, c);
+		overlay = new HashMap<String,DocPostings>();
+		names = names(docTable);
+		docLength = length;
+		sumW2 = a;
+		sumW2Ldf = b;
+		sumW2Ldf2 = c;
+		docCount = docCount(length);
+		bm25Norm = bm25Norm(length, docCount);
+		tfidfNorm = tfidfNorm(a, b, c, docCount);
+	}
+
+	private DocOrderedIndex(DocTable docTable, HashMap<String,DocPostings> base, HashMap<String,DocPostings> overlay,
+			int[] length, double[] a, double[] b, double[] c)
+	{
+		this.docTable = docTable;
+		this.base = base;
+		this.overlay = overlay;
+		names = names(docTable);
+		docLength = length;
+		sumW2 = a;
+		sumW2Ldf = b;
+		sumW2Ldf2 = c;
+		docCount = docCount(length);
+		bm25Norm = bm25Norm(length, docCount);
+		tfidfNorm = tfidfNorm(a, b, c, docCount);
+	}
+
+	/**
+	 * Makes the next version of the view, with the given keywords changed. The postings of the
+	 * changed keywords are sorted again, their old postings are taken out of the per-document sums
+	 * and the new ones added. Once the changed keywords pass a fraction of all keywords they are
+	 * folded into a new base. Must not run in two threads at once on views of one index.
+	 *
+	 * @param changed Current occurrence lists of the changed keywords, null or empty for removed keywords
+	 * @return New view; this one is left as it is
+	 */
+	DocOrderedIndex update(Map<String,? extends List<Occurrence>> changed)
+	{
+		HashMap<String,DocPostings> fresh = new HashMap<String,DocPostings>(changed.size() * 2);
+		for(Map.Entry<String,? extends List<Occurrence>> e : changed.entrySet())
+		{
+			DocPostings p = docOrdered(docTable, e.getValue());
+			// a document removed and added again leaves the same postings
+			if(!same(p, postings(e.getKey())))
+				fresh.put(e.getKey(), p == null ? NONE : p);
+		}
+		if(fresh.isEmpty())
+			return this;
+		HashMap<String,DocPostings> next = new HashMap<String,DocPostings>(overlay);
+		next.putAll(fresh);
+
+		int n = docTable.size();
+		int[] length = Arrays.copyOf(docLength, n);
+		double[] a = Arrays.copyOf(sumW2, n);
+		double[] b = Arrays.copyOf(sumW2Ldf, n);
+		double[] c = Arrays.copyOf(sumW2Ldf2, n);
+		for(Map.Entry<String,DocPostings> e : fresh.entrySet())
+		{
+			DocPostings was = postings(e.getKey());
+			if(was != null)
+				addWeights(was, -1, length, a, b, c);
+			addWeights(e.getValue(), 1, length, a, b, c);
+		}
+
+		if(next.size() > base.size() / 8 + 64)
+		{
+			HashMap<String,DocPostings> folded = new HashMap<String,DocPostings>(base);
+			for(Map.Entry<String,DocPostings> e : next.entrySet())
+			{
+				if(e.getValue() == NONE)
+					folded.remove(e.getKey());
+				else
+					folded.put(e.getKey(), e.getValue());
+			}
+			return new DocOrderedIndex(docTable, folded, new HashMap<String,DocPostings>(), length, a, b, c);
+		}
+		return new DocOrderedIndex(docTable, base, next, length, a, b, c);
+	}
+
+	/**
+	 * Returns the doc-ordered postings of a keyword.
+	 *
+	 * @param kw Keyword
+	 * @return Postings, null if the keyword is not indexed
+	 */
+	DocPostings postings(String kw)
+	{
+		DocPostings p = overlay.get(kw);
+		if(p == null)
+			p = base.get(kw);
+		return p == NONE ? null : p;
+	}
+
+	/**
+	 * Sorts an occurrence list on document id, giving new documents ids.
+	 *
+	 * @return Postings, null for a missing or empty list
+	 */
+	private static DocPostings docOrdered(DocTable docTable, List<Occurrence> occs)
+	{
+		if(occs == null || occs.isEmpty())
+			return null;
+		long[] packed = new long[occs.size()];
+		for(int i = 0; i < packed.length; i++)
+		{
+			Occurrence o = occs.get(i);
+			packed[i] = ((long)docTable.intern(o.document) << 32) | o.frequency;
+		}
+		Arrays.sort(packed);
+		int[] docs = new int[packed.length];
+		int[] freqs = new int[packed.length];
+		for(int i = 0; i < packed.length; i++)
+		{
+			docs[i] = (int)(packed[i] >>> 32);
+			freqs[i] = (int)packed[i];
+		}
+		return new DocPostings(docs, freqs);
+	}
+
+	/**
+	 * Returns true if two postings, either of which may be null, hold the same documents and frequencies.
+	 */
+	private static boolean same(DocPostings p, DocPostings q)
+	{
+		if(p == null || q == null)
+			return p == q;
+		return Arrays.equals(p.docs, q.docs) && Arrays.equals(p.freqs, q.freqs);
+	}
+
+	/**
+	 * Adds (sign 1) or takes out (sign -1) the postings of one keyword in the per-document
+	 * lengths and TF-IDF sums.
+	 */
+	private static void addWeights(DocPostings p, int sign, int[] length, double[] a, double[] b, double[] c)
+	{
+		double ldf = Math.log(p.size());
+		for(int i = 0; i < p.size(); i++)
+		{
+			int d = p.docs[i];
+			double w = tfWeight(p.freqs[i]);
+			double w2 = sign * w * w;
+			length[d] += sign * p.freqs[i];
+			a[d] += w2;
+			b[d] += w2 * ldf;
+			c[d] += w2 * ldf * ldf;
+		}
+	}
+
+	private static String[] names(DocTable docTable)
+	{
+		String[] names = new String[docTable.size()];
+		for(int i = 0; i < names.length; i++)
+			names[i] = docTable.name(i);
+		return names;
+	}
+
+	private static int docCount(int[] length)
+	{
+		int n = 0;
+		for(int len : length)
+		{
+			if(len > 0)
+				n++;
+		}
+		return n;
+	}
+
+	private static float[] bm25Norm(int[] length, int docCount)
+	{
+		long total = 0;
+		for(int len : length)
+			total += len;
+		float avg = docCount == 0 ? 1 : (float)total / docCount;
+		float[] norm = new float[length.length];
+		for(int d = 0; d < norm.length; d++)
+			norm[d] = K1 * (1 - B + B * length[d] / avg);
+		return norm;
+	}
+
+	private static float[] tfidfNorm(double[] a, double[] b, double[] c, int docCount)
+	{
+		double ln = Math.log(Math.max(docCount, 1));
+		float[] norm = new float[a.length];
+		for(int d = 0; d < norm.length; d++)
+		{
+			double sumSquares = ln * ln * a[d] - 2 * ln * b[d] + c[d];
+			// a document whose keywords are all in every document has no weight
+			norm[d] = sumSquares <= 1e-9 ? 1 : (float)Math.sqrt(sumSquares);
+		}
+		return norm;
+	}
+
+	/**
+	 * BM25 inverse document frequency weight of a keyword in this version.
+	 */
+	float bm25Idf(DocPostings p)
+	{
+		int df = p.size();
+		return (float)Math.log(1 + (docCount - df + 0.5) / (df + 0.5));
+	}
+
+	/**
+	 * TF-IDF inverse document frequency weight of a keyword in this version.
+	 */
+	float tfidfIdf(DocPostings p)
+	{
+		return (float)Math.log((double)docCount / p.size());
+	}
+
+	/**
+	 * BM25 score contribution of posting i of p, whose weight is idf.
+	 */
+	float bm25(DocPostings p, float idf, int i)
+	{
+		int tf = p.freqs[i];
+		return idf * tf * (K1 + 1) / (tf + bm25Norm[p.docs[i]]);
+	}
+
+	/**
+	 * Cosine-normalized TF-IDF score contribution of posting i of p, whose weight is idf.
+	 */
+	float tfidf(DocPostings p, float idf, int i)
+	{
+		return tfWeight(p.freqs[i]) * idf / tfidfNorm[p.docs[i]];
+	}
+
+	private static float tfWeight(int tf)
+	{
+		return 1 + (float)Math.log(tf);
+	}
+
+	/**
+	 * Returns the highest score a single posting of a keyword can contribute in this version,
+	 * finding it with one pass over the postings the first time it is asked for.
+	 *
+	 * @param kw Keyword
+	 * @param p Postings of the keyword
+	 * @param tfidf True for TF-IDF scoring, false for BM25
+	 * @return Score upper bound
+	 */
+	float maxScore(String kw, DocPostings p, boolean tfidf)
+	{
+		float[] max = maxScores.get(kw);
+		if(max == null)
+		{
+			max = new float[2];
+			float bm25Idf = bm25Idf(p);
+			float tfidfIdf = tfidfIdf(p);
+			for(int i = 0; i < p.size(); i++)
+			{
+				max[0] = Math.max(max[0], bm25(p, bm25Idf, i));
+				max[1] = Math.max(max[1], tfidf(p, tfidfIdf, i));
+			}
+			maxScores.putIfAbsent(kw, max);
+		}
+		return tfidf ? max[1] : max[0];
+	}
+
+	/**
+	 * Returns the first index in docs[from..to-1] whose document id is at least target, or to if
+	 * there is none. Gallops forward from from, then binary searches, so advancing a cursor by a
+	 * short distance costs little even in a long list.
+	 *
+	 * @param docs Ascending document ids
+	 * @param from Index to start at
+	 * @param to End of the range
+	 * @param target Document id to advance to
+	 * @return Index of the first document id >= target
+	 */
+	static int advance(int[] docs, int from, int to, int target)
+	{
+		if(from >= to || docs[from] >= target)
+			return from;
+		int step = 1;
+		int lo = from;
+		int hi = from + 1;
+		while(hi < to && docs[hi] < target)
+		{
+			lo = hi;
+			step <<= 1;
+			hi = from + step;
+		}
+		if(hi > to)
+			hi = to;
+		// docs[lo] < target, and docs[hi] >= target or hi == to
+		while(lo + 1 < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if(docs[mid] < target)
+				lo = mid;
+			else
+				hi = mid;
+		}
+		return hi;
+	}
+
+	/**
+	 * Returns the k best scoring documents for the keywords, using MaxScore pruning. Keywords
+	 * are ordered on their score upper bounds; once the k-th best score so far is above the sum of
+	 * the bounds of the weakest keywords, a document that only has those keywords cannot make the
+	 * result, so only the remaining (essential) keywords drive the walk over documents and the weak
+	 * ones are only looked up, by galloping, for documents that can still make it.
+	 *
+	 * @param keywords Keywords to search for (repeats and unknown keywords are ignored)
+	 * @param k Maximum number of documents in the result
+	 * @param tfidf True for TF-IDF scoring, false for BM25
+	 * @return Names of at most k documents in descending order of score, ties in document id order
+	 */
+	ArrayList<String> topK(List<String> keywords, int k, boolean tfidf)
+	{
+		ArrayList<String> found = new ArrayList<String>(keywords.size());
+		for(String kw : new LinkedHashSet<String>(keywords))
+		{
+			if(postings(kw) != null)
+				found.add(kw);
+		}
+		int n = found.size();
+		if(n == 0 || k <= 0)
+			return new ArrayList<String>();
+
+		// weakest keyword first
+		final float[] bound = new float[n];
+		Integer[] order = new Integer[n];
+		for(int i = 0; i < n; i++)
+		{
+			bound[i] = maxScore(found.get(i), postings(found.get(i)), tfidf);
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>()
+		{
+			public int compare(Integer a, Integer b)
+			{
+				return Float.compare(bound[a], bound[b]);
+			}
+		});
+		DocPostings[] t = new DocPostings[n];
+		float[] idf = new float[n];
+		float[] cumMax = new float[n];
+		for(int i = 0; i < n; i++)
+		{
+			t[i] = postings(found.get(order[i]));
+			idf[i] = tfidf ? tfidfIdf(t[i]) : bm25Idf(t[i]);
+			cumMax[i] = (i == 0 ? 0 : cumMax[i-1]) + bound[order[i]];
+		}
+		int[] pos = new int[n];
+
+		// min-heap of the best k so far, ordered on score, then on reverse document id
+		float[] heapScore = new float[k];
+		int[] heapDoc = new int[k];
+		int heapSize = 0;
+		float threshold = 0;
+		int firstEssential = 0;
+
+		while(true)
+		{
+			int doc = Integer.MAX_VALUE;
+			for(int i = firstEssential; i < n; i++)
+			{
+				if(pos[i] < t[i].size() && t[i].docs[pos[i]] < doc)
+					doc = t[i].docs[pos[i]];
+			}
+			if(doc == Integer.MAX_VALUE)
+				break;
+
+			float score = 0;
+			for(int i = firstEssential; i < n; i++)
+			{
+				if(pos[i] < t[i].size() && t[i].docs[pos[i]] == doc)
+				{
+					score += tfidf ? tfidf(t[i], idf[i], pos[i]) : bm25(t[i], idf[i], pos[i]);
+					pos[i]++;
+				}
+			}
+			for(int i = firstEssential - 1; i >= 0; i--)
+			{
+				if(heapSize == k && score + cumMax[i] <= threshold)
+					break;
+				pos[i] = advance(t[i].docs, pos[i], t[i].size(), doc);
+				if(pos[i] < t[i].size() && t[i].docs[pos[i]] == doc)
+					score += tfidf ? tfidf(t[i], idf[i], pos[i]) : bm25(t[i], idf[i], pos[i]);
+			}
+
+			if(heapSize < k)
+			{
+				heapScore[heapSize] = score;
+				heapDoc[heapSize] = doc;
+				siftUp(heapScore, heapDoc, heapSize++);
+			}
+			else if(score > threshold)
+			{
+				heapScore[0] = score;
+				heapDoc[0] = doc;
+				siftDown(heapScore, heapDoc, heapSize);
+			}
+			else
+			{
+				continue;
+			}
+			if(heapSize == k)
+			{
+				threshold = heapScore[0];
+				while(firstEssential < n && cumMax[firstEssential] <= threshold)
+					firstEssential++;
+			}
+		}
+
+		return drain(heapScore, heapDoc, heapSize);
+	}
+
+	/**
+	 * Returns the documents that match a Boolean query, best first. A document matches if it has
+	 * every keyword in all, at least one keyword in any (unless any is empty), and none of the
+	 * keywords in none. The score of a document is the sum of the frequencies of the all and any
+	 * keywords in it.
+	 *
+	 * The required keywords are intersected rarest first: the candidates start as the shortest
+	 * list, and each longer list is only probed, by galloping, for the remaining candidates, so the
+	 * cost depends on the rarest keyword rather than on the longest list. The optional and excluded
+	 * keywords are probed the same way; optional keywords are only merged into a union when there are
+	 * no required ones.
+	 *
+	 * @param all Keywords every result must have
+	 * @param any Keywords of which every result must have at least one; empty for no condition
+	 * @param none Keywords no result may have
+	 * @param k Maximum number of documents in the result
+	 * @return Names of at most k documents in descending order of score, ties in document id order
+	 */
+	ArrayList<String> booleanQuery(List<String> all, List<String> any, List<String> none, int k)
+	{
+		ArrayList<String> res = new ArrayList<String>();
+		DocPostings[] required = lookup(all);
+		DocPostings[] optional = present(lookup(any));
+		DocPostings[] excluded = present(lookup(none));
+		for(DocPostings p : required)
+		{
+			// a required keyword that is not indexed
+			if(p == null)
+				return res;
+		}
+		boolean anyGiven = any != null && !any.isEmpty();
+		if(k <= 0 || (required.length == 0 && !anyGiven) || (anyGiven && optional.length == 0))
+			return res;
+
+		// plan: rarest list first
+		Comparator<DocPostings> bySize = new Comparator<DocPostings>()
+		{
+			public int compare(DocPostings a, DocPostings b)
+			{
+				return a.size() - b.size();
+			}
+		};
+		Arrays.sort(required, bySize);
+		Arrays.sort(optional, bySize);
+
+		int[] docs;
+		float[] scores;
+		int n;
+		boolean anyChecked;
+		if(required.length > 0)
+		{
+			docs = required[0].docs.clone();
+			scores = new float[docs.length];
+			for(int i = 0; i < docs.length; i++)
+				scores[i] = required[0].freqs[i];
+			n = docs.length;
+			for(int t = 1; t < required.length && n > 0; t++)
+				n = probe(required[t], docs, scores, n, true);
+			anyChecked = false;
+		}
+		else
+		{
+			// union of the optional lists
+			docs = new int[0];
+			scores = new float[0];
+			n = 0;
+			for(DocPostings p : optional)
+			{
+				int[] md = new int[n + p.size()];
+				float[] ms = new float[md.length];
+				int i = 0;
+				int j = 0;
+				int m = 0;
+				while(i < n || j < p.size())
+				{
+					if(j == p.size() || (i < n && docs[i] < p.docs[j]))
+					{
+						md[m] = docs[i];
+						ms[m++] = scores[i++];
+					}
+					else if(i == n || p.docs[j] < docs[i])
+					{
+						md[m] = p.docs[j];
+						ms[m++] = p.freqs[j++];
+					}
+					else
+					{
+						md[m] = docs[i];
+						ms[m++] = scores[i++] + p.freqs[j++];
+					}
+				}
+				docs = md;
+				scores = ms;
+				n = m;
+			}
+			anyChecked = true;
+		}
+
+		if(!anyChecked && optional.length > 0)
+		{
+			// keep candidates with at least one optional keyword, adding up their frequencies
+			boolean[] hit = new boolean[n];
+			for(DocPostings p : optional)
+			{
+				int pos = 0;
+				for(int i = 0; i < n; i++)
+				{
+					pos = advance(p.docs, pos, p.size(), docs[i]);
+					if(pos == p.size())
+						break;
+					if(p.docs[pos] == docs[i])
+					{
+						hit[i] = true;
+						scores[i] += p.freqs[pos];
+					}
+				}
+			}
+			int m = 0;
+			for(int i = 0; i < n; i++)
+			{
+				if(hit[i])
+				{
+					docs[m] = docs[i];
+					scores[m++] = scores[i];
+				}
+			}
+			n = m;
+		}
+		for(int t = 0; t < excluded.length && n > 0; t++)
+			n = probe(excluded[t], docs, scores, n, false);
+
+		// best k of the matches
+		float[] heapScore = new float[Math.min(k, n)];
+		int[] heapDoc = new int[heapScore.length];
+		int heapSize = 0;
+		for(int i = 0; i < n; i++)
+		{
+			if(heapSize < heapScore.length)
+			{
+				heapScore[heapSize] = scores[i];
+				heapDoc[heapSize] = docs[i];
+				siftUp(heapScore, heapDoc, heapSize++);
+			}
+			else if(scores[i] > heapScore[0])
+			{
+				// documents come in id order, so an equal score never beats the weakest kept
+				heapScore[0] = scores[i];
+				heapDoc[0] = docs[i];
+				siftDown(heapScore, heapDoc, heapSize);
+			}
+		}
+		return drain(heapScore, heapDoc, heapSize);
+	}
+
+	/**
+	 * Looks up the doc-ordered postings of keywords, dropping repeats.
+	 *
+	 * @param keywords Keywords, may be null for none
+	 * @return Postings, with null for keywords that are not indexed
+	 */
+	private DocPostings[] lookup(List<String> keywords)
+	{
+		if(keywords == null)
+			return new DocPostings[0];
+		LinkedHashSet<String> distinct = new LinkedHashSet<String>(keywords);
+		DocPostings[] res = new DocPostings[distinct.size()];
+		int i = 0;
+		for(String kw : distinct)
+			res[i++] = postings(kw);
+		return res;
+	}
+
+	/**
+	 * Drops the nulls (keywords that are not indexed) from looked up postings.
+	 */
+	private static DocPostings[] present(DocPostings[] ps)
+	{
+		ArrayList<DocPostings> res = new ArrayList<DocPostings>(ps.length);
+		for(DocPostings p : ps)
+		{
+			if(p != null)
+				res.add(p);
+		}
+		return res.toArray(new DocPostings[res.size()]);
+	}
+
+	/**
+	 * Keeps the candidates in docs[0..n-1] that are (or are not) in a posting list, galloping through
+	 * the list since candidates are in ascending order. When keeping the ones in the list, their
+	 * frequencies in the list are added to their scores.
+	 *
+	 * @param p Posting list
+	 * @param docs Candidate document ids, ascending; compacted in place
+	 * @param scores Candidate scores; compacted in place
+	 * @param n Number of candidates
+	 * @param keep True to keep candidates in the list, false to keep those not in it
+	 * @return Number of candidates left
+	 */
+	private static int probe(DocPostings p, int[] docs, float[] scores, int n, boolean keep)
+	{
+		int m = 0;
+		int pos = 0;
+		for(int i = 0; i < n; i++)
+		{
+			pos = advance(p.docs, pos, p.size(), docs[i]);
+			boolean found = pos < p.size() && p.docs[pos] == docs[i];
+			if(found == keep)
+			{
+				docs[m] = docs[i];
+				scores[m++] = found ? scores[i] + p.freqs[pos] : scores[i];
+			}
+			else if(keep && pos == p.size())
+			{
+				break;
+			}
+		}
+		return m;
+	}
+
+	/**
+	 * Empties a min-heap of the best documents into their names, best first.
+	 *
+	 * @param heapScore Heap scores
+	 * @param heapDoc Heap document ids
+	 * @param heapSize Number of entries
+	 * @return Names in descending order of score
+	 */
+	private ArrayList<String> drain(float[] heapScore, int[] heapDoc, int heapSize)
+	{
+		// pop the heap, weakest first, into the result back to front
+		String[] res = new String[heapSize];
+		for(int i = heapSize - 1; i >= 0; i--)
+		{
+			res[i] = names[heapDoc[0]];
+			heapScore[0] = heapScore[i];
+			heapDoc[0] = heapDoc[i];
+			siftDown(heapScore, heapDoc, i);
+		}
+		return new ArrayList<String>(Arrays.asList(res));
+	}
+
+	/**
+	 * True if entry a ranks below entry b: lower score, or same score and higher document id.
+	 */
+	private static boolean below(float[] score, int[] doc, int a, int b)
+	{
+		return score[a] < score[b] || (score[a] == score[b] && doc[a] > doc[b]);
+	}
+
+	private static void siftUp(float[] score, int[] doc, int i)
+	{
+		while(i > 0)
+		{
+			int parent = (i - 1) / 2;
+			if(!below(score, doc, i, parent))
+				break;
+			swap(score, doc, i, parent);
+			i = parent;
+		}
+	}
+
+	private static void siftDown(float[] score, int[] doc, int size)
+	{
+		int i = 0;
+		while(true)
+		{
+			int least = i;
+			int l = 2 * i + 1;
+			int r = l + 1;
+			if(l < size && below(score, doc, l, least))
+				least = l;
+			if(r < size && below(score, doc, r, least))
+				least = r;
+			if(least == i)
+				return;
+			swap(score, doc, i, least);
+			i = least;
+		}
+	}
+
+	private static void swap(float[] score, int[] doc, int a, int b)
+	{
+		float s = score[a];
+		score[a] = score[b];
+		score[b] = s;
+		int d = doc[a];
+		doc[a] = doc[b];
+		doc[b] = d;
+	}
+}
@@ -0,0 +1,92 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class interns document names into dense int ids. Ids are handed out in order of
+ * first use, starting at 0, and are never reused.
+ *
+ */
+class DocTable
+{
+	/**
+	 * Document names, indexed by id.
+	 */
+	private final ArrayList<String> names;
+
+	/**
+	 * Id of every document name.
+	 */
+	private final HashMap<String,Integer> ids;
+
+	/**
+	 * Creates an empty table.
+	 */
+	DocTable()
+	{
+		names = new ArrayList<String>();
+		ids = new HashMap<String,Integer>();
+	}
+
+	/**
+	 * Returns the id of a document, giving it a new id if it has none yet.
+	 *
+	 * @param doc Document name
+	 * @return Document id
+	 */
+	int intern(String doc)
+	{
+		Integer id = ids.get(doc);
+		if(id == null)
+		{
+			id = names.size();
+			ids.put(doc, id);
+			names.add(doc);
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the id of a document.
+	 *
+	 * @param doc Document name
+	 * @return Document id, -1 if the document has no id
+	 */
+	int id(String doc)
+	{
+		Integer id = ids.get(doc);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Returns the name of a document.
+	 *
+	 * @param id Document id
+	 * @return Document name
+	 */
+	String name(int id)
+	{
+		return names.get(id);
+	}
+
+	/**
+	 * Returns the number of ids handed out.
+	 *
+	 * @return Number of documents
+	 */
+	int size()
+	{
+		return names.size();
+	}
+
+	/**
+	 * Estimates the heap used by the table, not counting the name Strings themselves.
+	 *
+	 * @return Estimated bytes
+	 */
+	long heapBytes()
+	{
+		// list array slot, hash table node and slot, boxed id
+		return 16 + names.size() * (4L + 32 + 4 + 16);
+	}
+}
@@ -22,6 +22,27 @@ public class Expression {
 	 * Array symbols in the expression
 	 */
 	ArrayList<ArraySymbol> arrays;
+
+	/**
+	 * Values of the symbols, by slot
+	 */
+	SymbolTable symbols;
+
+	/**
+	 * Parsed expression, built once by parse and walked by evaluate; a graph with shared nodes
+	 * once optimized
+	 */
+	ExpressionNode tree;
+
+	/**
+	 * Optimized expression, used by evaluate once optimize has been called
+	 */
+	ExpressionPlan plan;
+
+	/**
+	 * Compiled expression, used by evaluate once compile has been called
+	 */
+	ExpressionCompiler.Compiled compiled;
     
     /**
      * String containing all delimiters (characters other than variables and constants), 
@@ -50,6 +71,11 @@ public class Expression {
     {
     	scalars = new ArrayList<ScalarSymbol>();
     	arrays = new ArrayList<ArraySymbol>();
+    	tree = null;
+    	plan = null;
+    	compiled = null;
+    	HashSet<String> scalarNames = new HashSet<String>();
+    	HashSet<String> arrayNames = new HashSet<String>();
     	for(int i = 0; i < expr.length(); i++)
     	{
     		char c = expr.charAt(i);
@@ -69,16 +95,21 @@ public class Expression {
 				i = j-1;
     			if(i != expr.length()-1 && expr.charAt(i+1) == '[')
     			{	
-    				ArraySymbol as = new ArraySymbol(name);
-    				arrays.add(as);
+    				if(arrayNames.add(name))
+    				{
+    					arrays.add(new ArraySymbol(name));
+    				}
     			}
     			else
     			{
-    				ScalarSymbol ss = new ScalarSymbol(name);
-    				scalars.add(ss);
+    				if(scalarNames.add(name))
+    				{
+    					scalars.add(new ScalarSymbol(name));
+    				}
     			}
     		}	
     	}
+    	symbols = new SymbolTable(scalars, arrays);
     }
     
     /**
@@ -93,39 +124,232 @@ public class Expression {
             StringTokenizer st = new StringTokenizer(sc.nextLine().trim());
             int numTokens = st.countTokens();
             String sym = st.nextToken();
-            ScalarSymbol ssymbol = new ScalarSymbol(sym);
-            ArraySymbol asymbol = new ArraySymbol(sym);
-            int ssi = scalars.indexOf(ssymbol);
-            int asi = arrays.indexOf(asymbol);
+            int ssi = symbols.scalarSlot(sym);
+            int asi = symbols.arraySlot(sym);
             if (ssi == -1 && asi == -1) {
             	continue;
             }
             int num = Integer.parseInt(st.nextToken());
             if (numTokens == 2) { // scalar symbol
-                scalars.get(ssi).value = num;
+                symbols.setScalar(ssi, num);
             } else { // array symbol
-            	asymbol = arrays.get(asi);
-            	asymbol.values = new int[num];
+            	int[] values = new int[num];
                 // following are (index,val) pairs
                 while (st.hasMoreTokens()) {
                     String tok = st.nextToken();
                     StringTokenizer stt = new StringTokenizer(tok," (,)");
                     int index = Integer.parseInt(stt.nextToken());
                     int val = Integer.parseInt(stt.nextToken());
-                    asymbol.values[index] = val;              
+                    values[index] = val;              
                 }
+                symbols.setArray(asi, values);
             }
         }
     }
     
     
     /**
-     * Evaluates the expression, using RECURSION to evaluate subexpressions and to evaluate array 
-     * subscript expressions.
+     * Loads values for symbols in the expression, in the same text format as the Scanner version,
+     * with a streaming parser that fills the symbol table directly. No Strings or tokens are
+     * made, so this is the one to use for arrays with millions of entries.
+     * 
+     * @param in Values input, read to the end but not closed
+     * @throws IOException If there is a problem with the input
+     */
+    public void loadSymbolValues(InputStream in) 
+    throws IOException {
+    	SymbolValueLoader.loadText(symbols, in);
+    }
+    
+    /**
+     * Loads values for symbols in the expression from the binary format written by
+     * saveSymbolValues, which holds arrays whole and is read with bulk copies.
+     * 
+     * @param in Binary values input, read to the end but not closed
+     * @throws IOException If there is a problem with the input
+     */
+    public void loadBinarySymbolValues(InputStream in) 
+    throws IOException {
+    	SymbolValueLoader.loadBinary(symbols, in);
+    }
+    
+    /**
+     * Writes the current values of the symbols in the binary format read by
+     * loadBinarySymbolValues. Arrays with no values are left out.
+     * 
+     * @param out Output, flushed but not closed
+     * @throws IOException If there is a problem with the output
+     */
+    public void saveSymbolValues(OutputStream out) 
+    throws IOException {
+    	SymbolValueLoader.saveBinary(symbols, out);
+    }
+    
+    /**
+     * Returns the slot of a scalar symbol, for setting its value with setScalarValue.
+     * 
+     * @param name Name of the scalar
+     * @return Slot, -1 if the expression has no scalar of that name
+     */
+    public int scalarSlot(String name) {
+    	return symbols.scalarSlot(name);
+    }
+    
+    /**
+     * Returns the slot of an array symbol, for setting its values with setArrayValues.
+     * 
+     * @param name Name of the array
+     * @return Slot, -1 if the expression has no array of that name
+     */
+    public int arraySlot(String name) {
+    	return symbols.arraySlot(name);
+    }
+    
+    /**
+     * Sets the value of a scalar symbol. Values are read from the symbol table by evaluate, so
+     * they must be set here or by loadSymbolValues rather than in the symbol objects.
+     * 
+     * @param slot Slot of the scalar
+     * @param value Value
+     */
+    public void setScalarValue(int slot, int value) {
+    	symbols.setScalar(slot, value);
+    }
+    
+    /**
+     * Sets the values of an array symbol.
+     * 
+     * @param slot Slot of the array
+     * @param values Values, not copied
+     */
+    public void setArrayValues(int slot, int[] values) {
+    	symbols.setArray(slot, values);
+    }
+    
+    /**
+     * Parses the expression into a tree, with precedence, brackets and array subscripts resolved
+     * and every variable bound to its symbol. Builds the symbols first if buildSymbols has not been
+     * called. The tree is kept until buildSymbols is called again, so the parsing cost is paid once
+     * however many times the expression is evaluated.
+     * 
+     * @throws IllegalArgumentException If the expression is malformed
+     */
+    public void parse() {
+    	if (symbols == null) {
+    		buildSymbols();
+    	}
+    	tree = new ExpressionParser(expr, symbols).parse();
+    	plan = null;
+    	compiled = null;
+    	symbols.listener = null;
+    }
+    
+    /**
+     * Optimizes the parsed expression and makes evaluate use the result: subexpressions of
+     * constants are folded, identical subexpressions are computed once into shared temporaries,
+     * and array subscripts are computed ahead of the array reads that use them. Nothing is
+     * reordered, so the results are exactly those of the parsed expression. Parses the expression
+     * first if needed, and drops any compiled form; compile afterwards compiles the optimized
+     * expression.
+     */
+    public void optimize() {
+    	if (tree == null) {
+    		parse();
+    	}
+    	tree = ExpressionOptimizer.optimize(tree);
+    	plan = new ExpressionPlan(tree, symbols);
+    	compiled = null;
+    	symbols.listener = null;
+    }
+    
+    /**
+     * Makes evaluate recompute only what changed since the evaluation before. The expression is
+     * optimized, and each of its subexpressions remembers its value and the symbols it depends
+     * on. Setting a value with setScalarValue, setArrayValues or loadSymbolValues marks the
+     * subexpressions that read it, and evaluate recomputes those and, where their values changed,
+     * the subexpressions above them, reusing the remembered values everywhere else. Changes made
+     * inside an array given to setArrayValues are not seen until it is set again. Drops any
+     * compiled form.
+     */
+    public void enableIncremental() {
+    	if (tree == null) {
+    		parse();
+    	}
+    	tree = ExpressionOptimizer.optimize(tree);
+    	IncrementalPlan incremental = new IncrementalPlan(tree, symbols);
+    	plan = incremental;
+    	compiled = null;
+    	symbols.listener = incremental;
+    }
+    
+    /**
+     * Compiles the expression to a JVM class that computes it directly from the symbols, for
+     * evaluation in hot loops, and makes evaluate use it. Parses the expression first if needed.
+     * The compiled form is dropped, with the tree, by buildSymbols and parse.
+     * 
+     * @throws IllegalArgumentException If the expression is malformed or too large to compile
+     */
+    public void compile() {
+    	if (tree == null) {
+    		parse();
+    	}
+    	compiled = ExpressionCompiler.compile(tree, symbols);
+    }
+    
+    /**
+     * Evaluates the expression with the current symbol values, with the compiled code if compile
+     * has been called, the optimized plan if optimize has been called, otherwise by walking the
+     * parsed tree. The expression is parsed on the first call; later calls allocate nothing.
      * 
      * @return Result of evaluation
      */
     public float evaluate() {
+    	if (compiled != null) {
+    		return compiled.evaluate();
+    	}
+    	if (plan != null) {
+    		return plan.evaluate();
+    	}
+    	return evaluateTree();
+    }
+    
+    /**
+     * Evaluates the expression for many rows of scalar values at once. Each scalar may be given a
+     * column with its value in every row; the others keep their current value, and arrays their
+     * current values, in all rows. The rows are evaluated a block at a time, with loops over the
+     * columns that the JIT can vectorize, and large batches are split across cores.
+     * 
+     * @param columns Scalar values by name, each an int[] or float[] with a value for every row
+     * @param results Result of each row; its length is the number of rows
+     * @throws IllegalArgumentException If a column is not an int[] or float[], or is too short
+     */
+    public void evaluateBatch(Map<String,?> columns, float[] results) {
+    	if (tree == null) {
+    		parse();
+    	}
+    	ExpressionBatch.evaluate(tree, symbols, columns, results);
+    }
+    
+    /**
+     * Evaluates the expression by walking the parsed tree, parsing it first if needed.
+     * 
+     * @return Result of evaluation
+     */
+    float evaluateTree() {
+    	if (tree == null) {
+    		parse();
+    	}
+    	return tree.evaluate();
+    }
+    
+    /**
+     * Evaluates the expression by rewriting its text: each bracket is evaluated recursively and its
+     * value substituted back into the string. This is the original evaluator, kept as a reference
+     * for the tree walk.
+     * 
+     * @return Result of evaluation
+     */
+    float evaluateByRewriting() {
     		/** COMPLETE THIS METHOD **/
     		// following line just a placeholder for compilation
     	/*StringTokenizer st = new StringTokenizer(expr, delims);
@@ -158,9 +382,7 @@ public class Expression {
     	int a = s.length()-1;
     	char b = s.charAt(a);
     	if(Character.isLetter(b)){
-    		ScalarSymbol ss = new ScalarSymbol(s);
-    		float val = (float)(scalars.get(scalars.indexOf(ss)).value);
-    		return val;
+    		return symbols.scalarValues[symbols.scalarSlot(s)];
     	}else{
     		return Float.parseFloat(s);
     	}
@@ -168,8 +390,7 @@ public class Expression {
     	
     private int getAValue(String s, int i){
     	s = s.substring(0,s.indexOf('['));
-    	ArraySymbol as = new ArraySymbol(s);
-    	return arrays.get(arrays.indexOf(as)).values[i];
+    	return symbols.arrayValues[symbols.arraySlot(s)][i];
     }
     
     private float prod(String s)
@@ -0,0 +1,217 @@
+package apps;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class evaluates a parsed expression over many rows of scalar values at once. Values come in
+ * columns, one per scalar, and the tree is evaluated a block of rows at a time: each node fills a
+ * buffer with its value for every row of the block, with a simple loop over the buffers of its
+ * children. Loops of that shape are unrolled and vectorized by the JIT, and the cost of walking the
+ * tree is paid once per block rather than once per row.
+ *
+ * A node uses the buffer of its level, and the right operand of a binary operation the next level,
+ * so a tree needs as many buffers as its longest chain of right operands. Large batches are split
+ * into ranges of blocks evaluated on the common fork-join pool, each with buffers of its own.
+ *
+ */
+class ExpressionBatch
+{
+	/**
+	 * Rows per block, small enough that the buffers stay in the L1 or L2 cache.
+	 */
+	static final int BLOCK = 1024;
+
+	/**
+	 * Ranges of at most this many rows are evaluated on one thread.
+	 */
+	static final int SPLIT = 32 * BLOCK;
+
+	private final ExpressionNode tree;
+
+	/**
+	 * Column of each scalar slot, an int[] or a float[]; null for a scalar with no column.
+	 */
+	private final Object[] columns;
+
+	private final int levels;
+	private final float[] results;
+
+	private ExpressionBatch(ExpressionNode tree, Object[] columns, float[] results)
+	{
+		this.tree = tree;
+		this.columns = columns;
+		this.results = results;
+		levels = levels(tree);
+	}
+
+	/**
+	 * Evaluates an expression for every row.
+	 *
+	 * @param tree Parsed expression
+	 * @param symbols Symbol table the tree is bound to
+	 * @param columns Values of scalars, by name: an int[] or float[] with a value for every row.
+	 *        Scalars with no column keep their current value in every row.
+	 * @param results Result of each row; its length is the number of rows
+	 * @throws IllegalArgumentException If a column is not an int[] or float[], or is too short
+	 */
+	static void evaluate(ExpressionNode tree, SymbolTable symbols, Map<String,?> columns, float[] results)
+	{
+		Object[] bound = new Object[symbols.scalarCount()];
+		for(Map.Entry<String,?> entry : columns.entrySet())
+		{
+			int slot = symbols.scalarSlot(entry.getKey());
+			Object column = entry.getValue();
+			if(slot == -1 || column == null)
+				continue;
+			int length;
+			if(column instanceof int[])
+				length = ((int[])column).length;
+			else if(column instanceof float[])
+				length = ((float[])column).length;
+			else
+				throw new IllegalArgumentException("column " + entry.getKey() + " is not an int[] or float[]");
+			if(length < results.length)
+				throw new IllegalArgumentException("column " + entry.getKey() + " has " + length + " values for " + results.length + " rows");
+			bound[slot] = column;
+		}
+
+		ExpressionBatch batch = new ExpressionBatch(tree, bound, results);
+		if(results.length > SPLIT)
+			ForkJoinPool.commonPool().invoke(batch.new Task(0, results.length));
+		else
+			batch.range(0, results.length);
+	}
+
+	/**
+	 * Evaluates a range of rows on the current thread.
+	 */
+	private void range(int from, int to)
+	{
+		float[][] buffers = new float[levels][Math.min(BLOCK, to - from)];
+		for(int start = from; start < to; start += BLOCK)
+		{
+			int n = Math.min(BLOCK, to - start);
+			fill(tree, start, n, buffers, 0);
+			System.arraycopy(buffers[0], 0, results, start, n);
+		}
+	}
+
+	/**
+	 * Fills the buffer of a level with the value of a subtree for n rows from start.
+	 */
+	private void fill(ExpressionNode node, int start, int n, float[][] buffers, int level)
+	{
+		float[] out = buffers[level];
+		if(node instanceof ExpressionNode.Constant)
+		{
+			Arrays.fill(out, 0, n, ((ExpressionNode.Constant)node).value);
+		}
+		else if(node instanceof ExpressionNode.Scalar)
+		{
+			ExpressionNode.Scalar scalar = (ExpressionNode.Scalar)node;
+			Object column = columns[scalar.slot];
+			if(column instanceof int[])
+			{
+				int[] c = (int[])column;
+				for(int i = 0; i < n; i++)
+					out[i] = c[start + i];
+			}
+			else if(column instanceof float[])
+			{
+				System.arraycopy((float[])column, start, out, 0, n);
+			}
+			else
+			{
+				Arrays.fill(out, 0, n, scalar.values[scalar.slot]);
+			}
+		}
+		else if(node instanceof ExpressionNode.Element)
+		{
+			ExpressionNode.Element e = (ExpressionNode.Element)node;
+			fill(e.index, start, n, buffers, level);
+			int[] values = e.arrays[e.slot];
+			for(int i = 0; i < n; i++)
+				out[i] = values[(int)out[i]];
+		}
+		else if(node instanceof ExpressionNode.Negate)
+		{
+			fill(((ExpressionNode.Negate)node).operand, start, n, buffers, level);
+			for(int i = 0; i < n; i++)
+				out[i] = -out[i];
+		}
+		else
+		{
+			ExpressionNode.Binary b = (ExpressionNode.Binary)node;
+			fill(b.left, start, n, buffers, level);
+			fill(b.right, start, n, buffers, level + 1);
+			float[] right = buffers[level + 1];
+			switch(b.op)
+			{
+				case '+':
+					for(int i = 0; i < n; i++)
+						out[i] += right[i];
+					break;
+				case '-':
+					for(int i = 0; i < n; i++)
+						out[i] -= right[i];
+					break;
+				case '*':
+					for(int i = 0; i < n; i++)
+						out[i] *= right[i];
+					break;
+				default:
+					for(int i = 0; i < n; i++)
+						out[i] /= right[i];
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of buffers needed to evaluate a subtree.
+	 */
+	private static int levels(ExpressionNode node)
+	{
+		if(node instanceof ExpressionNode.Element)
+			return levels(((ExpressionNode.Element)node).index);
+		if(node instanceof ExpressionNode.Negate)
+			return levels(((ExpressionNode.Negate)node).operand);
+		if(node instanceof ExpressionNode.Binary)
+		{
+			ExpressionNode.Binary b = (ExpressionNode.Binary)node;
+			return Math.max(levels(b.left), 1 + levels(b.right));
+		}
+		return 1;
+	}
+
+	/**
+	 * Splits a range of rows in halves until it is small enough for one thread.
+	 */
+	private class Task extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		final int from;
+		final int to;
+
+		Task(int from, int to)
+		{
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute()
+		{
+			if(to - from > SPLIT)
+			{
+				// split on a block boundary, so every block but the last is full
+				int mid = from + (to - from) / 2 / BLOCK * BLOCK;
+				invokeAll(new Task(from, mid), new Task(mid, to));
+				return;
+			}
+			// each task writes its own rows, and invoke() publishes them to the caller
+			range(from, to);
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package apps;
+
+import java.util.*;
+
+/**
+ * Microbenchmark of the ways to evaluate an expression: rewriting its text (the original
+ * evaluator), walking the parsed tree, running the optimized plan, running the incremental plan
+ * and running the compiled code. Every scalar is set to a value from 0 to 7 and every array to 64
+ * values from 0 to 7, so subscripts made of symbols stay in bounds, and one scalar is changed
+ * before each evaluation so no result can be reused. The incremental plan also reports how many
+ * of its steps each such change recomputes. The evaluators are checked to agree on each round.
+ *
+ * Usage: java apps.ExpressionBenchmark [expression...]
+ *
+ */
+class ExpressionBenchmark
+{
+	/**
+	 * Expressions benchmarked when none are given.
+	 */
+	static final String[] EXPRESSIONS = {
+		"a-(b+A[B[2]])*d+3",
+		"(a+b)*(c-d)/(e+1)+A[B[a]]*A[b]-(c*(d+e*(a-b)))",
+		"A[B[A[B[a]]]]*(b+c*(d+e*(a+b*(c+d))))-B[A[c]+d]/(e+2)",
+		"A[a+1]*(b+c) + B[a+1]/(b+c+1) - (b+c)*(2*3)",
+	};
+
+	/**
+	 * Number of timed rounds, after as many warm-up rounds.
+	 */
+	static final int ROUNDS = 10;
+
+	/**
+	 * Evaluations per round for the tree and the compiled code.
+	 */
+	static final int EVALUATIONS = 1000000;
+
+	/**
+	 * Evaluations per round for the text rewriting, which is much slower.
+	 */
+	static final int REWRITES = 20000;
+
+	public static void main(String[] args)
+	{
+		String[] exprs = args.length > 0 ? args : EXPRESSIONS;
+		for(String text : exprs)
+		{
+			Expression expr = new Expression(text);
+			expr.buildSymbols();
+			Random random = new Random(text.hashCode());
+			for(int slot = 0; slot < expr.scalars.size(); slot++)
+				expr.setScalarValue(slot, random.nextInt(8));
+			for(int slot = 0; slot < expr.arrays.size(); slot++)
+			{
+				int[] values = new int[64];
+				for(int i = 0; i < values.length; i++)
+					values[i] = random.nextInt(8);
+				expr.setArrayValues(slot, values);
+			}
+			// the first scalar, written straight into the symbol table
+			int[] varied = expr.scalars.isEmpty() ? new int[1] : expr.symbols.scalarValues;
+			expr.parse();
+			ExpressionCompiler.Compiled compiled = ExpressionCompiler.compile(expr.tree, expr.symbols);
+			ExpressionPlan plan = new ExpressionPlan(ExpressionOptimizer.optimize(expr.tree), expr.symbols);
+
+			// the incremental plan must be told of every change, so it gets a table of its own
+			Expression inc = new Expression(text);
+			inc.buildSymbols();
+			for(int slot = 0; slot < inc.scalars.size(); slot++)
+				inc.setScalarValue(slot, expr.symbols.scalarValues[slot]);
+			for(int slot = 0; slot < inc.arrays.size(); slot++)
+				inc.setArrayValues(slot, expr.symbols.arrayValues[slot]);
+			inc.enableIncremental();
+			IncrementalPlan incremental = (IncrementalPlan)inc.plan;
+			boolean vary = !inc.scalars.isEmpty();
+
+			long rewriteNanos = 0;
+			long treeNanos = 0;
+			long planNanos = 0;
+			long incrementalNanos = 0;
+			long recomputed = 0;
+			long compiledNanos = 0;
+			double sink = 0;
+			for(int round = 0; round < 2 * ROUNDS; round++)
+			{
+				long t0 = System.nanoTime();
+				float rewritten = 0;
+				for(int i = 0; i < REWRITES; i++)
+				{
+					varied[0] = i & 7;
+					rewritten += expr.evaluateByRewriting();
+				}
+				long t1 = System.nanoTime();
+				float walked = 0;
+				for(int i = 0; i < EVALUATIONS; i++)
+				{
+					varied[0] = i & 7;
+					walked += expr.tree.evaluate();
+				}
+				long t2 = System.nanoTime();
+				float planned = 0;
+				for(int i = 0; i < EVALUATIONS; i++)
+				{
+					varied[0] = i & 7;
+					planned += plan.evaluate();
+				}
+				long t3 = System.nanoTime();
+				long steps = incremental.recomputed;
+				float updated = 0;
+				for(int i = 0; i < EVALUATIONS; i++)
+				{
+					if(vary)
+						inc.setScalarValue(0, i & 7);
+					updated += incremental.evaluate();
+				}
+				long t4 = System.nanoTime();
+				steps = incremental.recomputed - steps;
+				float run = 0;
+				for(int i = 0; i < EVALUATIONS; i++)
+				{
+					varied[0] = i & 7;
+					run += compiled.evaluate();
+				}
+				long t5 = System.nanoTime();
+
+				varied[0] = round & 7;
+				if(vary)
+					inc.setScalarValue(0, round & 7);
+				float check = expr.tree.evaluate();
+				if(expr.evaluateByRewriting() != check || plan.evaluate() != check || incremental.evaluate() != check
+						|| compiled.evaluate() != check)
+					throw new IllegalStateException(text + ": evaluators disagree");
+				if(round >= ROUNDS)
+				{
+					rewriteNanos += t1 - t0;
+					treeNanos += t2 - t1;
+					planNanos += t3 - t2;
+					incrementalNanos += t4 - t3;
+					recomputed += steps;
+					compiledNanos += t5 - t4;
+				}
+				sink += rewritten + walked + planned + updated + run;
+			}
+
+			System.out.println(text + (sink == 0.5 ? " " : ""));
+			System.out.printf("  text rewriting: %8.1f ns/evaluation%n", (double)rewriteNanos / ROUNDS / REWRITES);
+			System.out.printf("  tree walk:      %8.1f ns/evaluation%n", (double)treeNanos / ROUNDS / EVALUATIONS);
+			System.out.printf("  optimized plan: %8.1f ns/evaluation (%d steps)%n", (double)planNanos / ROUNDS / EVALUATIONS, plan.steps());
+			System.out.printf("  incremental:    %8.1f ns/evaluation (%.1f steps recomputed per update)%n",
+					(double)incrementalNanos / ROUNDS / EVALUATIONS, (double)recomputed / ROUNDS / EVALUATIONS);
+			System.out.printf("  compiled:       %8.1f ns/evaluation%n", (double)compiledNanos / ROUNDS / EVALUATIONS);
+		}
+	}
+}
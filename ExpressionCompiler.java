@@ -0,0 +1,441 @@
+package apps;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.*;
+
+/**
+ * This class compiles a parsed expression to JVM bytecode. One class is generated whose evaluate
+ * method computes the formula straight from the slots of the symbol table, with no tree, no
+ * virtual calls and no branches:
+ *
+ * <pre>
+ * a-(b+A[B[2]])*d+3  with a, b, d in scalar slots 0-2 and A, B in array slots 0-1 compiles to
+ *   s[0] i2f  s[1] i2f  a[0]  a[1] 2.0 f2i iaload i2f  f2i iaload i2f
+ *   fadd  s[2] i2f  fmul  fsub  3.0 fadd  freturn
+ * </pre>
+ *
+ * A node shared by several parents, as in an expression optimized by ExpressionOptimizer, is
+ * computed where it is first used and kept in a local variable for the others.
+ *
+ * The class is defined as a hidden class of this package, so it can be unloaded with the
+ * expression, and the JIT compiles and inlines it like any other small method. The class file is
+ * written by hand: the method has no branches, so it needs no stack map frames.
+ *
+ */
+class ExpressionCompiler
+{
+	/**
+	 * Largest method the JVM accepts, in bytes of code.
+	 */
+	private static final int MAX_CODE = 65535;
+
+	private static final String FORMULA = "apps/ExpressionCompiler$Formula";
+
+	/**
+	 * Interface of the generated classes.
+	 */
+	interface Formula
+	{
+		/**
+		 * Evaluates the formula.
+		 *
+		 * @param scalars Scalar values, by slot
+		 * @param arrays Array values, by slot
+		 * @return Value of the formula
+		 */
+		float evaluate(int[] scalars, int[][] arrays);
+	}
+
+	/**
+	 * A compiled expression, bound to its symbol table.
+	 */
+	static final class Compiled
+	{
+		final Formula formula;
+		final int[] scalars;
+		final int[][] arrays;
+
+		Compiled(Formula formula, SymbolTable symbols)
+		{
+			this.formula = formula;
+			this.scalars = symbols.scalarValues;
+			this.arrays = symbols.arrayValues;
+		}
+
+		/**
+		 * Evaluates the expression with the current symbol values.
+		 *
+		 * @return Result of evaluation
+		 */
+		float evaluate()
+		{
+			return formula.evaluate(scalars, arrays);
+		}
+	}
+
+	private final ClassFile cf = new ClassFile();
+	private final ByteBuilder code = new ByteBuilder();
+	private int depth;
+	private int maxDepth;
+
+	/**
+	 * Number of parents of each node, and the local variable of each shared node computed so far.
+	 */
+	private final IdentityHashMap<ExpressionNode,Integer> parents = new IdentityHashMap<ExpressionNode,Integer>();
+	private final IdentityHashMap<ExpressionNode,Integer> locals = new IdentityHashMap<ExpressionNode,Integer>();
+	private int maxLocals = 3;
+
+	private ExpressionCompiler()
+	{
+	}
+
+	/**
+	 * Compiles a parsed expression.
+	 *
+	 * @param tree Root of the tree
+	 * @param symbols Symbol table the tree is bound to
+	 * @return Compiled expression
+	 * @throws IllegalArgumentException If the expression is too large for one method
+	 */
+	static Compiled compile(ExpressionNode tree, SymbolTable symbols)
+	{
+		ExpressionCompiler c = new ExpressionCompiler();
+		c.countParents(tree);
+		c.emit(tree);
+		c.code.u1(0xae); // freturn
+		if(c.code.length() > MAX_CODE)
+			throw new IllegalArgumentException("expression too large to compile: " + c.code.length() + " bytes of code");
+		byte[] bytes = c.classFile();
+		try
+		{
+			MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+			Formula formula = (Formula)lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+			return new Compiled(formula, symbols);
+		}
+		catch(Throwable e)
+		{
+			throw new IllegalStateException("cannot define compiled expression", e);
+		}
+	}
+
+	private void countParents(ExpressionNode node)
+	{
+		Integer n = parents.get(node);
+		parents.put(node, n == null ? 1 : n + 1);
+		if(n != null)
+			return;
+		if(node instanceof ExpressionNode.Element)
+		{
+			countParents(((ExpressionNode.Element)node).index);
+		}
+		else if(node instanceof ExpressionNode.Negate)
+		{
+			countParents(((ExpressionNode.Negate)node).operand);
+		}
+		else if(node instanceof ExpressionNode.Binary)
+		{
+			countParents(((ExpressionNode.Binary)node).left);
+			countParents(((ExpressionNode.Binary)node).right);
+		}
+	}
+
+	/**
+	 * Emits a node, or loads it if it is shared and already computed.
+	 */
+	private void emit(ExpressionNode node)
+	{
+		Integer local = locals.get(node);
+		if(local != null)
+		{
+			localOp(0x17, local); // fload
+			push(1);
+			return;
+		}
+		compute(node);
+		if(parents.get(node) > 1 && !(node instanceof ExpressionNode.Constant))
+		{
+			code.u1(0x59); // dup
+			push(1);
+			local = maxLocals++;
+			localOp(0x38, local); // fstore
+			pop(1);
+			locals.put(node, local);
+		}
+	}
+
+	private void localOp(int op, int local)
+	{
+		if(local <= 0xff)
+			code.u1(op).u1(local);
+		else
+			code.u1(0xc4).u1(op).u2(local); // wide
+	}
+
+	private void compute(ExpressionNode node)
+	{
+		if(node instanceof ExpressionNode.Constant)
+		{
+			float v = ((ExpressionNode.Constant)node).value;
+			if(v == 0 && Float.floatToRawIntBits(v) == 0)
+				code.u1(0x0b); // fconst_0
+			else if(v == 1)
+				code.u1(0x0c); // fconst_1
+			else if(v == 2)
+				code.u1(0x0d); // fconst_2
+			else
+				ldc(cf.floatConstant(v));
+			push(1);
+		}
+		else if(node instanceof ExpressionNode.Scalar)
+		{
+			code.u1(0x2b); // aload_1
+			push(1);
+			pushInt(((ExpressionNode.Scalar)node).slot);
+			code.u1(0x2e); // iaload
+			pop(1);
+			code.u1(0x86); // i2f
+		}
+		else if(node instanceof ExpressionNode.Element)
+		{
+			ExpressionNode.Element e = (ExpressionNode.Element)node;
+			code.u1(0x2c); // aload_2
+			push(1);
+			pushInt(e.slot);
+			code.u1(0x32); // aaload
+			pop(1);
+			emit(e.index);
+			code.u1(0x8b); // f2i
+			code.u1(0x2e); // iaload
+			pop(1);
+			code.u1(0x86); // i2f
+		}
+		else if(node instanceof ExpressionNode.Negate)
+		{
+			emit(((ExpressionNode.Negate)node).operand);
+			code.u1(0x76); // fneg
+		}
+		else
+		{
+			ExpressionNode.Binary b = (ExpressionNode.Binary)node;
+			emit(b.left);
+			emit(b.right);
+			switch(b.op)
+			{
+				case '+':
+					code.u1(0x62); // fadd
+					break;
+				case '-':
+					code.u1(0x66); // fsub
+					break;
+				case '*':
+					code.u1(0x6a); // fmul
+					break;
+				default:
+					code.u1(0x6e); // fdiv
+			}
+			pop(1);
+		}
+	}
+
+	private void pushInt(int v)
+	{
+		if(v <= 5)
+			code.u1(0x03 + v); // iconst_<v>
+		else if(v <= Byte.MAX_VALUE)
+			code.u1(0x10).u1(v); // bipush
+		else if(v <= Short.MAX_VALUE)
+			code.u1(0x11).u2(v); // sipush
+		else
+			ldc(cf.intConstant(v));
+		push(1);
+	}
+
+	private void ldc(int index)
+	{
+		if(index < 256)
+			code.u1(0x12).u1(index); // ldc
+		else
+			code.u1(0x13).u2(index); // ldc_w
+	}
+
+	private void push(int n)
+	{
+		depth += n;
+		maxDepth = Math.max(maxDepth, depth);
+	}
+
+	private void pop(int n)
+	{
+		depth -= n;
+	}
+
+	/**
+	 * Writes the class file: a final class with a no-argument constructor and the evaluate method.
+	 */
+	private byte[] classFile()
+	{
+		int thisClass = cf.classRef("apps/ExpressionFormula");
+		int superClass = cf.classRef("java/lang/Object");
+		int formula = cf.classRef(FORMULA);
+		int init = cf.utf8("<init>");
+		int initDesc = cf.utf8("()V");
+		int objectInit = cf.method("java/lang/Object", "<init>", "()V");
+		int evaluate = cf.utf8("evaluate");
+		int evaluateDesc = cf.utf8("([I[[I)F");
+		int codeAttr = cf.utf8("Code");
+
+		ByteBuilder out = new ByteBuilder();
+		out.u4(0xcafebabe).u2(0).u2(52);
+		cf.write(out);
+		out.u2(0x0010 | 0x0020); // ACC_FINAL | ACC_SUPER
+		out.u2(thisClass).u2(superClass);
+		out.u2(1).u2(formula);
+		out.u2(0); // fields
+		out.u2(2); // methods
+
+		out.u2(0x0001).u2(init).u2(initDesc).u2(1);
+		out.u2(codeAttr).u4(12 + 5).u2(1).u2(1).u4(5);
+		out.u1(0x2a).u1(0xb7).u2(objectInit).u1(0xb1); // aload_0 invokespecial return
+		out.u2(0).u2(0);
+
+		out.u2(0x0001 | 0x0010).u2(evaluate).u2(evaluateDesc).u2(1); // ACC_PUBLIC | ACC_FINAL
+		out.u2(codeAttr).u4(12 + code.length()).u2(maxDepth).u2(maxLocals).u4(code.length());
+		out.bytes(code);
+		out.u2(0).u2(0);
+
+		out.u2(0); // class attributes
+		return out.toByteArray();
+	}
+
+	/**
+	 * Constant pool of the class being written, with each constant added once.
+	 */
+	private static final class ClassFile
+	{
+		private final HashMap<String,Integer> index = new HashMap<String,Integer>();
+		private final ByteBuilder pool = new ByteBuilder();
+		private int count = 1;
+
+		int utf8(String s)
+		{
+			Integer i = index.get("U" + s);
+			if(i != null)
+				return i;
+			pool.u1(1).u2(s.length());
+			for(int k = 0; k < s.length(); k++)
+				pool.u1(s.charAt(k));
+			return add("U" + s);
+		}
+
+		int classRef(String name)
+		{
+			int n = utf8(name);
+			Integer i = index.get("C" + name);
+			if(i != null)
+				return i;
+			pool.u1(7).u2(n);
+			return add("C" + name);
+		}
+
+		int method(String owner, String name, String desc)
+		{
+			return member(10, owner, name, desc);
+		}
+
+		int floatConstant(float v)
+		{
+			String key = "F" + Float.floatToRawIntBits(v);
+			Integer i = index.get(key);
+			if(i != null)
+				return i;
+			pool.u1(4).u4(Float.floatToRawIntBits(v));
+			return add(key);
+		}
+
+		int intConstant(int v)
+		{
+			String key = "I" + v;
+			Integer i = index.get(key);
+			if(i != null)
+				return i;
+			pool.u1(3).u4(v);
+			return add(key);
+		}
+
+		void write(ByteBuilder out)
+		{
+			out.u2(count);
+			out.bytes(pool);
+		}
+
+		private int member(int tag, String owner, String name, String desc)
+		{
+			String key = tag + owner + "." + name + ":" + desc;
+			Integer i = index.get(key);
+			if(i != null)
+				return i;
+			int c = classRef(owner);
+			int n = utf8(name);
+			int d = utf8(desc);
+			Integer nt = index.get("N" + name + ":" + desc);
+			if(nt == null)
+			{
+				pool.u1(12).u2(n).u2(d);
+				nt = add("N" + name + ":" + desc);
+			}
+			pool.u1(tag).u2(c).u2(nt);
+			return add(key);
+		}
+
+		private int add(String key)
+		{
+			index.put(key, count);
+			return count++;
+		}
+	}
+
+	/**
+	 * Growable big-endian byte buffer.
+	 */
+	private static final class ByteBuilder
+	{
+		private byte[] buf = new byte[256];
+		private int length;
+
+		ByteBuilder u1(int v)
+		{
+			if(length == buf.length)
+				buf = Arrays.copyOf(buf, length * 2);
+			buf[length++] = (byte)v;
+			return this;
+		}
+
+		ByteBuilder u2(int v)
+		{
+			return u1(v >>> 8).u1(v);
+		}
+
+		ByteBuilder u4(int v)
+		{
+			return u2(v >>> 16).u2(v);
+		}
+
+		ByteBuilder bytes(ByteBuilder b)
+		{
+			for(int i = 0; i < b.length; i++)
+				u1(b.buf[i]);
+			return this;
+		}
+
+		int length()
+		{
+			return length;
+		}
+
+		byte[] toByteArray()
+		{
+			return Arrays.copyOf(buf, length);
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package apps;
+
+/**
+ * This class is a node of a parsed expression. A tree of nodes is built once by ExpressionParser,
+ * with precedence, brackets and array subscripts resolved and every variable bound to its slot in
+ * the symbol table, so evaluating it is a walk over the tree that reads the current values and
+ * allocates nothing. Arithmetic is done in float, and a subscript is truncated to an int, as in
+ * Expression.evaluateByRewriting.
+ *
+ */
+abstract class ExpressionNode
+{
+	/**
+	 * Evaluates the subtree rooted at this node with the current symbol values.
+	 *
+	 * @return Value of the subtree
+	 */
+	abstract float evaluate();
+
+	/**
+	 * A constant.
+	 */
+	static final class Constant extends ExpressionNode
+	{
+		final float value;
+
+		Constant(float value)
+		{
+			this.value = value;
+		}
+
+		float evaluate()
+		{
+			return value;
+		}
+	}
+
+	/**
+	 * A scalar variable.
+	 */
+	static final class Scalar extends ExpressionNode
+	{
+		final int[] values;
+		final int slot;
+
+		Scalar(SymbolTable symbols, int slot)
+		{
+			this.values = symbols.scalarValues;
+			this.slot = slot;
+		}
+
+		float evaluate()
+		{
+			return values[slot];
+		}
+	}
+
+	/**
+	 * An array element, with its subscript.
+	 */
+	static final class Element extends ExpressionNode
+	{
+		final int[][] arrays;
+		final int slot;
+		final ExpressionNode index;
+
+		Element(SymbolTable symbols, int slot, ExpressionNode index)
+		{
+			this.arrays = symbols.arrayValues;
+			this.slot = slot;
+			this.index = index;
+		}
+
+		/**
+		 * Makes an element of the same array with another subscript.
+		 */
+		Element(Element e, ExpressionNode index)
+		{
+			this.arrays = e.arrays;
+			this.slot = e.slot;
+			this.index = index;
+		}
+
+		float evaluate()
+		{
+			return arrays[slot][(int)index.evaluate()];
+		}
+	}
+
+	/**
+	 * A negated subexpression.
+	 */
+	static final class Negate extends ExpressionNode
+	{
+		final ExpressionNode operand;
+
+		Negate(ExpressionNode operand)
+		{
+			this.operand = operand;
+		}
+
+		float evaluate()
+		{
+			return -operand.evaluate();
+		}
+	}
+
+	/**
+	 * A binary operation: one of + - * /.
+	 */
+	static final class Binary extends ExpressionNode
+	{
+		final char op;
+		final ExpressionNode left;
+		final ExpressionNode right;
+
+		Binary(char op, ExpressionNode left, ExpressionNode right)
+		{
+			this.op = op;
+			this.left = left;
+			this.right = right;
+		}
+
+		float evaluate()
+		{
+			float l = left.evaluate();
+			float r = right.evaluate();
+			switch(op)
+			{
+				case '+':
+					return l + r;
+				case '-':
+					return l - r;
+				case '*':
+					return l * r;
+				default:
+					return l / r;
+			}
+		}
+	}
+}
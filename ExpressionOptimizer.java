@@ -0,0 +1,135 @@
+package apps;
+
+import java.util.*;
+
+/**
+ * This class optimizes a parsed expression, rebuilding its tree bottom up:
+ *
+ * <ul>
+ * <li>An operation on constants only is replaced by its value, computed in float as evaluation
+ * would compute it.</li>
+ * <li>Identical subexpressions become one shared node, so the tree turns into a directed acyclic
+ * graph. The operands of + and * are compared in either order, since float addition and
+ * multiplication are commutative.</li>
+ * </ul>
+ *
+ * Nothing is reassociated or simplified algebraically, so the optimized expression computes every
+ * value exactly as the parsed one does. A shared node still repeats its work when the graph is
+ * walked as a tree; ExpressionPlan and ExpressionCompiler compute it once.
+ *
+ */
+class ExpressionOptimizer
+{
+	/**
+	 * Node for each distinct subexpression, by a key made of the ids of its operands.
+	 */
+	private final HashMap<String,ExpressionNode> nodes = new HashMap<String,ExpressionNode>();
+
+	/**
+	 * Id of each distinct node.
+	 */
+	private final IdentityHashMap<ExpressionNode,Integer> ids = new IdentityHashMap<ExpressionNode,Integer>();
+
+	/**
+	 * Rebuilt node of each node seen, so a graph that is optimized again is rebuilt once per node.
+	 */
+	private final IdentityHashMap<ExpressionNode,ExpressionNode> rebuilt = new IdentityHashMap<ExpressionNode,ExpressionNode>();
+
+	private ExpressionOptimizer()
+	{
+	}
+
+	/**
+	 * Optimizes a parsed expression.
+	 *
+	 * @param tree Root of the tree
+	 * @return Root of the optimized graph
+	 */
+	static ExpressionNode optimize(ExpressionNode tree)
+	{
+		return new ExpressionOptimizer().rebuild(tree);
+	}
+
+	private ExpressionNode rebuild(ExpressionNode node)
+	{
+		ExpressionNode done = rebuilt.get(node);
+		if(done == null)
+		{
+			done = fold(node);
+			rebuilt.put(node, done);
+		}
+		return done;
+	}
+
+	private ExpressionNode fold(ExpressionNode node)
+	{
+		if(node instanceof ExpressionNode.Constant)
+		{
+			float v = ((ExpressionNode.Constant)node).value;
+			return share("C" + Float.floatToRawIntBits(v), node);
+		}
+		if(node instanceof ExpressionNode.Scalar)
+		{
+			return share("S" + ((ExpressionNode.Scalar)node).slot, node);
+		}
+		if(node instanceof ExpressionNode.Element)
+		{
+			ExpressionNode.Element e = (ExpressionNode.Element)node;
+			ExpressionNode index = rebuild(e.index);
+			String key = "E" + e.slot + "[" + ids.get(index);
+			ExpressionNode shared = nodes.get(key);
+			if(shared != null)
+				return shared;
+			return share(key, index == e.index ? e : new ExpressionNode.Element(e, index));
+		}
+		if(node instanceof ExpressionNode.Negate)
+		{
+			ExpressionNode.Negate n = (ExpressionNode.Negate)node;
+			ExpressionNode operand = rebuild(n.operand);
+			if(operand instanceof ExpressionNode.Constant)
+				return constant(-((ExpressionNode.Constant)operand).value);
+			String key = "-" + ids.get(operand);
+			ExpressionNode shared = nodes.get(key);
+			if(shared != null)
+				return shared;
+			return share(key, operand == n.operand ? n : new ExpressionNode.Negate(operand));
+		}
+
+		ExpressionNode.Binary b = (ExpressionNode.Binary)node;
+		ExpressionNode left = rebuild(b.left);
+		ExpressionNode right = rebuild(b.right);
+		if(left instanceof ExpressionNode.Constant && right instanceof ExpressionNode.Constant)
+			return constant(new ExpressionNode.Binary(b.op, left, right).evaluate());
+		int l = ids.get(left);
+		int r = ids.get(right);
+		if((b.op == '+' || b.op == '*') && l > r)
+		{
+			int t = l;
+			l = r;
+			r = t;
+		}
+		String key = b.op + "" + l + "," + r;
+		ExpressionNode shared = nodes.get(key);
+		if(shared != null)
+			return shared;
+		return share(key, left == b.left && right == b.right ? b : new ExpressionNode.Binary(b.op, left, right));
+	}
+
+	private ExpressionNode constant(float v)
+	{
+		return share("C" + Float.floatToRawIntBits(v), new ExpressionNode.Constant(v));
+	}
+
+	/**
+	 * Returns the node already made for a key, or records this one for it.
+	 */
+	private ExpressionNode share(String key, ExpressionNode node)
+	{
+		ExpressionNode shared = nodes.get(key);
+		if(shared != null)
+			return shared;
+		nodes.put(key, node);
+		ids.put(node, ids.size());
+		return node;
+	}
+}
@@ -0,0 +1,172 @@
+package apps;
+
+/**
+ * This class parses an expression into a tree of ExpressionNode, by recursive descent:
+ *
+ * <pre>
+ * sum     := product (('+' | '-') product)*
+ * product := unary (('*' | '/') unary)*
+ * unary   := '-' unary | primary
+ * primary := number | name | name '[' sum ']' | '(' sum ')'
+ * </pre>
+ *
+ * Operators of the same precedence group to the left. Spaces and tabs are skipped, and as in
+ * buildSymbols, a name is an array when it is followed directly by '['. Each name is bound to its
+ * slot in the symbol table.
+ *
+ */
+class ExpressionParser
+{
+	private final String text;
+	private final SymbolTable symbols;
+	private int pos;
+
+	/**
+	 * Initializes a parser.
+	 *
+	 * @param text Expression
+	 * @param symbols Symbol table of the expression
+	 */
+	ExpressionParser(String text, SymbolTable symbols)
+	{
+		this.text = text;
+		this.symbols = symbols;
+	}
+
+	/**
+	 * Parses the whole expression.
+	 *
+	 * @return Root of the tree
+	 * @throws IllegalArgumentException If the expression is malformed or uses a name with no symbol
+	 */
+	ExpressionNode parse()
+	{
+		pos = 0;
+		ExpressionNode root = sum();
+		if(peek() != 0)
+			throw error("unexpected '" + text.charAt(pos) + "'");
+		return root;
+	}
+
+	private ExpressionNode sum()
+	{
+		ExpressionNode node = product();
+		char c = peek();
+		while(c == '+' || c == '-')
+		{
+			pos++;
+			node = new ExpressionNode.Binary(c, node, product());
+			c = peek();
+		}
+		return node;
+	}
+
+	private ExpressionNode product()
+	{
+		ExpressionNode node = unary();
+		char c = peek();
+		while(c == '*' || c == '/')
+		{
+			pos++;
+			node = new ExpressionNode.Binary(c, node, unary());
+			c = peek();
+		}
+		return node;
+	}
+
+	private ExpressionNode unary()
+	{
+		if(peek() == '-')
+		{
+			pos++;
+			return new ExpressionNode.Negate(unary());
+		}
+		return primary();
+	}
+
+	private ExpressionNode primary()
+	{
+		char c = peek();
+		if(c == '(')
+		{
+			pos++;
+			ExpressionNode node = sum();
+			expect(')');
+			return node;
+		}
+		if((c >= '0' && c <= '9') || c == '.')
+		{
+			int start = pos;
+			while(pos < text.length() && ((text.charAt(pos) >= '0' && text.charAt(pos) <= '9') || text.charAt(pos) == '.'))
+				pos++;
+			try
+			{
+				return new ExpressionNode.Constant(Float.parseFloat(text.substring(start, pos)));
+			}
+			catch(NumberFormatException e)
+			{
+				pos = start;
+				throw error("bad number");
+			}
+		}
+		if(isLetter(c))
+		{
+			int start = pos;
+			while(pos < text.length() && isLetter(text.charAt(pos)))
+				pos++;
+			String name = text.substring(start, pos);
+			if(pos < text.length() && text.charAt(pos) == '[')
+			{
+				int slot = symbols.arraySlot(name);
+				if(slot == -1)
+				{
+					pos = start;
+					throw error("no array symbol " + name);
+				}
+				pos++;
+				ExpressionNode index = sum();
+				expect(']');
+				return new ExpressionNode.Element(symbols, slot, index);
+			}
+			int slot = symbols.scalarSlot(name);
+			if(slot == -1)
+			{
+				pos = start;
+				throw error("no scalar symbol " + name);
+			}
+			return new ExpressionNode.Scalar(symbols, slot);
+		}
+		throw error(c == 0 ? "unexpected end" : "unexpected '" + c + "'");
+	}
+
+	/**
+	 * Skips blanks and returns the next character, 0 at the end.
+	 */
+	private char peek()
+	{
+		while(pos < text.length() && (text.charAt(pos) == ' ' || text.charAt(pos) == '\t'))
+			pos++;
+		return pos < text.length() ? text.charAt(pos) : 0;
+	}
+
+	private void expect(char c)
+	{
+		if(peek() != c)
+			throw error("expected '" + c + "'");
+		pos++;
+	}
+
+	private IllegalArgumentException error(String message)
+	{
+		return new IllegalArgumentException(message + " at " + pos + " in " + text);
+	}
+
+	/**
+	 * Tells whether a character can be part of a symbol name, with the same test as
+	 * Expression.buildSymbols: ASCII letters only.
+	 */
+	private static boolean isLetter(char c)
+	{
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+}
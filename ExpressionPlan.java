@@ -0,0 +1,189 @@
+package apps;
+
+import java.util.*;
+
+/**
+ * This class is an optimized expression laid out as a straight-line program over temporaries, one
+ * per distinct node of the graph made by ExpressionOptimizer. Constants are stored in their
+ * temporaries once, when the plan is made. Every other node is a step that reads its operands from
+ * the temporaries of earlier steps, so a shared subexpression is computed once per evaluation and
+ * a subscript is computed before, and apart from, the array reads that use it.
+ *
+ * The steps are in the order the tree walk computes the nodes, with the same float operations, so
+ * the plan gives exactly the results of the parsed expression. A plan keeps its temporaries, so it
+ * must not be evaluated by two threads at once.
+ *
+ */
+class ExpressionPlan
+{
+	static final int SCALAR = 0;
+	static final int ELEMENT = 1;
+	static final int NEGATE = 2;
+	static final int ADD = 3;
+	static final int SUBTRACT = 4;
+	static final int MULTIPLY = 5;
+	static final int DIVIDE = 6;
+
+	/**
+	 * Operation of each step.
+	 */
+	final int[] ops;
+
+	/**
+	 * Temporary written by each step.
+	 */
+	final int[] targets;
+
+	/**
+	 * First operand of each step: a temporary, or the slot of a scalar or array.
+	 */
+	final int[] first;
+
+	/**
+	 * Second operand of each step: a temporary, the subscript of an array read.
+	 */
+	final int[] second;
+
+	/**
+	 * Temporary holding the value of the expression.
+	 */
+	final int result;
+
+	final float[] temps;
+	private final int[] scalarValues;
+	private final int[][] arrayValues;
+
+	/**
+	 * Lays out an optimized expression.
+	 *
+	 * @param root Root of the graph made by ExpressionOptimizer
+	 * @param symbols Symbol table the graph is bound to
+	 */
+	ExpressionPlan(ExpressionNode root, SymbolTable symbols)
+	{
+		scalarValues = symbols.scalarValues;
+		arrayValues = symbols.arrayValues;
+		IdentityHashMap<ExpressionNode,Integer> temp = new IdentityHashMap<ExpressionNode,Integer>();
+		ArrayList<ExpressionNode> order = new ArrayList<ExpressionNode>();
+		number(root, temp, order);
+
+		temps = new float[order.size()];
+		int steps = 0;
+		for(ExpressionNode node : order)
+		{
+			if(!(node instanceof ExpressionNode.Constant))
+				steps++;
+		}
+		ops = new int[steps];
+		targets = new int[steps];
+		first = new int[steps];
+		second = new int[steps];
+		int s = 0;
+		for(int t = 0; t < order.size(); t++)
+		{
+			ExpressionNode node = order.get(t);
+			if(node instanceof ExpressionNode.Constant)
+			{
+				temps[t] = ((ExpressionNode.Constant)node).value;
+				continue;
+			}
+			targets[s] = t;
+			if(node instanceof ExpressionNode.Scalar)
+			{
+				ops[s] = SCALAR;
+				first[s] = ((ExpressionNode.Scalar)node).slot;
+			}
+			else if(node instanceof ExpressionNode.Element)
+			{
+				ops[s] = ELEMENT;
+				first[s] = ((ExpressionNode.Element)node).slot;
+				second[s] = temp.get(((ExpressionNode.Element)node).index);
+			}
+			else if(node instanceof ExpressionNode.Negate)
+			{
+				ops[s] = NEGATE;
+				first[s] = temp.get(((ExpressionNode.Negate)node).operand);
+			}
+			else
+			{
+				ExpressionNode.Binary b = (ExpressionNode.Binary)node;
+				ops[s] = b.op == '+' ? ADD : b.op == '-' ? SUBTRACT : b.op == '*' ? MULTIPLY : DIVIDE;
+				first[s] = temp.get(b.left);
+				second[s] = temp.get(b.right);
+			}
+			s++;
+		}
+		result = temp.get(root);
+	}
+
+	/**
+	 * Gives each distinct node a temporary, operands before the nodes that use them.
+	 */
+	private static void number(ExpressionNode node, IdentityHashMap<ExpressionNode,Integer> temp, ArrayList<ExpressionNode> order)
+	{
+		if(temp.containsKey(node))
+			return;
+		if(node instanceof ExpressionNode.Element)
+		{
+			number(((ExpressionNode.Element)node).index, temp, order);
+		}
+		else if(node instanceof ExpressionNode.Negate)
+		{
+			number(((ExpressionNode.Negate)node).operand, temp, order);
+		}
+		else if(node instanceof ExpressionNode.Binary)
+		{
+			number(((ExpressionNode.Binary)node).left, temp, order);
+			number(((ExpressionNode.Binary)node).right, temp, order);
+		}
+		temp.put(node, order.size());
+		order.add(node);
+	}
+
+	/**
+	 * Returns the number of steps, one per distinct node that is not a constant.
+	 *
+	 * @return Number of steps
+	 */
+	int steps()
+	{
+		return ops.length;
+	}
+
+	/**
+	 * Evaluates the expression with the current symbol values.
+	 *
+	 * @return Result of evaluation
+	 */
+	float evaluate()
+	{
+		float[] t = temps;
+		for(int s = 0; s < ops.length; s++)
+			t[targets[s]] = step(s, t);
+		return t[result];
+	}
+
+	/**
+	 * Computes the value of a step from the temporaries.
+	 */
+	float step(int s, float[] t)
+	{
+		switch(ops[s])
+		{
+			case SCALAR:
+				return scalarValues[first[s]];
+			case ELEMENT:
+				return arrayValues[first[s]][(int)t[second[s]]];
+			case NEGATE:
+				return -t[first[s]];
+			case ADD:
+				return t[first[s]] + t[second[s]];
+			case SUBTRACT:
+				return t[first[s]] - t[second[s]];
+			case MULTIPLY:
+				return t[first[s]] * t[second[s]];
+			default:
+				return t[first[s]] / t[second[s]];
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package apps;
+
+import java.util.*;
+
+/**
+ * This class is an optimized plan that recomputes only what a change of symbol values affects. It
+ * records which steps read each scalar and each array, and which steps use the value of each
+ * step. As the symbol table's listener it marks the steps that read a changed symbol dirty, and
+ * evaluate recomputes the dirty steps in order. A recomputed step marks the steps that use it
+ * dirty only if its value actually changed, so a change that is absorbed on the way up, such as
+ * a subscript that lands on an equal element, goes no further. Every other step keeps its value
+ * from the evaluation before.
+ *
+ * The steps are in dependency order, so the dirty steps are found with one pass over a bit set,
+ * and the results are exactly those of a full evaluation of the plan.
+ *
+ */
+class IncrementalPlan extends ExpressionPlan implements SymbolTable.Listener
+{
+	/**
+	 * Steps that read each scalar: scalarReaders[scalarStart[slot]] up to scalarStart[slot + 1].
+	 */
+	private final int[] scalarStart;
+	private final int[] scalarReaders;
+
+	/**
+	 * Steps that read each array.
+	 */
+	private final int[] arrayStart;
+	private final int[] arrayReaders;
+
+	/**
+	 * Steps that use the value of each step.
+	 */
+	private final int[] userStart;
+	private final int[] users;
+
+	/**
+	 * Steps to recompute at the next evaluation; all of them at first.
+	 */
+	private final BitSet dirty;
+
+	/**
+	 * Number of steps recomputed so far, for tests and benchmarks.
+	 */
+	long recomputed;
+
+	/**
+	 * Lays out an optimized expression for incremental evaluation. The plan must then be made the
+	 * listener of the symbol table.
+	 *
+	 * @param root Root of the graph made by ExpressionOptimizer
+	 * @param symbols Symbol table the graph is bound to
+	 */
+	IncrementalPlan(ExpressionNode root, SymbolTable symbols)
+	{
+		super(root, symbols);
+		int steps = steps();
+		int[] stepOf = new int[temps.length];
+		Arrays.fill(stepOf, -1);
+		for(int s = 0; s < steps; s++)
+			stepOf[targets[s]] = s;
+
+		int[] from = new int[steps];
+		int[] to = new int[steps];
+		int n = 0;
+		for(int s = 0; s < steps; s++)
+		{
+			if(ops[s] == SCALAR)
+			{
+				from[n] = first[s];
+				to[n++] = s;
+			}
+		}
+		scalarStart = new int[symbols.scalarCount() + 1];
+		scalarReaders = group(from, to, n, scalarStart);
+
+		n = 0;
+		for(int s = 0; s < steps; s++)
+		{
+			if(ops[s] == ELEMENT)
+			{
+				from[n] = first[s];
+				to[n++] = s;
+			}
+		}
+		arrayStart = new int[symbols.arrayCount() + 1];
+		arrayReaders = group(from, to, n, arrayStart);
+
+		from = new int[2 * steps];
+		to = new int[2 * steps];
+		n = 0;
+		for(int s = 0; s < steps; s++)
+		{
+			int a = -1;
+			int b = -1;
+			if(ops[s] == ELEMENT)
+			{
+				a = second[s];
+			}
+			else if(ops[s] == NEGATE)
+			{
+				a = first[s];
+			}
+			else if(ops[s] != SCALAR)
+			{
+				a = first[s];
+				b = second[s];
+			}
+			// constants have no step, and never change
+			if(a != -1 && stepOf[a] != -1)
+			{
+				from[n] = stepOf[a];
+				to[n++] = s;
+			}
+			if(b != -1 && b != a && stepOf[b] != -1)
+			{
+				from[n] = stepOf[b];
+				to[n++] = s;
+			}
+		}
+		userStart = new int[steps + 1];
+		users = group(from, to, n, userStart);
+
+		dirty = new BitSet(steps);
+		dirty.set(0, steps);
+	}
+
+	/**
+	 * Groups pairs by their first member: the second members of the pairs with first member g end
+	 * up at start[g] up to start[g + 1] of the returned array.
+	 */
+	private static int[] group(int[] from, int[] to, int n, int[] start)
+	{
+		for(int i = 0; i < n; i++)
+			start[from[i] + 1]++;
+		for(int g = 1; g < start.length; g++)
+			start[g] += start[g - 1];
+		int[] members = new int[n];
+		int[] next = Arrays.copyOf(start, start.length - 1);
+		for(int i = 0; i < n; i++)
+			members[next[from[i]]++] = to[i];
+		return members;
+	}
+
+	public void scalarChanged(int slot)
+	{
+		for(int i = scalarStart[slot]; i < scalarStart[slot + 1]; i++)
+			dirty.set(scalarReaders[i]);
+	}
+
+	public void arrayChanged(int slot)
+	{
+		for(int i = arrayStart[slot]; i < arrayStart[slot + 1]; i++)
+			dirty.set(arrayReaders[i]);
+	}
+
+	/**
+	 * Evaluates the expression, recomputing only the steps affected by changes since the last
+	 * evaluation.
+	 *
+	 * @return Result of evaluation
+	 */
+	float evaluate()
+	{
+		float[] t = temps;
+		// users come after the steps they use, so they are reached later in the same pass
+		for(int s = dirty.nextSetBit(0); s >= 0; s = dirty.nextSetBit(s + 1))
+		{
+			float v = step(s, t);
+			dirty.clear(s);
+			recomputed++;
+			if(Float.floatToRawIntBits(v) == Float.floatToRawIntBits(t[targets[s]]))
+				continue;
+			t[targets[s]] = v;
+			for(int i = userStart[s]; i < userStart[s + 1]; i++)
+				dirty.set(users[i]);
+		}
+		return t[result];
+	}
+}
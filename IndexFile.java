@@ -0,0 +1,385 @@
+package search;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * This class reads and writes the keywords index as a compact binary file. The file holds
+ * a document name table, the noise words, a term dictionary sorted on the UTF-8 bytes of
+ * the keywords, and one posting list per keyword:
+ *
+ * <pre>
+ * header:    MAGIC VERSION numDocs numNoiseWords numTerms termIndexPos termsPos postingsPos  (ints)
+ * documents: numDocs x (varint length, UTF-8 bytes)
+ * noise:     numNoiseWords x (varint length, UTF-8 bytes)
+ * termIndex: numTerms x (int offset into terms, int offset into postings)
+ * terms:     numTerms x (varint length, UTF-8 bytes), in sorted order
+ * postings:  per term: varint count, then count x (varint docId, varint frequency gap)
+ * </pre>
+ *
+ * Posting lists keep the descending frequency order of the index, so the frequency of the
+ * first occurrence is stored as is and every later one as its (non-negative) drop from the
+ * previous frequency. An opened file is memory-mapped and posting lists are only decoded
+ * when a keyword is looked up.
+ *
+ */
+class IndexFile
+{
+	/**
+	 * File signature, "LSEI".
+	 */
+	static final int MAGIC = 0x4C534549;
+
+	/**
+	 * Format version.
+	 */
+	static final int VERSION = 1;
+
+	/**
+	 * Size of the header, in bytes.
+	 */
+	private static final int HEADER = 8 * 4;
+
+	/**
+	 * The mapped file.
+	 */
+	private final MappedByteBuffer buf;
+
+	/**
+	 * Document names, indexed by document id.
+	 */
+	final String[] documents;
+
+	/**
+	 * Document names, for lookups.
+	 */
+	private final HashSet<String> documentSet;
+
+	/**
+	 * Noise words stored with the index.
+	 */
+	final String[] noiseWords;
+
+	private final int numTerms;
+	private final int termIndexPos;
+	private final int termsPos;
+	private final int postingsPos;
+
+	private IndexFile(MappedByteBuffer buf)
+	throws IOException
+	{
+		this.buf = buf;
+		if(buf.getInt(0) != MAGIC)
+			throw new IOException("Not an index file");
+		if(buf.getInt(4) != VERSION)
+			throw new IOException("Unsupported index file version " + buf.getInt(4));
+		int numDocs = buf.getInt(8);
+		int numNoise = buf.getInt(12);
+		numTerms = buf.getInt(16);
+		termIndexPos = buf.getInt(20);
+		termsPos = buf.getInt(24);
+		postingsPos = buf.getInt(28);
+
+		int[] pos = {HEADER};
+		documents = new String[numDocs];
+		for(int i = 0; i < numDocs; i++)
+			documents[i] = readString(pos);
+		documentSet = new HashSet<String>(Arrays.asList(documents));
+		noiseWords = new String[numNoise];
+		for(int i = 0; i < numNoise; i++)
+			noiseWords[i] = readString(pos);
+	}
+
+	/**
+	 * Memory-maps an index file written by write.
+	 *
+	 * @param indexFile Name of the index file
+	 * @return The opened index
+	 * @throws IOException If the file cannot be read, or is not an index file
+	 */
+	static IndexFile open(String indexFile)
+	throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+		try
+		{
+			FileChannel ch = raf.getChannel();
+			if(ch.size() > Integer.MAX_VALUE)
+				throw new IOException("Index file is larger than 2GB: " + indexFile);
+			return new IndexFile(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+		}
+		finally
+		{
+			// the mapping stays valid after the channel is closed
+			raf.close();
+		}
+	}
+
+	/**
+	 * Returns the number of keywords in the file.
+	 *
+	 * @return Number of keywords
+	 */
+	int size()
+	{
+		return numTerms;
+	}
+
+	/**
+	 * Tells whether a document is in the document table of the file.
+	 *
+	 * @param doc Document name
+	 * @return True if some keyword of the file occurs in the document
+	 */
+	boolean hasDocument(String doc)
+	{
+		return documentSet.contains(doc);
+	}
+
+	/**
+	 * Returns the i-th keyword in sorted order.
+	 *
+	 * @param i Term number, in 0..size()-1
+	 * @return Keyword
+	 */
+	String term(int i)
+	{
+		int[] pos = {termsPos + buf.getInt(termIndexPos + i * 8)};
+		return readString(pos);
+	}
+
+	/**
+	 * Looks up a keyword and decodes its occurrence list.
+	 *
+	 * @param kw Keyword
+	 * @return Occurrences in descending order of frequency, null if the keyword is not in the file
+	 */
+	ArrayList<Occurrence> postings(String kw)
+	{
+		byte[] key = kw.getBytes(StandardCharsets.UTF_8);
+		int lo = 0;
+		int hi = numTerms - 1;
+		while(lo <= hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			int c = compareTerm(mid, key);
+			if(c < 0)
+				lo = mid + 1;
+			else if(c > 0)
+				hi = mid - 1;
+			else
+				return decodePostings(mid);
+		}
+		return null;
+	}
+
+	/**
+	 * Decodes the occurrence list of the i-th keyword.
+	 *
+	 * @param i Term number
+	 * @return Occurrences in descending order of frequency
+	 */
+	ArrayList<Occurrence> decodePostings(int i)
+	{
+		int[] pos = {postingsPos + buf.getInt(termIndexPos + i * 8 + 4)};
+		int n = readVarint(buf, pos);
+		ArrayList<Occurrence> occs = new ArrayList<Occurrence>(n);
+		int freq = 0;
+		for(int j = 0; j < n; j++)
+		{
+			int doc = readVarint(buf, pos);
+			int gap = readVarint(buf, pos);
+			freq = j == 0 ? gap : freq - gap;
+			occs.add(new Occurrence(documents[doc], freq));
+		}
+		return occs;
+	}
+
+	/**
+	 * Compares the i-th keyword with key, on unsigned UTF-8 bytes.
+	 */
+	private int compareTerm(int i, byte[] key)
+	{
+		int[] pos = {termsPos + buf.getInt(termIndexPos + i * 8)};
+		int len = readVarint(buf, pos);
+		int p = pos[0];
+		int n = Math.min(len, key.length);
+		for(int j = 0; j < n; j++)
+		{
+			int c = (buf.get(p + j) & 0xff) - (key[j] & 0xff);
+			if(c != 0)
+				return c;
+		}
+		return len - key.length;
+	}
+
+	private String readString(int[] pos)
+	{
+		int len = readVarint(buf, pos);
+		byte[] b = new byte[len];
+		for(int j = 0; j < len; j++)
+			b[j] = buf.get(pos[0] + j);
+		pos[0] += len;
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Writes the given index and noise words to an index file.
+	 *
+	 * @param indexFile Name of the file to write
+	 * @param index Keywords index
+	 * @param noiseWords Noise words
+	 * @throws IOException If the file cannot be written
+	 */
+	static void write(String indexFile, Map<String,? extends List<Occurrence>> index, Collection<String> noiseWords)
+	throws IOException
+	{
+		// sort keywords on their UTF-8 bytes, the order used by lookups
+		String[] terms = index.keySet().toArray(new String[index.size()]);
+		final byte[][] termBytes = new byte[terms.length][];
+		Integer[] order = new Integer[terms.length];
+		for(int i = 0; i < terms.length; i++)
+		{
+			termBytes[i] = terms[i].getBytes(StandardCharsets.UTF_8);
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>()
+		{
+			public int compare(Integer a, Integer b)
+			{
+				return compareBytes(termBytes[a], termBytes[b]);
+			}
+		});
+
+		HashMap<String,Integer> docIds = new HashMap<String,Integer>();
+		ArrayList<String> docs = new ArrayList<String>();
+		ByteArrayOutputStream termIndex = new ByteArrayOutputStream(terms.length * 8);
+		ByteArrayOutputStream termBlob = new ByteArrayOutputStream();
+		ByteArrayOutputStream postings = new ByteArrayOutputStream();
+		DataOutputStream ti = new DataOutputStream(termIndex);
+		for(int k = 0; k < order.length; k++)
+		{
+			int i = order[k];
+			ti.writeInt(termBlob.size());
+			ti.writeInt(postings.size());
+			writeVarint(termBlob, termBytes[i].length);
+			termBlob.write(termBytes[i]);
+
+			List<Occurrence> occs = index.get(terms[i]);
+			writeVarint(postings, occs.size());
+			int prev = 0;
+			for(int j = 0; j < occs.size(); j++)
+			{
+				Occurrence o = occs.get(j);
+				Integer doc = docIds.get(o.document);
+				if(doc == null)
+				{
+					doc = docs.size();
+					docIds.put(o.document, doc);
+					docs.add(o.document);
+				}
+				writeVarint(postings, doc);
+				writeVarint(postings, j == 0 ? o.frequency : prev - o.frequency);
+				prev = o.frequency;
+			}
+		}
+
+		ByteArrayOutputStream names = new ByteArrayOutputStream();
+		for(String d : docs)
+			writeString(names, d);
+		for(String w : noiseWords)
+			writeString(names, w);
+
+		long termIndexPos = HEADER + (long)names.size();
+		long termsPos = termIndexPos + termIndex.size();
+		long postingsPos = termsPos + termBlob.size();
+		if(postingsPos + postings.size() > Integer.MAX_VALUE)
+			throw new IOException("Index is too large for a single index file");
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(docs.size());
+			out.writeInt(noiseWords.size());
+			out.writeInt(terms.length);
+			out.writeInt((int)termIndexPos);
+			out.writeInt((int)termsPos);
+			out.writeInt((int)postingsPos);
+			names.writeTo(out);
+			termIndex.writeTo(out);
+			termBlob.writeTo(out);
+			postings.writeTo(out);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	private static void writeString(ByteArrayOutputStream out, String s)
+	{
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		writeVarint(out, b.length);
+		out.write(b, 0, b.length);
+	}
+
+	/**
+	 * Compares two byte arrays as unsigned bytes, shorter first on a common prefix.
+	 */
+	static int compareBytes(byte[] a, byte[] b)
+	{
+		int n = Math.min(a.length, b.length);
+		for(int i = 0; i < n; i++)
+		{
+			int c = (a[i] & 0xff) - (b[i] & 0xff);
+			if(c != 0)
+				return c;
+		}
+		return a.length - b.length;
+	}
+
+	/**
+	 * Writes a non-negative int in 7-bit groups, low group first, high bit set on all but the last byte.
+	 *
+	 * @param out Output
+	 * @param v Value to write
+	 */
+	static void writeVarint(ByteArrayOutputStream out, int v)
+	{
+		while((v & ~0x7f) != 0)
+		{
+			out.write((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		out.write(v);
+	}
+
+	/**
+	 * Reads a varint written by writeVarint.
+	 *
+	 * @param buf Buffer to read from
+	 * @param pos Single element array holding the read position, advanced past the varint
+	 * @return Value read
+	 */
+	static int readVarint(ByteBuffer buf, int[] pos)
+	{
+		int p = pos[0];
+		int v = 0;
+		int shift = 0;
+		byte b;
+		do
+		{
+			b = buf.get(p++);
+			v |= (b & 0x7f) << shift;
+			shift += 7;
+		} while(b < 0);
+		pos[0] = p;
+		return v;
+	}
+}
@@ -0,0 +1,197 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class is an immutable version of the keywords index, searched by concurrent readers.
+ * A snapshot is never changed after it is published: the writer makes a new one that shares
+ * every occurrence array it did not change. Changed keywords go into a small overlay on top of
+ * a shared base table, and the overlay is folded into a new base once it grows past a fraction
+ * of the base, so publishing costs time in proportion to the changes, not to the index size.
+ * The writer also brings the document ordered view of ranked and Boolean searches, and the keyword
+ * dictionary of wildcard searches, up to date for each snapshot, so searches on a snapshot never
+ * build anything.
+ *
+ */
+public class IndexSnapshot
+{
+	/**
+	 * Occurrence array of a keyword that was removed from the index.
+	 */
+	static final Occurrence[] NONE = new Occurrence[0];
+
+	/**
+	 * Occurrence arrays of all keywords as of the last fold.
+	 */
+	private final HashMap<String,Occurrence[]> base;
+
+	/**
+	 * Occurrence arrays of keywords changed since the last fold. NONE marks a removed keyword.
+	 */
+	private final HashMap<String,Occurrence[]> overlay;
+
+	/**
+	 * Version number, one higher than the previous snapshot's.
+	 */
+	final long version;
+
+	/**
+	 * Document ordered view of this snapshot, for ranked and Boolean searches.
+	 */
+	final DocOrderedIndex docOrderedIndex;
+
+	/**
+	 * Sorted dictionary of the keywords of this snapshot, for wildcard searches.
+	 */
+	final TermDictionary termDictionary;
+
+	/**
+	 * Creates a snapshot with the given occurrence arrays and no overlay, building its views.
+	 *
+	 * @param base Occurrence arrays of all keywords, not to be changed afterwards
+	 * @param version Version number
+	 */
+	IndexSnapshot(HashMap<String,Occurrence[]> base, long version)
+	{
+		this(base, new HashMap<String,Occurrence[]>(), version, new DocOrderedIndex(lists(base)), new TermDictionary(base.keySet()));
+	}
+
+	private IndexSnapshot(HashMap<String,Occurrence[]> base, HashMap<String,Occurrence[]> overlay, long version,
+			DocOrderedIndex docOrderedIndex, TermDictionary termDictionary)
+	{
+		this.base = base;
+		this.overlay = overlay;
+		this.version = version;
+		this.docOrderedIndex = docOrderedIndex;
+		this.termDictionary = termDictionary;
+	}
+
+	/**
+	 * Makes the next snapshot, with the given keywords changed.
+	 *
+	 * @param changed New occurrence arrays of the changed keywords, NONE for removed keywords
+	 * @return New snapshot; this one is left as it is
+	 */
+	IndexSnapshot update(HashMap<String,Occurrence[]> changed)
+	{
+		HashMap<String,List<Occurrence>> lists = lists(changed);
+		DocOrderedIndex view = docOrderedIndex.update(lists);
+		TermDictionary dict = termDictionary.update(lists);
+		if(overlay.size() + changed.size() > base.size() / 8 + 64)
+		{
+			HashMap<String,Occurrence[]> folded = new HashMap<String,Occurrence[]>(base);
+			fold(folded, overlay);
+			fold(folded, changed);
+			return new IndexSnapshot(folded, new HashMap<String,Occurrence[]>(), version + 1, view, dict);
+		}
+		HashMap<String,Occurrence[]> next = new HashMap<String,Occurrence[]>(overlay);
+		next.putAll(changed);
+		return new IndexSnapshot(base, next, version + 1, view, dict);
+	}
+
+	/**
+	 * Wraps occurrence arrays as lists, for the views.
+	 */
+	private static HashMap<String,List<Occurrence>> lists(HashMap<String,Occurrence[]> arrays)
+	{
+		HashMap<String,List<Occurrence>> lists = new HashMap<String,List<Occurrence>>(arrays.size() * 2);
+		for(Map.Entry<String,Occurrence[]> e : arrays.entrySet())
+			lists.put(e.getKey(), Arrays.asList(e.getValue()));
+		return lists;
+	}
+
+	private static void fold(HashMap<String,Occurrence[]> into, HashMap<String,Occurrence[]> changes)
+	{
+		for(Map.Entry<String,Occurrence[]> e : changes.entrySet())
+		{
+			if(e.getValue().length == 0)
+				into.remove(e.getKey());
+			else
+				into.put(e.getKey(), e.getValue());
+		}
+	}
+
+	/**
+	 * Returns the version number of this snapshot. Later snapshots have higher numbers.
+	 *
+	 * @return Version number
+	 */
+	public long getVersion()
+	{
+		return version;
+	}
+
+	/**
+	 * Returns the occurrences of a keyword in this snapshot.
+	 *
+	 * @param kw Keyword
+	 * @return Read-only occurrences in descending order of frequency, null if the keyword is not indexed
+	 */
+	List<Occurrence> postingList(String kw)
+	{
+		Occurrence[] occs = overlay.get(kw);
+		if(occs == null)
+			occs = base.get(kw);
+		if(occs == null || occs.length == 0)
+			return null;
+		return Collections.unmodifiableList(Arrays.asList(occs));
+	}
+
+	/**
+	 * Same as LittleSearchEngine.topK, on this snapshot.
+	 *
+	 * @param keywords Keywords to search for
+	 * @param k Maximum number of documents in the result
+	 * @return Names of at most k matching documents in descending order of frequencies, empty if none match
+	 */
+	public ArrayList<String> topK(List<String> keywords, int k)
+	{
+		ArrayList<List<Occurrence>> lists = new ArrayList<List<Occurrence>>(keywords.size());
+		for(String kw : keywords)
+			lists.add(postingList(kw));
+		return LittleSearchEngine.mergeTopK(lists, k);
+	}
+
+	/**
+	 * Same as LittleSearchEngine.booleanSearch, on this snapshot.
+	 *
+	 * @param all Keywords every result must contain; may be empty
+	 * @param any Keywords of which every result must contain at least one; empty for no condition
+	 * @param none Keywords no result may contain; may be empty
+	 * @param k Maximum number of documents in the result
+	 * @return Names of at most k matching documents in descending order of the total frequency of the
+	 *         all and any keywords, empty if none match
+	 */
+	public ArrayList<String> booleanSearch(List<String> all, List<String> any, List<String> none, int k)
+	{
+		return docOrderedIndex.booleanQuery(all, any, none, k);
+	}
+
+	/**
+	 * Same as LittleSearchEngine.wildcardSearch, on this snapshot: the pattern is expanded with the
+	 * keywords of this snapshot, and they are searched in it.
+	 *
+	 * @param pattern Pattern, such as "comput*" or "t?ee"
+	 * @param k Maximum number of documents in the result
+	 * @return Names of at most k matching documents in descending order of frequencies, empty if none match
+	 */
+	public ArrayList<String> wildcardSearch(String pattern, int k)
+	{
+		return topK(termDictionary.wildcard(pattern.toLowerCase()), k);
+	}
+
+	/**
+	 * Same as LittleSearchEngine.top5search, on this snapshot.
+	 *
+	 * @param kw1 First keyword
+	 * @param kw2 Second keyword
+	 * @return Names of at most 5 matching documents in descending order of frequencies, null if none match
+	 */
+	public ArrayList<String> top5search(String kw1, String kw2)
+	{
+		ArrayList<String> res = topK(Arrays.asList(kw1, kw2), 5);
+		if(res.isEmpty())
+			return null;
+		return res;
+	}
+}
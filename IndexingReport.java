@@ -0,0 +1,91 @@
+package search;
+
+/**
+ * This class records what a single makeIndex run did, and how long each stage took.
+ * It is returned by the multi-threaded makeIndex so callers can report indexing
+ * throughput.
+ *
+ */
+public class IndexingReport
+{
+	/**
+	 * Number of documents indexed.
+	 */
+	int documents;
+
+	/**
+	 * Number of (keyword,document) occurrences merged into the index.
+	 */
+	long occurrences;
+
+	/**
+	 * Number of threads used to load the keywords of documents.
+	 */
+	int threads;
+
+	/**
+	 * Wall clock time spent in the whole run, in milliseconds.
+	 */
+	long totalMillis;
+
+	/**
+	 * Returns the number of documents indexed.
+	 *
+	 * @return Number of documents
+	 */
+	public int getDocuments()
+	{
+		return documents;
+	}
+
+	/**
+	 * Returns the number of (keyword,document) occurrences merged into the index.
+	 *
+	 * @return Number of occurrences
+	 */
+	public long getOccurrences()
+	{
+		return occurrences;
+	}
+
+	/**
+	 * Returns the number of loader threads used.
+	 *
+	 * @return Number of threads
+	 */
+	public int getThreads()
+	{
+		return threads;
+	}
+
+	/**
+	 * Returns the wall clock time of the run, in milliseconds.
+	 *
+	 * @return Elapsed time
+	 */
+	public long getTotalMillis()
+	{
+		return totalMillis;
+	}
+
+	/**
+	 * Returns the indexing throughput in documents per second.
+	 *
+	 * @return Documents per second, 0 if nothing was timed
+	 */
+	public double docsPerSecond()
+	{
+		if(totalMillis == 0)
+			return 0;
+		return documents * 1000.0 / totalMillis;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString()
+	{
+		return documents + " docs, " + occurrences + " occurrences, " + threads + " threads, "
+				+ totalMillis + " ms (" + String.format("%.1f", docsPerSecond()) + " docs/s)";
+	}
+}
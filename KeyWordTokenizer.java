@@ -0,0 +1,791 @@
+package search;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
+import java.util.*;
+
+/**
+ * This class scans documents for keywords without going through Scanner. A document is read
+ * through an NIO channel (large documents are memory-mapped), decoded into a reusable char
+ * buffer, and every token is lower cased, stripped of trailing punctuation and checked against
+ * the noise words in a single pass over that buffer. Keywords are counted in a table that is
+ * probed directly with the token characters, so a String is only created the first time a word
+ * is seen by this tokenizer. When asked, the tokenizer also records the position of every
+ * keyword occurrence, counted in whitespace separated tokens.
+ *
+ * The keywords produced are exactly those of LittleSearchEngine.getKeyWord. Tokens with
+ * non-ASCII characters (and all tokens under locales with special lower casing rules)
+ * are handed to getKeyWord itself.
+ *
+ * A tokenizer is not thread safe - each indexing thread uses its own.
+ *
+ */
+class KeyWordTokenizer
+{
+	/**
+	 * Documents larger than this many bytes are memory-mapped, smaller ones are read.
+	 */
+	static final long MAP_THRESHOLD = 1 << 20;
+
+	/**
+	 * Size of each mapped window of a large document.
+	 */
+	static final long MAP_WINDOW = 64L << 20;
+
+	/**
+	 * Largest number of spilled runs merged at once.
+	 */
+	static final int MERGE_FAN_IN = 64;
+
+	/**
+	 * Marker count for words in the table that are not keywords (noise words).
+	 */
+	private static final int NOISE = -1;
+
+	/**
+	 * Estimated heap per word in the table, besides its characters: the String, its array and the
+	 * table slots.
+	 */
+	private static final int WORD_BYTES = 80;
+
+	/**
+	 * Engine whose noise words and getKeyWord rules are used.
+	 */
+	private final LittleSearchEngine engine;
+
+	/**
+	 * True if String.toLowerCase in the default locale can differ from per-character lower casing.
+	 */
+	private final boolean slowLocale;
+
+	private final CharsetDecoder decoder;
+	private final ByteBuffer bytes = ByteBuffer.allocateDirect(64 * 1024);
+	private final CharBuffer chars = CharBuffer.allocate(64 * 1024);
+
+	/**
+	 * Characters of the token being scanned.
+	 */
+	private char[] token = new char[64];
+	private int tokenLength;
+
+	/**
+	 * Open addressing table of every word seen so far: the word, its hash code, and its count
+	 * in the current document (NOISE for noise words).
+	 */
+	private String[] words = new String[1024];
+	private int[] hashes = new int[1024];
+	private int[] counts = new int[1024];
+	private int wordCount;
+
+	/**
+	 * Positions of the word in each slot in the current document, when positions are recorded.
+	 */
+	private int[][] positions = new int[1024][];
+
+	/**
+	 * True if positions are recorded for the current document.
+	 */
+	private boolean recordPositions;
+
+	/**
+	 * Number of tokens scanned so far in the current document.
+	 */
+	private int position;
+
+	/**
+	 * Slots of the table counted in the current document.
+	 */
+	private int[] touched = new int[256];
+	private int touchedCount;
+
+	/**
+	 * Estimated heap held by the table for the current document, and the limit past which counts
+	 * are spilled to a temporary file (Long.MAX_VALUE when not streaming).
+	 */
+	private long bufferedBytes;
+	private long maxBufferedBytes = Long.MAX_VALUE;
+
+	/**
+	 * Document being scanned.
+	 */
+	private String docFile;
+
+	/**
+	 * Temporary files with the counts and positions spilled so far for the current document, in
+	 * the order they were written.
+	 */
+	private ArrayList<File> runs;
+
+	/**
+	 * Noise words version the table was built with.
+	 */
+	private int noiseVersion;
+
+	/**
+	 * Creates a tokenizer for the given engine.
+	 *
+	 * @param engine Engine whose noise words are used
+	 */
+	KeyWordTokenizer(LittleSearchEngine engine)
+	{
+		this.engine = engine;
+		this.noiseVersion = engine.noiseVersion;
+		String lang = Locale.getDefault().getLanguage();
+		slowLocale = lang.equals("tr") || lang.equals("az") || lang.equals("lt");
+		decoder = Charset.defaultCharset().newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	/**
+	 * Scans a document and returns the hash table of its keywords, like loadKeyWords.
+	 *
+	 * @param docFile Name of the document file
+	 * @return Hash table of keywords in the document, each associated with an Occurrence object
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 */
+	HashMap<String,Occurrence> loadKeyWords(String docFile)
+	throws FileNotFoundException
+	{
+		return loadKeyWords(docFile, null);
+	}
+
+	/**
+	 * Scans a document and returns the hash table of its keywords, like loadKeyWords, also
+	 * recording the token positions of every keyword.
+	 *
+	 * @param docFile Name of the document file
+	 * @param positionsOut Filled with the encoded positions (see PositionalIndex.encode) of each
+	 *        keyword; null to skip positions
+	 * @return Hash table of keywords in the document, each associated with an Occurrence object
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 */
+	HashMap<String,Occurrence> loadKeyWords(String docFile, HashMap<String,byte[]> positionsOut)
+	throws FileNotFoundException
+	{
+		recordPositions = positionsOut != null;
+		this.docFile = docFile;
+		long limit = engine.streamingBytes;
+		maxBufferedBytes = limit > 0 ? limit : Long.MAX_VALUE;
+		bufferedBytes = 0;
+		runs = new ArrayList<File>();
+		if(noiseVersion != engine.noiseVersion)
+		{
+			// noise words changed, the noise flags in the table are stale
+			clearTable();
+			noiseVersion = engine.noiseVersion;
+		}
+
+		HashMap<String,Occurrence> hm;
+		FileChannel ch = new FileInputStream(docFile).getChannel();
+		boolean done = false;
+		try
+		{
+			scanChannel(ch);
+			if(runs.isEmpty())
+			{
+				hm = new HashMap<String,Occurrence>(touchedCount * 2);
+				for(int i = 0; i < touchedCount; i++)
+				{
+					int slot = touched[i];
+					hm.put(words[slot], new Occurrence(docFile, counts[slot]));
+					if(recordPositions)
+						positionsOut.put(words[slot], PositionalIndex.encode(positions[slot], counts[slot]));
+					counts[slot] = 0;
+				}
+				touchedCount = 0;
+			}
+			else
+			{
+				// the table overflowed, add up the spilled runs and what is left in the table
+				spill();
+				hm = new HashMap<String,Occurrence>();
+				mergeAllRuns(hm, positionsOut);
+			}
+			done = true;
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException("Could not read " + docFile, e);
+		}
+		finally
+		{
+			try
+			{
+				ch.close();
+			}
+			catch (IOException e)
+			{
+				// nothing left to read
+			}
+			for(File run : runs)
+				run.delete();
+			runs = null;
+			// a failed scan must not leave its counts to the next document
+			if(!done)
+				resetDocument();
+		}
+		return hm;
+	}
+
+	/**
+	 * Forgets the counts and token position of the current document, after a scan that did not
+	 * finish. The words and noise flags stay in the table.
+	 */
+	private void resetDocument()
+	{
+		for(int i = 0; i < touchedCount; i++)
+			counts[touched[i]] = 0;
+		touchedCount = 0;
+		position = 0;
+		bufferedBytes = 0;
+	}
+
+	/**
+	 * Writes the counts and positions of the current document in the table to a new run file,
+	 * sorted on the words, and empties the table. Called when the table grows past the streaming
+	 * limit, so the table stays bounded however long the document is. The runs are merged when the
+	 * document has been scanned, and the counts that come out are the same as if the table had
+	 * held the whole document.
+	 *
+	 * @throws UncheckedIOException If the run cannot be written
+	 */
+	private void spill()
+	{
+		String[] sorted = new String[touchedCount];
+		int[] slots = new int[touchedCount];
+		for(int i = 0; i < touchedCount; i++)
+			sorted[i] = words[touched[i]];
+		Arrays.sort(sorted);
+		for(int i = 0; i < touchedCount; i++)
+			slots[i] = slotOf(sorted[i]);
+		try
+		{
+			File run = File.createTempFile("keywords", ".run");
+			runs.add(run);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run)));
+			try
+			{
+				for(int slot : slots)
+					writeRecord(out, words[slot], counts[slot], recordPositions ? positions[slot] : null);
+			}
+			finally
+			{
+				out.close();
+			}
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException("Could not spill keywords of " + docFile, e);
+		}
+
+		clearTable();
+		if(words.length > 1024)
+		{
+			// let the table shrink back, the next words may be few
+			words = new String[1024];
+			hashes = new int[1024];
+			counts = new int[1024];
+			positions = new int[1024][];
+		}
+		bufferedBytes = 0;
+	}
+
+	/**
+	 * Returns the slot of a word that is in the table.
+	 */
+	private int slotOf(String word)
+	{
+		int mask = words.length - 1;
+		int slot = word.hashCode() & mask;
+		while(!words[slot].equals(word))
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	/**
+	 * Merges the spilled runs of the current document into its keyword table and positions. Runs
+	 * are merged MERGE_FAN_IN at a time into longer runs, in the order they were written, until
+	 * few enough are left to merge at once.
+	 *
+	 * @param hm Filled with the keywords of the document
+	 * @param positionsOut Filled with the encoded positions of each keyword; null to skip positions
+	 * @throws IOException If a run cannot be read or written
+	 */
+	private void mergeAllRuns(HashMap<String,Occurrence> hm, HashMap<String,byte[]> positionsOut)
+	throws IOException
+	{
+		while(runs.size() > MERGE_FAN_IN)
+		{
+			ArrayList<File> merged = new ArrayList<File>();
+			for(int i = 0; i < runs.size(); i += MERGE_FAN_IN)
+			{
+				List<File> group = runs.subList(i, Math.min(i + MERGE_FAN_IN, runs.size()));
+				File run = File.createTempFile("keywords", ".run");
+				merged.add(run);
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run)));
+				try
+				{
+					mergeRuns(group, out, null, null);
+				}
+				finally
+				{
+					out.close();
+				}
+			}
+			for(File run : runs)
+				run.delete();
+			runs = merged;
+		}
+		mergeRuns(runs, null, hm, positionsOut);
+	}
+
+	/**
+	 * Merges runs into one, adding up the counts of each word and joining its positions in run
+	 * order, either into a new run file or into the document's keyword table.
+	 *
+	 * @param group Runs to merge, in the order they were written
+	 * @param out Stream of the new run, null to fill hm instead
+	 * @param hm Keyword table to fill when out is null
+	 * @param positionsOut Positions to fill when out is null; null to skip positions
+	 * @throws IOException If a run cannot be read or written
+	 */
+	private void mergeRuns(List<File> group, DataOutputStream out, HashMap<String,Occurrence> hm,
+			HashMap<String,byte[]> positionsOut)
+	throws IOException
+	{
+		PriorityQueue<RunReader> heap = new PriorityQueue<RunReader>(group.size());
+		ArrayList<RunReader> readers = new ArrayList<RunReader>(group.size());
+		try
+		{
+			for(int i = 0; i < group.size(); i++)
+			{
+				RunReader r = new RunReader(group.get(i), i, recordPositions);
+				readers.add(r);
+				if(r.next())
+					heap.add(r);
+			}
+			int[] merged = new int[16];
+			while(!heap.isEmpty())
+			{
+				String word = heap.peek().word;
+				int count = 0;
+				while(!heap.isEmpty() && heap.peek().word.equals(word))
+				{
+					RunReader r = heap.poll();
+					if(recordPositions)
+					{
+						if(merged.length < count + r.count)
+							merged = Arrays.copyOf(merged, Math.max(merged.length * 2, count + r.count));
+						System.arraycopy(r.positions, 0, merged, count, r.count);
+					}
+					count += r.count;
+					if(r.next())
+						heap.add(r);
+				}
+				if(out != null)
+				{
+					writeRecord(out, word, count, recordPositions ? merged : null);
+				}
+				else
+				{
+					hm.put(word, new Occurrence(docFile, count));
+					if(recordPositions)
+						positionsOut.put(word, PositionalIndex.encode(merged, count));
+				}
+			}
+		}
+		finally
+		{
+			for(RunReader r : readers)
+				r.close();
+		}
+	}
+
+	/**
+	 * Writes one word of a run: the word, its count, and its positions if recorded.
+	 */
+	private static void writeRecord(DataOutputStream out, String word, int count, int[] positions)
+	throws IOException
+	{
+		out.writeInt(word.length());
+		out.writeChars(word);
+		out.writeInt(count);
+		if(positions != null)
+		{
+			for(int i = 0; i < count; i++)
+				out.writeInt(positions[i]);
+		}
+	}
+
+	/**
+	 * Reads the words of a run file in order. Readers are ordered on their current word, then on
+	 * the order of their runs, so the positions of a word come out in document order.
+	 */
+	private static class RunReader implements Comparable<RunReader>
+	{
+		final DataInputStream in;
+		final int order;
+		final boolean withPositions;
+
+		String word;
+		int count;
+		int[] positions = new int[16];
+
+		RunReader(File run, int order, boolean withPositions)
+		throws IOException
+		{
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(run)));
+			this.order = order;
+			this.withPositions = withPositions;
+		}
+
+		/**
+		 * Moves to the next word of the run.
+		 *
+		 * @return False if the run is used up
+		 * @throws IOException If the run cannot be read
+		 */
+		boolean next()
+		throws IOException
+		{
+			int len;
+			try
+			{
+				len = in.readInt();
+			}
+			catch (EOFException e)
+			{
+				// end of the run
+				return false;
+			}
+			char[] w = new char[len];
+			for(int i = 0; i < len; i++)
+				w[i] = in.readChar();
+			word = new String(w);
+			count = in.readInt();
+			if(withPositions)
+			{
+				if(positions.length < count)
+					positions = new int[Math.max(positions.length * 2, count)];
+				for(int i = 0; i < count; i++)
+					positions[i] = in.readInt();
+			}
+			return true;
+		}
+
+		void close()
+		{
+			try
+			{
+				in.close();
+			}
+			catch (IOException e)
+			{
+				// only read from
+			}
+		}
+
+		public int compareTo(RunReader o)
+		{
+			int c = word.compareTo(o.word);
+			return c != 0 ? c : order - o.order;
+		}
+	}
+
+	/**
+	 * Returns the number of tokens in the last document scanned.
+	 *
+	 * @return Number of whitespace separated tokens
+	 */
+	int tokenCount()
+	{
+		return position;
+	}
+
+	/**
+	 * Decodes and scans the whole channel.
+	 *
+	 * @param ch Document channel
+	 * @throws IOException If the document cannot be read
+	 */
+	private void scanChannel(FileChannel ch)
+	throws IOException
+	{
+		decoder.reset();
+		tokenLength = 0;
+		position = 0;
+		long size = ch.size();
+		if(size > MAP_THRESHOLD)
+		{
+			long pos = 0;
+			while(pos < size)
+			{
+				long len = Math.min(MAP_WINDOW, size - pos);
+				MappedByteBuffer mb = ch.map(FileChannel.MapMode.READ_ONLY, pos, len);
+				boolean last = pos + len == size;
+				decode(mb, last);
+				// bytes of a character split across windows are decoded with the next window
+				pos += len - mb.remaining();
+			}
+		}
+		else
+		{
+			bytes.clear();
+			while(true)
+			{
+				int n = ch.read(bytes);
+				bytes.flip();
+				decode(bytes, n == -1);
+				bytes.compact();
+				if(n == -1)
+					break;
+			}
+		}
+		endToken();
+	}
+
+	/**
+	 * Decodes bytes into the char buffer and scans the decoded characters.
+	 *
+	 * @param in Bytes to decode
+	 * @param endOfInput True if these are the last bytes of the document
+	 */
+	private void decode(ByteBuffer in, boolean endOfInput)
+	{
+		while(true)
+		{
+			CoderResult r = decoder.decode(in, chars, endOfInput);
+			scanChars();
+			if(r.isUnderflow())
+				break;
+		}
+		if(endOfInput)
+		{
+			decoder.flush(chars);
+			scanChars();
+		}
+	}
+
+	/**
+	 * Splits the decoded characters into tokens at whitespace, exactly as Scanner.next() does.
+	 */
+	private void scanChars()
+	{
+		chars.flip();
+		char[] a = chars.array();
+		int end = chars.limit();
+		for(int i = 0; i < end; i++)
+		{
+			char c = a[i];
+			if(Character.isWhitespace(c))
+			{
+				endToken();
+			}
+			else
+			{
+				if(tokenLength == token.length)
+					token = Arrays.copyOf(token, tokenLength * 2);
+				token[tokenLength++] = c;
+			}
+		}
+		chars.clear();
+	}
+
+	/**
+	 * Counts the token just scanned if it is a keyword, then starts a new token.
+	 */
+	private void endToken()
+	{
+		int len = tokenLength;
+		if(len == 0)
+			return;
+		tokenLength = 0;
+		position++;
+
+		char[] t = token;
+		int end = -1;
+		for(int i = 0; i < len; i++)
+		{
+			char c = t[i];
+			if(c >= 128 || slowLocale)
+			{
+				slowToken(len);
+				return;
+			}
+			if(c >= 'A' && c <= 'Z')
+			{
+				c += 'a' - 'A';
+				t[i] = c;
+			}
+			if(c >= 'a' && c <= 'z')
+			{
+				// a letter after trailing punctuation - not a keyword
+				if(end != -1)
+					return;
+			}
+			else if(end == -1)
+			{
+				end = i;
+			}
+		}
+		if(end == -1)
+			end = len;
+		if(end == 0)
+			return;
+		count(t, end, null);
+	}
+
+	/**
+	 * Handles a token that needs the full getKeyWord rules.
+	 *
+	 * @param len Token length
+	 */
+	private void slowToken(int len)
+	{
+		String kw = engine.getKeyWord(new String(token, 0, len));
+		if(kw != null)
+			count(kw.toCharArray(), kw.length(), kw);
+	}
+
+	/**
+	 * Counts one occurrence of the word in w[0..len-1]. If the word has not been seen before, it is
+	 * checked against the noise words and remembered.
+	 *
+	 * @param w Word characters (lower case, no punctuation)
+	 * @param len Word length
+	 * @param word The word as a String if it is already known to be a keyword, otherwise null
+	 */
+	private void count(char[] w, int len, String word)
+	{
+		int h = 0;
+		for(int i = 0; i < len; i++)
+			h = 31 * h + w[i];
+
+		int mask = words.length - 1;
+		int slot = h & mask;
+		while(words[slot] != null)
+		{
+			if(hashes[slot] == h && matches(words[slot], w, len))
+			{
+				if(counts[slot] == NOISE)
+					return;
+				if(counts[slot]++ == 0)
+					touch(slot);
+				if(recordPositions && addPosition(slot))
+					spill();
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		// first time this word is seen
+		boolean noise = len == 0 || engine.noiseSet.contains(w, 0, len);
+		if(word == null)
+			word = new String(w, 0, len);
+		words[slot] = word;
+		hashes[slot] = h;
+		if(!noise)
+		{
+			counts[slot] = 1;
+			touch(slot);
+			if(recordPositions)
+				addPosition(slot);
+		}
+		else
+		{
+			counts[slot] = NOISE;
+		}
+		bufferedBytes += WORD_BYTES + 2 * len;
+		if(++wordCount * 2 > words.length)
+			grow();
+		if(bufferedBytes > maxBufferedBytes)
+			spill();
+	}
+
+	private static boolean matches(String s, char[] w, int len)
+	{
+		if(s.length() != len)
+			return false;
+		for(int i = 0; i < len; i++)
+		{
+			if(s.charAt(i) != w[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Records the current token's position for the word in a slot. Called after the count of the
+	 * slot is incremented, so the count is the number of positions.
+	 *
+	 * @param slot Slot of the word
+	 * @return True if the table is now past the streaming limit
+	 */
+	private boolean addPosition(int slot)
+	{
+		int[] p = positions[slot];
+		int n = counts[slot];
+		if(p == null || p.length < n)
+		{
+			p = p == null ? new int[4] : Arrays.copyOf(p, p.length * 2);
+			positions[slot] = p;
+		}
+		p[n - 1] = position - 1;
+		bufferedBytes += 4;
+		return bufferedBytes > maxBufferedBytes;
+	}
+
+	private void touch(int slot)
+	{
+		if(touchedCount == touched.length)
+			touched = Arrays.copyOf(touched, touchedCount * 2);
+		touched[touchedCount++] = slot;
+	}
+
+	/**
+	 * Doubles the table. Only called between tokens, so the touched slots are remapped as well.
+	 */
+	private void grow()
+	{
+		String[] oldWords = words;
+		int[] oldHashes = hashes;
+		int[] oldCounts = counts;
+		int[][] oldPositions = positions;
+		int[] moved = new int[oldWords.length];
+
+		words = new String[oldWords.length * 2];
+		hashes = new int[words.length];
+		counts = new int[words.length];
+		positions = new int[words.length][];
+		int mask = words.length - 1;
+		for(int i = 0; i < oldWords.length; i++)
+		{
+			if(oldWords[i] == null)
+				continue;
+			int slot = oldHashes[i] & mask;
+			while(words[slot] != null)
+				slot = (slot + 1) & mask;
+			words[slot] = oldWords[i];
+			hashes[slot] = oldHashes[i];
+			counts[slot] = oldCounts[i];
+			positions[slot] = oldPositions[i];
+			moved[i] = slot;
+		}
+		for(int i = 0; i < touchedCount; i++)
+			touched[i] = moved[touched[i]];
+	}
+
+	private void clearTable()
+	{
+		Arrays.fill(words, null);
+		Arrays.fill(counts, 0);
+		Arrays.fill(positions, null);
+		wordCount = 0;
+		touchedCount = 0;
+	}
+}
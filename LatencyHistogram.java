@@ -0,0 +1,119 @@
+package search;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class is a fixed-size histogram of durations in nanoseconds, in the style of HdrHistogram:
+ * values below 64 get a bucket each, and every power of two range above that is split into 32
+ * equal buckets, so any recorded value is known to within about 3% with a fixed 15 KB of counts.
+ * Recording is one array increment, safe from any number of threads without locks.
+ *
+ */
+class LatencyHistogram
+{
+	/**
+	 * Sub-buckets per power of two, as a number of bits.
+	 */
+	private static final int SUB_BITS = 5;
+	private static final int SUB = 1 << SUB_BITS;
+
+	/**
+	 * Values below this have a bucket each.
+	 */
+	private static final int LINEAR = 2 * SUB;
+
+	private final AtomicLongArray counts = new AtomicLongArray(LINEAR + (63 - SUB_BITS) * SUB);
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a value.
+	 *
+	 * @param nanos Duration in nanoseconds; negative values are counted as 0
+	 */
+	void record(long nanos)
+	{
+		long v = Math.max(nanos, 0);
+		counts.incrementAndGet(bucket(v));
+		long m = max.get();
+		while(v > m && !max.compareAndSet(m, v))
+			m = max.get();
+	}
+
+	/**
+	 * Returns the number of recorded values.
+	 *
+	 * @return Count
+	 */
+	long count()
+	{
+		long n = 0;
+		for(int i = 0; i < counts.length(); i++)
+			n += counts.get(i);
+		return n;
+	}
+
+	/**
+	 * Returns the largest recorded value.
+	 *
+	 * @return Largest value in nanoseconds, 0 if none
+	 */
+	long max()
+	{
+		return max.get();
+	}
+
+	/**
+	 * Returns the value at a percentile: the highest value of the bucket that holds it.
+	 *
+	 * @param percentile Percentile, 0 to 100
+	 * @return Value in nanoseconds (at most the largest recorded value), 0 if nothing was recorded
+	 */
+	long percentile(double percentile)
+	{
+		long total = count();
+		if(total == 0)
+			return 0;
+		long rank = Math.max(1, (long)Math.ceil(total * Math.min(Math.max(percentile, 0), 100) / 100));
+		long seen = 0;
+		for(int i = 0; i < counts.length(); i++)
+		{
+			seen += counts.get(i);
+			if(seen >= rank)
+				return Math.min(highest(i), max.get());
+		}
+		return max.get();
+	}
+
+	/**
+	 * Drops all recorded values.
+	 */
+	void reset()
+	{
+		for(int i = 0; i < counts.length(); i++)
+			counts.set(i, 0);
+		max.set(0);
+	}
+
+	private static int bucket(long v)
+	{
+		if(v < LINEAR)
+			return (int)v;
+		int exp = 63 - Long.numberOfLeadingZeros(v);
+		int shift = exp - SUB_BITS;
+		return LINEAR + (exp - SUB_BITS - 1) * SUB + (int)((v >>> shift) - SUB);
+	}
+
+	/**
+	 * Returns the highest value that falls in a bucket.
+	 */
+	private static long highest(int bucket)
+	{
+		if(bucket < LINEAR)
+			return bucket;
+		int exp = (bucket - LINEAR) / SUB + SUB_BITS + 1;
+		long sub = SUB + (bucket - LINEAR) % SUB;
+		int shift = exp - SUB_BITS;
+		return ((sub + 1) << shift) - 1;
+	}
+}
@@ -2,165 +2,1345 @@ package search;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
- * This class encapsulates an occurrence of a keyword in a document. It stores the
- * document name, and the frequency of occurrence in that document. Occurrences are
- * associated with keywords in an index hash table.
- * 
- * @author Sesh Venugopal
- * 
+ * This class builds an index of keywords. Each keyword maps to a set of documents in
+ * which it occurs, with frequency of occurrence in each document. Once the index is built,
+ * the documents can searched on for keywords.
+ *
  */
-class Occurrence 
+public class LittleSearchEngine 
 {
+	
+	/**
+	 * Scoring functions for rankedSearch.
+	 */
+	public enum Scoring 
+	{
+		/**
+		 * Okapi BM25, with k1 = 1.2 and b = 0.75.
+		 */
+		BM25,
+		
+		/**
+		 * Log-scaled term frequency times inverse document frequency, cosine normalized by the
+		 * length of the document's TF-IDF vector.
+		 */
+		TF_IDF
+	}
+	
+	/**
+	 * This is a hash table of all keywords. The key is the actual keyword, and the associated value is
+	 * an array list of all occurrences of the keyword in documents. The array list is maintained in descending
+	 * order of occurrence frequencies.
+	 */
+	HashMap<String,ArrayList<Occurrence>> keywordsIndex;
+	
+	/**
+	 * The hash table of all noise words - mapping is from word to itself.
+	 */
+	HashMap<String,String> noiseWords;
+	
+	/**
+	 * Perfect hash set of the noise words, used for all noise word checks. Rebuilt whenever
+	 * noise words are loaded.
+	 */
+	volatile NoiseWordSet noiseSet = NoiseWordSet.EMPTY;
+	
+	/**
+	 * Incremented whenever noise words are loaded, so tokenizers know to drop cached noise word checks.
+	 */
+	volatile int noiseVersion;
+	
+	/**
+	 * Index file loaded by loadIndex, null if none. Keywords that are not yet in keywordsIndex are
+	 * looked up in this file, and their occurrence lists are moved into keywordsIndex when they are
+	 * first merged into or removed from.
+	 */
+	IndexFile indexFile;
+	
+	/**
+	 * Occurrence lists decoded from indexFile by searches. Searches may run in several threads at
+	 * once, so they never put into keywordsIndex; the writer moves a list from here into
+	 * keywordsIndex before changing it.
+	 */
+	final ConcurrentHashMap<String,ArrayList<Occurrence>> decodedLists = new ConcurrentHashMap<String,ArrayList<Occurrence>>();
+	
+	/**
+	 * The index in the compact layout (document ids and primitive posting arrays), null if the
+	 * index is kept in keywordsIndex. Set by compact; keywordsIndex is empty while it is in use.
+	 */
+	CompactIndex compactIndex;
+	
+	/**
+	 * The index in the segmented layout (immutable segments merged in the background), null if
+	 * the index is not segmented. Set by useSegments; keywordsIndex is empty while it is in use.
+	 */
+	SegmentedIndex segmentedIndex;
+	
+	/**
+	 * Cache of search results, null if caching is off. Volatile, as searches in other threads read
+	 * it once and use the cache they find.
+	 */
+	volatile QueryCache queryCache;
+	
+	/**
+	 * Indexing and search metrics, null unless enableMetrics was called.
+	 */
+	volatile SearchMetrics metrics;
+	
+	/**
+	 * Heap budget in bytes for the words buffered while scanning one document, 0 for no limit.
+	 * Set by enableStreaming.
+	 */
+	volatile long streamingBytes;
+	
+	/**
+	 * Token positions of keywords, for phrase and proximity queries. Null unless enablePositions
+	 * was called.
+	 */
+	PositionalIndex positionalIndex;
+	
+	/**
+	 * Guards docOrderedIndex, termDictionary and viewChanges. Searches may run in several threads
+	 * at once, and the first that needs a view builds it.
+	 */
+	private final Object viewLock = new Object();
+	
+	/**
+	 * Document ordered view of the index with scoring statistics, in the occurrence list and
+	 * compact layouts; snapshots and segmented states carry their own. Null until a ranked or
+	 * Boolean search is run.
+	 */
+	DocOrderedIndex docOrderedIndex;
+	
+	/**
+	 * Sorted dictionary of all keywords, for wildcard searches, in the occurrence list and compact
+	 * layouts; snapshots and segmented states carry their own. Null until a wildcard search is run.
+	 */
+	TermDictionary termDictionary;
+	
+	/**
+	 * Keywords changed since docOrderedIndex and termDictionary were last brought up to date.
+	 * Only recorded while there is a view.
+	 */
+	private final HashSet<String> viewChanges = new HashSet<String>();
+	
+	/**
+	 * Keywords of every indexed document, so a document can be removed without scanning
+	 * the whole index.
+	 */
+	HashMap<String,String[]> documentKeywords;
+	
+	/**
+	 * False if keywordsIndex has documents that are not in documentKeywords: those of an index
+	 * file loaded by loadIndex, until the whole file is decoded.
+	 */
+	boolean allDocumentsTracked;
+	
+	/**
+	 * Latest published snapshot of the index for concurrent readers, null if concurrent reads are
+	 * off. Searches read this reference once and never take a lock; the writer replaces it.
+	 */
+	volatile IndexSnapshot snapshot;
+	
+	/**
+	 * Keywords changed since the last snapshot was published.
+	 */
+	HashSet<String> unpublished;
+	
+	/**
+	 * Number of document changes after which a new snapshot is published.
+	 */
+	int refreshEvery;
+	
+	/**
+	 * Document changes since the last snapshot was published.
+	 */
+	int pendingChanges;
+	
+	/**
+	 * Keyword tokenizer of each indexing thread.
+	 */
+	private final ThreadLocal<KeyWordTokenizer> tokenizers = new ThreadLocal<KeyWordTokenizer>() 
+	{
+		protected KeyWordTokenizer initialValue() 
+		{
+			return new KeyWordTokenizer(LittleSearchEngine.this);
+		}
+	};
+	
+	/**
+	 * Creates the keyWordsIndex and noiseWords hash tables.
+	 */
+	public LittleSearchEngine() 
+	{
+		keywordsIndex = new HashMap<String,ArrayList<Occurrence>>(1000,2.0f);
+		noiseWords = new HashMap<String,String>(100,2.0f);
+		documentKeywords = new HashMap<String,String[]>();
+		allDocumentsTracked = true;
+	}
+	
+	/**
+	 * This method indexes all keywords found in all the input documents. When this
+	 * method is done, the keywordsIndex hash table will be filled with all keywords,
+	 * each of which is associated with an array list of Occurrence objects, arranged
+	 * in decreasing frequencies of occurrence.
+	 * 
+	 * @param docsFile Name of file that has a list of all the document file names, one name per line
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+	 */
+	public void makeIndex(String docsFile, String noiseWordsFile) 
+	throws FileNotFoundException 
+	{
+		long start = System.nanoTime();
+		
+		// load noise words to hash table
+		loadNoiseWords(noiseWordsFile);
+		
+		// index all keywords
+		Scanner sc = new Scanner(new File(docsFile));
+		while (sc.hasNext()) 
+		{
+			String docFile = sc.next();
+			HashMap<String,Occurrence> kws = loadKeyWords(docFile);
+			mergeKeyWords(kws);
+		}
+		
+		indexed(start, true);
+	}
+	
+	/**
+	 * Builds the same index as makeIndex(docsFile,noiseWordsFile), but spreads the work over
+	 * several threads. Loader threads run loadKeyWords on their own documents, and the resulting
+	 * per-document hash tables are merged by a sharded merge stage: every keyword belongs to exactly
+	 * one shard, and each shard merges its keywords in the same document order as the serial
+	 * path, so every occurrence list ends up exactly as makeIndex would have left it.
+	 * 
+	 * @param docsFile Name of file that has a list of all the document file names, one name per line
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @param threads Number of loader threads (also the number of merge shards); 1 runs serially
+	 * @return Document counts and timings for this run
+	 * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+	 */
+	public IndexingReport makeIndex(String docsFile, String noiseWordsFile, int threads) 
+	throws FileNotFoundException 
+	{
+		if(threads < 1)
+			throw new IllegalArgumentException("Thread count must be at least 1: " + threads);
+		
+		long start = System.nanoTime();
+		IndexingReport report = new IndexingReport();
+		report.threads = threads;
+		
+		loadNoiseWords(noiseWordsFile);
+		
+		ArrayList<String> docs = new ArrayList<String>();
+		Scanner sc = new Scanner(new File(docsFile));
+		while (sc.hasNext()) 
+			docs.add(sc.next());
+		
+		if(threads == 1)
+		{
+			for(String docFile : docs)
+			{
+				HashMap<String,Occurrence> kws = loadKeyWords(docFile);
+				report.occurrences += kws.size();
+				mergeKeyWords(kws);
+			}
+		}
+		else
+		{
+			indexInParallel(docs, threads, report);
+		}
+		
+		report.documents = docs.size();
+		report.totalMillis = (System.nanoTime() - start) / 1000000;
+		indexed(start, true);
+		return report;
+	}
+	
 	/**
-	 * Document in which a keyword occurs.
+	 * Records the wall clock time of an indexing call in the metrics, if they are on.
+	 * 
+	 * @param start System.nanoTime() at the start of the call
+	 * @param histogram True to also take a new occurrence list length histogram
 	 */
-	String document;
+	private void indexed(long start, boolean histogram)
+	{
+		SearchMetrics m = metrics;
+		if(m == null)
+			return;
+		m.indexed(System.nanoTime() - start);
+		if(!histogram)
+			return;
+		long[] counts = new long[32];
+		int top = 0;
+		for(String kw : allKeywords())
+		{
+			List<Occurrence> occs = postingList(kw);
+			if(occs == null || occs.isEmpty())
+				continue;
+			int b = 31 - Integer.numberOfLeadingZeros(occs.size());
+			counts[b]++;
+			top = Math.max(top, b + 1);
+		}
+		m.postingLengths(Arrays.copyOf(counts, top));
+	}
 	
 	/**
-	 * The frequency (number of times) the keyword occurs in the above document.
+	 * Records the time of a search in the metrics, if they are on.
+	 * 
+	 * @param m Metrics as read at the start of the search, null if off
+	 * @param start System.nanoTime() at the start of the search
+	 * @param res Search result
+	 * @return res
 	 */
-	int frequency;
+	private static ArrayList<String> searched(SearchMetrics m, long start, ArrayList<String> res)
+	{
+		if(m != null)
+			m.searched(System.nanoTime() - start);
+		return res;
+	}
 	
 	/**
-	 * Initializes this occurrence with the given document,frequency pair.
+	 * Loads noise words from the given file into the noiseWords hash table.
 	 * 
-	 * @param doc Document name
-	 * @param freq Frequency
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @throws FileNotFoundException If the noise words file is not found on disk
 	 */
-	public Occurrence(String doc, int freq) 
+	private void loadNoiseWords(String noiseWordsFile) 
+	throws FileNotFoundException 
 	{
-		document = doc;
-		frequency = freq;
+		Scanner sc = new Scanner(new File(noiseWordsFile));
+		while (sc.hasNext()) 
+		{
+			String word = sc.next();
+			noiseWords.put(word,word);
+		}
+		noiseSet = new NoiseWordSet(noiseWords.keySet());
+		noiseVersion++;
 	}
 	
-	/* (non-Javadoc)
-	 * @see java.lang.Object#toString()
+	/**
+	 * Runs the parallel path of makeIndex. Documents are handled in batches: while one batch is
+	 * merged, the loaders are already working on the next one, and only two batches of
+	 * per-document hash tables are held in memory at any time.
+	 * 
+	 * @param docs Document file names, in index order
+	 * @param threads Number of loader threads and merge shards
+	 * @param report Report to fill in
+	 * @throws FileNotFoundException If a document file is not found on disk
 	 */
-	public String toString() 
+	private void indexInParallel(ArrayList<String> docs, int threads, IndexingReport report) 
+	throws FileNotFoundException 
 	{
-		return "(" + document + "," + frequency + ")";
+		int batchSize = threads * 32;
+		ExecutorService loaders = Executors.newFixedThreadPool(threads);
+		ExecutorService mergers = Executors.newFixedThreadPool(threads);
+		
+		// hand every existing keyword to its shard, so shards can be merged independently
+		loadAllOccurrences();
+		ArrayList<HashMap<String,ArrayList<Occurrence>>> shards = new ArrayList<HashMap<String,ArrayList<Occurrence>>>(threads);
+		boolean sharded = compactIndex == null && segmentedIndex == null;
+		if(sharded)
+		{
+			for(int s = 0; s < threads; s++)
+				shards.add(new HashMap<String,ArrayList<Occurrence>>());
+			for(Map.Entry<String,ArrayList<Occurrence>> e : keywordsIndex.entrySet())
+				shards.get(shardOf(e.getKey(), threads)).put(e.getKey(), e.getValue());
+			keywordsIndex.clear();
+		}
+		
+		try
+		{
+			ArrayList<Future<HashMap<String,Occurrence>>> batch = submitLoads(loaders, docs, 0, batchSize);
+			for(int next = batchSize; !batch.isEmpty(); next += batchSize)
+			{
+				// wait for the whole batch, in document order
+				ArrayList<HashMap<String,Occurrence>> loaded = new ArrayList<HashMap<String,Occurrence>>(batch.size());
+				for(Future<HashMap<String,Occurrence>> f : batch)
+				{
+					HashMap<String,Occurrence> kws = getLoaded(f);
+					report.occurrences += kws.size();
+					loaded.add(kws);
+				}
+				
+				batch = submitLoads(loaders, docs, next, batchSize);
+				if(sharded)
+				{
+					SearchMetrics m = metrics;
+					long mergeStart = m == null ? 0 : System.nanoTime();
+					int merged = 0;
+					for(HashMap<String,Occurrence> kws : loaded)
+					{
+						trackDocument(kws);
+						merged += kws.size();
+					}
+					mergeShards(mergers, shards, loaded);
+					if(m != null)
+						m.merged(merged, System.nanoTime() - mergeStart);
+				}
+				else
+				{
+					// the other layouts are merged on this thread, loading still runs in parallel
+					for(HashMap<String,Occurrence> kws : loaded)
+						mergeKeyWords(kws);
+				}
+			}
+		}
+		finally
+		{
+			loaders.shutdownNow();
+			mergers.shutdownNow();
+			for(HashMap<String,ArrayList<Occurrence>> shard : shards)
+				keywordsIndex.putAll(shard);
+			// the shards bypass mergeKeyWords, so publish the whole index
+			if(sharded && snapshot != null)
+				publishAll();
+			else if(sharded)
+			{
+				if(queryCache != null)
+					queryCache.clear();
+				dropViews();
+			}
+		}
+	}
+	
+	/**
+	 * Submits loadKeyWords tasks for docs[from..from+count-1] to the loader pool.
+	 * 
+	 * @param loaders Loader thread pool
+	 * @param docs Document file names
+	 * @param from Index of first document
+	 * @param count Maximum number of documents to submit
+	 * @return Pending results, in document order
+	 */
+	private ArrayList<Future<HashMap<String,Occurrence>>> submitLoads(ExecutorService loaders, ArrayList<String> docs, int from, int count)
+	{
+		ArrayList<Future<HashMap<String,Occurrence>>> batch = new ArrayList<Future<HashMap<String,Occurrence>>>(count);
+		for(int i = from; i < from + count && i < docs.size(); i++)
+		{
+			final String docFile = docs.get(i);
+			batch.add(loaders.submit(new Callable<HashMap<String,Occurrence>>() 
+			{
+				public HashMap<String,Occurrence> call() throws FileNotFoundException 
+				{
+					return loadKeyWords(docFile);
+				}
+			}));
+		}
+		return batch;
+	}
+	
+	/**
+	 * Merges a batch of loaded documents into the shards, one merge task per shard. The batch is
+	 * split by shard once, in document order, so each task only walks its own keywords and only
+	 * touches its own shard.
+	 * 
+	 * @param mergers Merge thread pool
+	 * @param shards Shards of the index being built
+	 * @param loaded Keyword hash tables of the batch, in document order
+	 */
+	private void mergeShards(ExecutorService mergers, final ArrayList<HashMap<String,ArrayList<Occurrence>>> shards, 
+			ArrayList<HashMap<String,Occurrence>> loaded)
+	{
+		int n = shards.size();
+		ArrayList<ArrayList<Map.Entry<String,Occurrence>>> parts = new ArrayList<ArrayList<Map.Entry<String,Occurrence>>>(n);
+		for(int s = 0; s < n; s++)
+			parts.add(new ArrayList<Map.Entry<String,Occurrence>>());
+		for(HashMap<String,Occurrence> kws : loaded)
+		{
+			for(Map.Entry<String,Occurrence> e : kws.entrySet())
+				parts.get(shardOf(e.getKey(), n)).add(e);
+		}
+		
+		ArrayList<Future<?>> pending = new ArrayList<Future<?>>(n);
+		for(int s = 0; s < n; s++)
+		{
+			final HashMap<String,ArrayList<Occurrence>> index = shards.get(s);
+			final ArrayList<Map.Entry<String,Occurrence>> part = parts.get(s);
+			pending.add(mergers.submit(new Runnable() 
+			{
+				public void run() 
+				{
+					for(Map.Entry<String,Occurrence> e : part)
+						mergeOccurrence(index, e.getKey(), e.getValue());
+				}
+			}));
+		}
+		for(Future<?> f : pending)
+		{
+			try 
+			{
+				f.get();
+			} 
+			catch (InterruptedException e) 
+			{
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Indexing was interrupted", e);
+			} 
+			catch (ExecutionException e) 
+			{
+				throw new IllegalStateException("Merge failed", e.getCause());
+			}
+		}
+	}
+	
+	/**
+	 * Waits for a loader task and returns its result, unwrapping a missing document file.
+	 * 
+	 * @param f Pending loadKeyWords result
+	 * @return Keywords hash table for the document
+	 * @throws FileNotFoundException If the document file was not found on disk
+	 */
+	private HashMap<String,Occurrence> getLoaded(Future<HashMap<String,Occurrence>> f) 
+	throws FileNotFoundException 
+	{
+		try 
+		{
+			return f.get();
+		} 
+		catch (InterruptedException e) 
+		{
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Indexing was interrupted", e);
+		} 
+		catch (ExecutionException e) 
+		{
+			if(e.getCause() instanceof FileNotFoundException)
+				throw (FileNotFoundException)e.getCause();
+			throw new IllegalStateException("Loading keywords failed", e.getCause());
+		}
+	}
+	
+	/**
+	 * Returns the merge shard that owns a keyword.
+	 * 
+	 * @param kw Keyword
+	 * @param shards Number of shards
+	 * @return Shard number, in 0..shards-1
+	 */
+	private static int shardOf(String kw, int shards)
+	{
+		return (kw.hashCode() & 0x7fffffff) % shards;
 	}
-}
 
-/**
- * This class builds an index of keywords. Each keyword maps to a set of documents in
- * which it occurs, with frequency of occurrence in each document. Once the index is built,
- * the documents can searched on for keywords.
- *
- */
-public class LittleSearchEngine 
-{
+	/**
+	 * Scans a document, and loads all keywords found into a hash table of keyword occurrences
+	 * in the document. Keywords are separated from other words by the same rules as the getKeyWord
+	 * method, applied by this thread's KeyWordTokenizer directly on the document's characters.
+	 * 
+	 * @param docFile Name of the document file to be scanned and loaded
+	 * @return Hash table of keywords in the given document, each associated with an Occurrence object
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 */
+	public HashMap<String,Occurrence> loadKeyWords(String docFile) 
+	throws FileNotFoundException 
+	{
+		SearchMetrics m = metrics;
+		long start = m == null ? 0 : System.nanoTime();
+		KeyWordTokenizer tokenizer = tokenizers.get();
+		PositionalIndex pi = positionalIndex;
+		HashMap<String,Occurrence> kws;
+		if(pi == null)
+		{
+			kws = tokenizer.loadKeyWords(docFile);
+		}
+		else
+		{
+			HashMap<String,byte[]> positions = new HashMap<String,byte[]>();
+			kws = tokenizer.loadKeyWords(docFile, positions);
+			pi.load(docFile, positions);
+		}
+		if(m != null)
+			m.scanned(tokenizer.tokenCount(), System.nanoTime() - start);
+		return kws;
+	}
+	
+	/**
+	 * Merges the keywords for a single document into the master keywordsIndex
+	 * hash table. For each keyword, its Occurrence in the current document
+	 * must be inserted in the correct place (according to descending order of
+	 * frequency) in the same keyword's Occurrence list in the master hash table. 
+	 * This is done by calling the insertLastOccurrence method.
+	 * 
+	 * @param kws Keywords hash table for a document
+	 */
+	public void mergeKeyWords(HashMap<String,Occurrence> kws) 
+	{
+		SearchMetrics m = metrics;
+		long start = m == null ? 0 : System.nanoTime();
+		mergeDocument(kws);
+		if(m != null)
+			m.merged(kws.size(), System.nanoTime() - start);
+	}
+	
+	/**
+	 * Does the work of mergeKeyWords in the current layout.
+	 * 
+	 * @param kws Keywords hash table for a document
+	 */
+	private void mergeDocument(HashMap<String,Occurrence> kws) 
+	{
+		trackDocument(kws);
+		if(segmentedIndex != null)
+		{
+			// buffered documents are not searchable until they are flushed
+			Set<String> flushed = segmentedIndex.add(kws);
+			if(flushed != null)
+				invalidate(flushed);
+			return;
+		}
+		
+		if(compactIndex != null)
+		{
+			compactIndex.merge(kws);
+		}
+		else
+		{
+			for(String s : kws.keySet())
+			{
+				// bring in the keyword's list from the index file, if there is one
+				if(indexFile != null)
+					ownOccurrences(s);
+				mergeOccurrence(keywordsIndex, s, kws.get(s));
+			}
+		}
+		if(snapshot != null)
+			changed(kws.keySet());
+		else
+			invalidate(kws.keySet());
+	}
+	
+	/**
+	 * Drops cached search results that use any of the given keywords, if there is a cache.
+	 * Called when changed occurrence lists become visible to searches.
+	 * 
+	 * @param kws Keywords whose occurrence lists changed
+	 */
+	private void invalidate(Collection<String> kws)
+	{
+		if(queryCache != null)
+			queryCache.invalidate(kws);
+		synchronized(viewLock)
+		{
+			if(docOrderedIndex != null || termDictionary != null)
+				viewChanges.addAll(kws);
+		}
+	}
+	
+	/**
+	 * Drops the views of the occurrence list and compact layouts, for the next search to build
+	 * again. Called when the whole index changes, or moves to snapshots or segments.
+	 */
+	private void dropViews()
+	{
+		synchronized(viewLock)
+		{
+			docOrderedIndex = null;
+			termDictionary = null;
+			viewChanges.clear();
+		}
+	}
+	
+	/**
+	 * Records the keywords of a document in documentKeywords.
+	 * 
+	 * @param kws Keywords hash table for a document
+	 */
+	private void trackDocument(HashMap<String,Occurrence> kws)
+	{
+		if(kws.isEmpty())
+			return;
+		String doc = kws.values().iterator().next().document;
+		documentKeywords.put(doc, kws.keySet().toArray(new String[kws.size()]));
+		if(positionalIndex != null)
+			positionalIndex.commit(doc);
+	}
+	
+	/**
+	 * Adds a document to the index, without rebuilding it. If the document is already indexed,
+	 * it is re-indexed as in updateDocument.
+	 * 
+	 * @param docFile Name of the document file
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 */
+	public void addDocument(String docFile) 
+	throws FileNotFoundException 
+	{
+		long start = System.nanoTime();
+		HashMap<String,Occurrence> kws = loadKeyWords(docFile);
+		removeDocument(docFile);
+		mergeKeyWords(kws);
+		indexed(start, false);
+	}
+	
+	/**
+	 * Re-indexes a document whose contents have changed: its old occurrences are removed, and
+	 * the document is scanned and merged again.
+	 * 
+	 * @param docFile Name of the document file
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 */
+	public void updateDocument(String docFile) 
+	throws FileNotFoundException 
+	{
+		addDocument(docFile);
+	}
+	
+	/**
+	 * Removes every occurrence of a document from the index. Occurrence lists stay in descending
+	 * order of frequency, and keywords left without occurrences are removed from the index.
+	 * 
+	 * @param docFile Name of the document file
+	 * @return True if the document was in the index, false otherwise
+	 */
+	public boolean removeDocument(String docFile)
+	{
+		String[] kws = documentKeywords.remove(docFile);
+		if(positionalIndex != null)
+			positionalIndex.remove(docFile);
+		if(segmentedIndex != null)
+		{
+			// the removal becomes visible with the next flush
+			Set<String> flushed = segmentedIndex.remove(docFile, kws);
+			if(flushed == null)
+				return false;
+			invalidate(flushed);
+			return true;
+		}
+		if(kws == null && !allDocumentsTracked && indexFile.hasDocument(docFile))
+		{
+			// the document came with the index file, which must be decoded to find its keywords
+			loadAllOccurrences();
+			kws = documentKeywords.remove(docFile);
+		}
+		if(kws == null)
+			return false;
+		
+		boolean found;
+		if(compactIndex != null)
+			found = compactIndex.remove(docFile, kws);
+		else
+			found = removeFromLists(docFile, kws);
+		if(found && snapshot != null)
+			changed(Arrays.asList(kws));
+		else if(found)
+			invalidate(Arrays.asList(kws));
+		return found;
+	}
+	
+	/**
+	 * Removes a document from the occurrence lists of the given keywords in keywordsIndex.
+	 * 
+	 * @param docFile Name of the document file
+	 * @param kws Keywords of the document
+	 * @return True if the document was found
+	 */
+	private boolean removeFromLists(String docFile, String[] kws)
+	{
+		boolean found = false;
+		for(String kw : kws)
+		{
+			ArrayList<Occurrence> occs = ownOccurrences(kw);
+			if(occs == null)
+				continue;
+			for(int i = 0; i < occs.size(); i++)
+			{
+				if(occs.get(i).document.equals(docFile))
+				{
+					occs.remove(i);
+					found = true;
+					break;
+				}
+			}
+			if(occs.isEmpty())
+				keywordsIndex.remove(kw);
+		}
+		return found;
+	}
+	
+	/**
+	 * Returns the occurrence list of a keyword. If an index file has been loaded and the keyword
+	 * is not in keywordsIndex, its list is decoded from the file once and kept in decodedLists, so
+	 * any number of searches can call this at the same time. In the compact layout, a new list is
+	 * built from the keyword's posting arrays, and in the segmented layout from the keyword's
+	 * occurrences in all segments.
+	 * 
+	 * @param kw Keyword
+	 * @return Occurrences of the keyword in descending order of frequency, null if the keyword is not indexed
+	 */
+	ArrayList<Occurrence> getOccurrences(String kw)
+	{
+		if(segmentedIndex != null)
+			return segmentedIndex.occurrences(kw);
+		if(compactIndex != null)
+			return compactIndex.occurrences(kw);
+		ArrayList<Occurrence> occs = keywordsIndex.get(kw);
+		IndexFile file = indexFile;
+		if(occs == null && file != null)
+		{
+			occs = decodedLists.get(kw);
+			if(occs == null)
+			{
+				occs = file.postings(kw);
+				if(occs != null)
+				{
+					ArrayList<Occurrence> other = decodedLists.putIfAbsent(kw, occs);
+					if(other != null)
+						occs = other;
+				}
+			}
+		}
+		return occs;
+	}
+	
+	/**
+	 * Returns the occurrence list of a keyword in keywordsIndex for the writer to change, first
+	 * moving it there from decodedLists or the index file if it is not there yet.
+	 * 
+	 * @param kw Keyword
+	 * @return Occurrences of the keyword in descending order of frequency, null if the keyword is not indexed
+	 */
+	private ArrayList<Occurrence> ownOccurrences(String kw)
+	{
+		ArrayList<Occurrence> occs = keywordsIndex.get(kw);
+		if(occs == null && indexFile != null)
+		{
+			occs = decodedLists.remove(kw);
+			if(occs == null)
+				occs = indexFile.postings(kw);
+			if(occs != null)
+				keywordsIndex.put(kw, occs);
+		}
+		return occs;
+	}
+	
+	/**
+	 * Returns a read-only view of the occurrence list of a keyword, for searching. Unlike
+	 * getOccurrences, the compact layout does not copy the whole list: Occurrence objects are
+	 * only made for the entries that are read. The segmented layout merges a keyword's segments
+	 * once per published version.
+	 * 
+	 * @param kw Keyword
+	 * @return Occurrences of the keyword in descending order of frequency, null if the keyword is not indexed
+	 */
+	List<Occurrence> postingList(String kw)
+	{
+		if(segmentedIndex != null)
+			return segmentedIndex.postings(kw);
+		if(compactIndex != null)
+			return compactIndex.view(kw);
+		return getOccurrences(kw);
+	}
+	
+	/**
+	 * Returns every indexed keyword, in the current layout.
+	 * 
+	 * @return Set of keywords
+	 */
+	Set<String> allKeywords()
+	{
+		if(segmentedIndex != null)
+			return segmentedIndex.keywords();
+		if(compactIndex != null)
+			return compactIndex.keywords();
+		loadAllOccurrences();
+		return keywordsIndex.keySet();
+	}
+	
+	/**
+	 * Returns the document ordered view of the index as searches see it. With snapshots or
+	 * segments this is the view the writer made with the latest snapshot or state. Otherwise the
+	 * first search builds it, and later ones bring it up to date with the keywords changed since;
+	 * neither changes the index, so any number of searches can call this at the same time.
+	 * 
+	 * @return Up to date view
+	 */
+	DocOrderedIndex docOrderedIndex()
+	{
+		IndexSnapshot snap = snapshot;
+		if(snap != null)
+			return snap.docOrderedIndex;
+		if(segmentedIndex != null)
+			return segmentedIndex.docOrderedIndex();
+		synchronized(viewLock)
+		{
+			updateViews();
+			if(docOrderedIndex == null)
+				docOrderedIndex = new DocOrderedIndex(currentLists(searchableKeywords()));
+			return docOrderedIndex;
+		}
+	}
+	
+	/**
+	 * Returns the sorted keyword dictionary as searches see it, kept like docOrderedIndex().
+	 * 
+	 * @return Up to date dictionary
+	 */
+	TermDictionary termDictionary()
+	{
+		IndexSnapshot snap = snapshot;
+		if(snap != null)
+			return snap.termDictionary;
+		if(segmentedIndex != null)
+			return segmentedIndex.termDictionary();
+		synchronized(viewLock)
+		{
+			updateViews();
+			if(termDictionary == null)
+				termDictionary = new TermDictionary(searchableKeywords());
+			return termDictionary;
+		}
+	}
+	
+	/**
+	 * Brings the views that have been built up to date with the keywords changed since. Called with
+	 * viewLock held.
+	 */
+	private void updateViews()
+	{
+		if(viewChanges.isEmpty())
+			return;
+		HashMap<String,List<Occurrence>> lists = currentLists(viewChanges);
+		if(docOrderedIndex != null)
+			docOrderedIndex = docOrderedIndex.update(lists);
+		if(termDictionary != null)
+			termDictionary = termDictionary.update(lists);
+		viewChanges.clear();
+	}
+	
+	/**
+	 * Returns every indexed keyword in the occurrence list or compact layout, without moving
+	 * anything out of the index file.
+	 * 
+	 * @return Set of keywords
+	 */
+	private Set<String> searchableKeywords()
+	{
+		if(compactIndex != null)
+			return compactIndex.keywords();
+		HashSet<String> kws = new HashSet<String>(keywordsIndex.keySet());
+		IndexFile file = indexFile;
+		if(file != null)
+		{
+			for(int i = 0; i < file.size(); i++)
+				kws.add(file.term(i));
+		}
+		return kws;
+	}
+	
+	/**
+	 * Returns the current occurrence lists of keywords, for searches.
+	 * 
+	 * @param kws Keywords
+	 * @return Occurrence list of each keyword, null for keywords that are not indexed
+	 */
+	private HashMap<String,List<Occurrence>> currentLists(Collection<String> kws)
+	{
+		HashMap<String,List<Occurrence>> lists = new HashMap<String,List<Occurrence>>(kws.size() * 2);
+		for(String kw : kws)
+			lists.put(kw, postingList(kw));
+		return lists;
+	}
+	
+	/**
+	 * Moves every occurrence list still in the index file into keywordsIndex, and records the
+	 * keywords of every document in documentKeywords.
+	 */
+	private void loadAllOccurrences()
+	{
+		if(indexFile == null)
+			return;
+		for(int i = 0; i < indexFile.size(); i++)
+		{
+			String kw = indexFile.term(i);
+			if(!keywordsIndex.containsKey(kw))
+			{
+				ArrayList<Occurrence> occs = decodedLists.get(kw);
+				keywordsIndex.put(kw, occs != null ? occs : indexFile.decodePostings(i));
+			}
+		}
+		indexFile = null;
+		decodedLists.clear();
+		
+		HashMap<String,ArrayList<String>> docs = new HashMap<String,ArrayList<String>>();
+		for(Map.Entry<String,ArrayList<Occurrence>> e : keywordsIndex.entrySet())
+		{
+			for(Occurrence occ : e.getValue())
+			{
+				ArrayList<String> kws = docs.get(occ.document);
+				if(kws == null)
+				{
+					kws = new ArrayList<String>();
+					docs.put(occ.document, kws);
+				}
+				kws.add(e.getKey());
+			}
+		}
+		documentKeywords.clear();
+		for(Map.Entry<String,ArrayList<String>> e : docs.entrySet())
+			documentKeywords.put(e.getKey(), e.getValue().toArray(new String[e.getValue().size()]));
+		allDocumentsTracked = true;
+	}
+	
+	/**
+	 * Writes the keywords index and noise words to a binary index file, which can be loaded
+	 * with loadIndex instead of running makeIndex again.
+	 * 
+	 * @param indexFileName Name of the index file to write
+	 * @throws IOException If the file cannot be written
+	 */
+	public void saveIndex(String indexFileName) 
+	throws IOException 
+	{
+		loadAllOccurrences();
+		if(segmentedIndex != null)
+		{
+			invalidate(segmentedIndex.flush());
+			HashMap<String,ArrayList<Occurrence>> index = new HashMap<String,ArrayList<Occurrence>>();
+			for(String kw : segmentedIndex.keywords())
+			{
+				ArrayList<Occurrence> occs = segmentedIndex.occurrences(kw);
+				if(occs != null)
+					index.put(kw, occs);
+			}
+			IndexFile.write(indexFileName, index, noiseWords.keySet());
+		}
+		else if(compactIndex != null)
+			IndexFile.write(indexFileName, compactIndex.toOccurrenceLists(), noiseWords.keySet());
+		else
+			IndexFile.write(indexFileName, keywordsIndex, noiseWords.keySet());
+	}
+	
+	/**
+	 * Turns on concurrent reads. From then on topK and top5search run against an immutable snapshot
+	 * of the index that is published through a volatile reference, so any number of threads can
+	 * search without locks while one writer thread keeps calling mergeKeyWords, addDocument,
+	 * removeDocument or makeIndex. Snapshots share unchanged occurrence lists (copy-on-write), and a
+	 * new one is published after every refreshEvery document changes, or by calling refresh.
+	 * 
+	 * @param refreshEvery Number of document changes after which a new snapshot is published
+	 * @return The first snapshot
+	 */
+	public IndexSnapshot enableConcurrentReads(int refreshEvery)
+	{
+		if(segmentedIndex != null)
+			throw new IllegalStateException("Segmented index already serves concurrent reads");
+		if(refreshEvery < 1)
+			throw new IllegalArgumentException("refreshEvery must be at least 1: " + refreshEvery);
+		this.refreshEvery = refreshEvery;
+		unpublished = new HashSet<String>();
+		loadAllOccurrences();
+		publishAll();
+		// snapshots carry their own views
+		dropViews();
+		return snapshot;
+	}
+	
+	/**
+	 * Returns the latest published snapshot. A reader can hold on to a snapshot to run several
+	 * searches against the same version of the index.
+	 * 
+	 * @return Latest snapshot, null if concurrent reads are off
+	 */
+	public IndexSnapshot snapshot()
+	{
+		return snapshot;
+	}
+	
+	/**
+	 * Publishes a snapshot with every change made so far, or in the segmented layout flushes the
+	 * write buffer into a new segment. Must be called from the writer thread.
+	 */
+	public void refresh()
+	{
+		if(segmentedIndex != null)
+		{
+			invalidate(segmentedIndex.flush());
+			return;
+		}
+		IndexSnapshot snap = snapshot;
+		if(snap == null || unpublished.isEmpty())
+			return;
+		HashMap<String,Occurrence[]> changedLists = new HashMap<String,Occurrence[]>(unpublished.size() * 2);
+		for(String kw : unpublished)
+			changedLists.put(kw, occurrenceArray(kw));
+		unpublished.clear();
+		pendingChanges = 0;
+		snapshot = snap.update(changedLists);
+		invalidate(changedLists.keySet());
+	}
+	
+	/**
+	 * Records that the occurrence lists of some keywords changed with one document, and
+	 * publishes a snapshot if enough documents have changed.
+	 * 
+	 * @param kws Changed keywords
+	 */
+	private void changed(Collection<String> kws)
+	{
+		unpublished.addAll(kws);
+		if(++pendingChanges >= refreshEvery)
+			refresh();
+	}
+	
+	/**
+	 * Publishes a snapshot of the whole index.
+	 */
+	private void publishAll()
+	{
+		Set<String> all = compactIndex != null ? compactIndex.keywords() : keywordsIndex.keySet();
+		HashMap<String,Occurrence[]> lists = new HashMap<String,Occurrence[]>(all.size() * 2);
+		for(String kw : all)
+			lists.put(kw, occurrenceArray(kw));
+		IndexSnapshot old = snapshot;
+		unpublished.clear();
+		pendingChanges = 0;
+		snapshot = new IndexSnapshot(lists, old == null ? 1 : old.version + 1);
+		if(queryCache != null)
+			queryCache.clear();
+	}
+	
+	/**
+	 * Copies the current occurrence list of a keyword for a snapshot.
+	 * 
+	 * @param kw Keyword
+	 * @return Occurrences in descending order of frequency, empty if the keyword is no longer indexed
+	 */
+	private Occurrence[] occurrenceArray(String kw)
+	{
+		ArrayList<Occurrence> occs = getOccurrences(kw);
+		if(occs == null)
+			return IndexSnapshot.NONE;
+		return occs.toArray(new Occurrence[occs.size()]);
+	}
+	
+	/**
+	 * Switches the index to the compact layout: document names are interned into int ids, and the
+	 * occurrences of each keyword are kept in two int arrays instead of a list of Occurrence objects.
+	 * keywordsIndex is emptied, and from then on merging, removing and searching all work on the
+	 * compact index.
+	 */
+	public void compact()
+	{
+		if(segmentedIndex != null)
+			throw new IllegalStateException("Index is segmented");
+		if(compactIndex != null)
+			return;
+		loadAllOccurrences();
+		compactIndex = CompactIndex.from(keywordsIndex);
+		keywordsIndex.clear();
+	}
+	
+	/**
+	 * Puts a bounded result cache in front of topK and top5search, with least recently used
+	 * eviction. A cached result is dropped as soon as a change to one of its keywords becomes
+	 * visible to searches: when a document is merged or removed, or, with snapshots or segments,
+	 * when the change is published.
+	 * 
+	 * @param maxEntries Maximum number of cached queries
+	 * @return The cache, for its hit, miss and eviction counts
+	 */
+	public QueryCache enableQueryCache(int maxEntries)
+	{
+		queryCache = new QueryCache(maxEntries);
+		return queryCache;
+	}
+	
+	/**
+	 * Returns the result cache.
+	 * 
+	 * @return The cache, null if caching is off
+	 */
+	public QueryCache getQueryCache()
+	{
+		return queryCache;
+	}
+	
+	/**
+	 * Turns on recording of keyword positions, for phraseSearch and proximitySearch. Positions are
+	 * recorded for documents indexed from now on, and are not saved by saveIndex.
+	 */
+	public void enablePositions()
+	{
+		if(positionalIndex == null)
+			positionalIndex = new PositionalIndex();
+	}
+	
+	/**
+	 * Turns on indexing and search metrics: documents and tokens per second, time spent scanning
+	 * versus merging, occurrence list lengths and search latency percentiles. While metrics are off,
+	 * indexing and searches only pay for a null check. The metrics can be published over JMX with
+	 * SearchMetrics.registerMBean.
+	 * 
+	 * @return The metrics
+	 */
+	public SearchMetrics enableMetrics()
+	{
+		if(metrics == null)
+			metrics = new SearchMetrics();
+		return metrics;
+	}
+	
+	/**
+	 * Returns the metrics.
+	 * 
+	 * @return The metrics, null if they are off
+	 */
+	public SearchMetrics getMetrics()
+	{
+		return metrics;
+	}
+	
+	/**
+	 * Turns on streaming ingest, for documents too large to scan in one piece, such as multi-GB logs.
+	 * Documents are always read in fixed-size chunks (64 KB reads, or 64 MB memory-mapped windows
+	 * that are not on the heap); with streaming on, the words and positions buffered for the document
+	 * being scanned are also kept under the given budget. When the buffer passes it, its partial
+	 * counts and positions are written to a temporary file, sorted on the words, and the buffer is
+	 * emptied. After the last chunk the files are merged into the exact totals, and the document
+	 * only becomes searchable once it has been scanned to the end. The budget bounds the memory
+	 * used while scanning; the keyword table and positions of the document that are merged into
+	 * the index still hold every distinct keyword and every position.
+	 * 
+	 * @param maxBufferedBytes Heap budget for buffered words and positions, per indexing thread; 0
+	 *        turns streaming off
+	 */
+	public void enableStreaming(long maxBufferedBytes)
+	{
+		if(maxBufferedBytes < 0)
+			throw new IllegalArgumentException("Buffer budget must not be negative: " + maxBufferedBytes);
+		streamingBytes = maxBufferedBytes;
+	}
 	
 	/**
-	 * This is a hash table of all keywords. The key is the actual keyword, and the associated value is
-	 * an array list of all occurrences of the keyword in documents. The array list is maintained in descending
-	 * order of occurrence frequencies.
+	 * Switches the index to the segmented layout. New documents are collected in a write buffer and
+	 * flushed every flushDocs documents into a small immutable segment, with each keyword's
+	 * occurrences sorted once rather than inserted one by one. A background thread merges runs of
+	 * mergeFactor neighboring segments of the same size level into larger ones. Searches run across
+	 * all published segments without locks, so they can run while one thread keeps indexing.
+	 * Removed documents are buffered too: added and removed documents become visible to searches
+	 * together, when the buffer is flushed every flushDocs document changes, or on refresh. The
+	 * current contents of keywordsIndex become the first segment.
+	 * 
+	 * @param flushDocs Number of buffered document changes per flush
+	 * @param mergeFactor Number of same-sized segments merged at a time
 	 */
-	HashMap<String,ArrayList<Occurrence>> keywordsIndex;
+	public void useSegments(int flushDocs, int mergeFactor)
+	{
+		if(compactIndex != null || snapshot != null)
+			throw new IllegalStateException("Segments cannot be combined with the compact layout or snapshots");
+		if(segmentedIndex != null)
+			return;
+		loadAllOccurrences();
+		SegmentedIndex si = new SegmentedIndex(flushDocs, mergeFactor);
+		si.load(keywordsIndex);
+		keywordsIndex.clear();
+		segmentedIndex = si;
+		// segmented states carry their own views
+		dropViews();
+	}
 	
 	/**
-	 * The hash table of all noise words - mapping is from word to itself.
+	 * Stops the background segment merge thread of the segmented layout, if there is one. Searches
+	 * and indexing keep working, but segments are no longer merged.
 	 */
-	HashMap<String,String> noiseWords;
+	public void close()
+	{
+		if(segmentedIndex != null)
+			segmentedIndex.close();
+	}
 	
 	/**
-	 * Creates the keyWordsIndex and noiseWords hash tables.
+	 * Compresses the index: switches to the compact layout if needed, then bit-packs every posting
+	 * list in blocks with skip data (see CompressedPostings). Searches decode only the blocks they
+	 * read. A keyword merged into or removed from afterwards is decompressed, so compress is best
+	 * called again after a batch of changes.
 	 */
-	public LittleSearchEngine() 
+	public void compress()
 	{
-		keywordsIndex = new HashMap<String,ArrayList<Occurrence>>(1000,2.0f);
-		noiseWords = new HashMap<String,String>(100,2.0f);
+		compact();
+		compactIndex.compress();
 	}
 	
 	/**
-	 * This method indexes all keywords found in all the input documents. When this
-	 * method is done, the keywordsIndex hash table will be filled with all keywords,
-	 * each of which is associated with an array list of Occurrence objects, arranged
-	 * in decreasing frequencies of occurrence.
+	 * Estimates the heap used by the index in its current layout, assuming compressed references.
+	 * Keyword and document name Strings are not counted, since both layouts share them.
 	 * 
-	 * @param docsFile Name of file that has a list of all the document file names, one name per line
-	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
-	 * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+	 * @return Estimated bytes
 	 */
-	public void makeIndex(String docsFile, String noiseWordsFile) 
-	throws FileNotFoundException 
+	public long estimateIndexBytes()
 	{
-		// load noise words to hash table
-		Scanner sc = new Scanner(new File(noiseWordsFile));
-		while (sc.hasNext()) 
-		{
-			String word = sc.next();
-			noiseWords.put(word,word);
-		}
-		
-		// index all keywords
-		sc = new Scanner(new File(docsFile));
-		while (sc.hasNext()) 
-		{
-			String docFile = sc.next();
-			HashMap<String,Occurrence> kws = loadKeyWords(docFile);
-			mergeKeyWords(kws);
-		}
-		
+		if(segmentedIndex != null)
+			return segmentedIndex.heapBytes();
+		if(compactIndex != null)
+			return compactIndex.heapBytes();
+		return CompactIndex.heapBytes(keywordsIndex);
 	}
-
+	
 	/**
-	 * Scans a document, and loads all keywords found into a hash table of keyword occurrences
-	 * in the document. Uses the getKeyWord method to separate keywords from other words.
+	 * Replaces the keywords index and noise words with those in an index file written by saveIndex.
+	 * The file is memory-mapped, and the occurrence list of a keyword is only decoded the first
+	 * time the keyword is searched for or merged into, so searches can start right away. The index
+	 * is loaded in the occurrence list layout.
 	 * 
-	 * @param docFile Name of the document file to be scanned and loaded
-	 * @return Hash table of keywords in the given document, each associated with an Occurrence object
-	 * @throws FileNotFoundException If the document file is not found on disk
+	 * @param indexFileName Name of the index file to load
+	 * @throws IOException If the file cannot be read, or is not an index file
 	 */
-	public HashMap<String,Occurrence> loadKeyWords(String docFile) 
-	throws FileNotFoundException 
+	public void loadIndex(String indexFileName) 
+	throws IOException 
 	{
-		HashMap<String, Occurrence> hm = new HashMap<String, Occurrence>();
-		int freq = 1;
-		
-		Scanner sc = new Scanner(new File(docFile));
-		while(sc.hasNext())
+		IndexFile file = IndexFile.open(indexFileName);
+		if(positionalIndex != null)
+			positionalIndex.clear();
+		keywordsIndex.clear();
+		compactIndex = null;
+		if(segmentedIndex != null)
 		{
-			String word = sc.next();
-			word = getKeyWord(word);
-
-			if(word != null)
-			{
-				if(hm.get(word) != null)
-					hm.get(word).frequency++;
-				else
-				{
-					Occurrence o = new Occurrence(docFile, freq);
-					hm.put(word, o);
-				}
-			}	
+			segmentedIndex.close();
+			segmentedIndex = null;
+		}
+		noiseWords.clear();
+		for(String w : file.noiseWords)
+			noiseWords.put(w, w);
+		noiseSet = new NoiseWordSet(noiseWords.keySet());
+		noiseVersion++;
+		decodedLists.clear();
+		indexFile = file;
+		documentKeywords.clear();
+		allDocumentsTracked = false;
+		if(queryCache != null)
+			queryCache.clear();
+		dropViews();
+		if(snapshot != null)
+		{
+			loadAllOccurrences();
+			publishAll();
 		}
-		return hm;
 	}
 	
 	/**
-	 * Merges the keywords for a single document into the master keywordsIndex
-	 * hash table. For each keyword, its Occurrence in the current document
-	 * must be inserted in the correct place (according to descending order of
-	 * frequency) in the same keyword's Occurrence list in the master hash table. 
-	 * This is done by calling the insertLastOccurrence method.
+	 * Adds one occurrence of a keyword to the given index, keeping the keyword's occurrence
+	 * list in descending order of frequency.
 	 * 
-	 * @param kws Keywords hash table for a document
+	 * @param index Index to merge into
+	 * @param kw Keyword
+	 * @param occ Occurrence of the keyword in a document
 	 */
-	public void mergeKeyWords(HashMap<String,Occurrence> kws) 
+	private void mergeOccurrence(HashMap<String,ArrayList<Occurrence>> index, String kw, Occurrence occ)
 	{
-		for(String s : kws.keySet())
+		ArrayList<Occurrence> occs = index.get(kw);
+		if(occs == null)
 		{
-			
-			if(keywordsIndex.get(s) == null)
-				keywordsIndex.put(s, new ArrayList<Occurrence>());
-			
-			keywordsIndex.get(s).add(kws.get(s));
-			insertLastOccurrence(keywordsIndex.get(s));
-			
+			occs = new ArrayList<Occurrence>();
+			index.put(kw, occs);
 		}
+		occs.add(occ);
+		insertLastOccurrence(occs);
 	}
 	
 	/**
@@ -205,7 +1385,7 @@ public class LittleSearchEngine
 			}
 		}
 		
-		if(noiseWords.get(result) == null && !result.equals(""))
+		if(!noiseSet.contains(result) && !result.equals(""))
 			return result;
 		return null;
 	}
@@ -278,134 +1458,578 @@ public class LittleSearchEngine
 	 */
 	public ArrayList<String> top5search(String kw1, String kw2) 
 	{
-		// COMPLETE THIS METHOD
-		// THE FOLLOWING LINE HAS BEEN ADDED TO MAKE THE METHOD COMPILE
-		ArrayList<String> res = new ArrayList<String>();
-		ArrayList<Occurrence> w1 = new ArrayList<Occurrence>();
-		ArrayList<Occurrence> w2 = new ArrayList<Occurrence>();
-		w1 = keywordsIndex.get(kw1);
-		w2 = keywordsIndex.get(kw2);
-		
-		if(w1 == null && w2 == null)
+		ArrayList<String> res = topK(Arrays.asList(kw1, kw2), 5);
+		if(res.isEmpty())
 			return null;
-		else if(w1 != null && w2 ==null)
+		return res;
+	}
+	
+	/**
+	 * Search result for "kw1 or kw2 or ... or kwN", limited to k documents. The occurrence lists of
+	 * the keywords are merged k ways through a priority queue that holds the next occurrence of each
+	 * keyword, so only as many occurrences are looked at as it takes to find k distinct documents.
+	 * As in top5search, a document appears only once, at the position of its highest frequency, and
+	 * ties in frequency go to the keyword that comes first in the list.
+	 * 
+	 * @param keywords Keywords to search for
+	 * @param k Maximum number of documents in the result
+	 * @return List of NAMES of at most k matching documents, arranged in descending order of
+	 *         frequencies. The list is empty if no document matches.
+	 */
+	public ArrayList<String> topK(List<String> keywords, int k) 
+	{
+		SearchMetrics m = metrics;
+		long start = m == null ? 0 : System.nanoTime();
+		QueryCache cache = queryCache;
+		if(cache == null)
+			return searched(m, start, search(keywords, k));
+		
+		ArrayList<String> res = cache.get(keywords, k);
+		if(res == null)
 		{
-			for(int k = 0; k < w1.size(); k++)
-			{
-				res.add(w1.get(k).document);
-			}
-		}else if(w1 == null && w2 !=null)
+			long generation = cache.generation();
+			res = search(keywords, k);
+			cache.put(keywords, k, res, generation);
+		}
+		return searched(m, start, res);
+	}
+	
+	/**
+	 * Runs many topK searches as one batch, and returns their results in the same order. The
+	 * distinct keywords of all the queries are gathered first, and each keyword's occurrence list is
+	 * fetched (or, in the compact layout, decoded) once for the whole batch, only as far as any
+	 * query could read it. The queries are then merged in parallel on the common fork-join pool,
+	 * sharing the fetched lists. With the query cache on, cached queries are answered from it and
+	 * the rest are cached.
+	 * 
+	 * Like topK, the batch must not run while another thread changes the index, unless concurrent
+	 * reads (snapshots or segments) are on.
+	 * 
+	 * @param queries Keywords of each query
+	 * @param k Maximum number of documents in each result
+	 * @return Result of each query, as topK would return it, in query order
+	 */
+	public ArrayList<ArrayList<String>> batchSearch(List<List<String>> queries, int k)
+	{
+		int n = queries.size();
+		SearchMetrics m = metrics;
+		QueryCache cache = queryCache;
+		long generation = cache == null ? 0 : cache.generation();
+		
+		ArrayList<ArrayList<String>> results = new ArrayList<ArrayList<String>>(Collections.<ArrayList<String>>nCopies(n, null));
+		ArrayList<Integer> pending = new ArrayList<Integer>(n);
+		LinkedHashSet<String> keywords = new LinkedHashSet<String>();
+		int longest = 0;
+		for(int i = 0; i < n; i++)
 		{
-			for(int k = 0; k < w2.size(); k++)
+			List<String> q = queries.get(i);
+			if(cache != null)
 			{
-				res.add(w2.get(k).document);
+				long start = m == null ? 0 : System.nanoTime();
+				ArrayList<String> res = cache.get(q, k);
+				if(res != null)
+				{
+					results.set(i, searched(m, start, res));
+					continue;
+				}
 			}
+			pending.add(i);
+			keywords.addAll(q);
+			longest = Math.max(longest, q.size());
+		}
+		if(pending.isEmpty())
+			return results;
+		
+		// a merge for k documents over q lists reads at most k*q entries of a list, plus one to peek
+		int depth = (int)Math.min(Integer.MAX_VALUE, (long)Math.max(k, 0) * longest + 1);
+		HashMap<String,List<Occurrence>> lists = new HashMap<String,List<Occurrence>>(keywords.size() * 2);
+		IndexSnapshot snap = snapshot;
+		for(String kw : keywords)
+			lists.put(kw, batchList(snap, kw, depth));
+		
+		int[] todo = new int[pending.size()];
+		for(int i = 0; i < todo.length; i++)
+			todo[i] = pending.get(i);
+		ForkJoinPool.commonPool().invoke(new BatchTask(queries, k, lists, todo, 0, todo.length, results, m));
+		
+		if(cache != null)
+		{
+			for(int i : todo)
+				cache.put(queries.get(i), k, results.get(i), generation);
+		}
+		return results;
+	}
+	
+	/**
+	 * Runs many top5search queries as one batch, see batchSearch.
+	 * 
+	 * @param queries Keywords of each query, usually two
+	 * @return Result of each query in query order, null for a query that matches no document
+	 */
+	public ArrayList<ArrayList<String>> batchTop5search(List<List<String>> queries)
+	{
+		ArrayList<ArrayList<String>> results = batchSearch(queries, 5);
+		for(int i = 0; i < results.size(); i++)
+		{
+			if(results.get(i).isEmpty())
+				results.set(i, null);
+		}
+		return results;
+	}
+	
+	/**
+	 * Fetches the leading entries of a keyword's occurrence list for a batch, in the current layout.
+	 * The list returned can be read by many threads at once.
+	 * 
+	 * @param snap Snapshot searched by the batch, null if concurrent reads are off
+	 * @param kw Keyword
+	 * @param depth Number of leading entries any query of the batch can read
+	 * @return Occurrences in descending order of frequency, null if the keyword is not indexed
+	 */
+	private List<Occurrence> batchList(IndexSnapshot snap, String kw, int depth)
+	{
+		if(snap != null)
+			return snap.postingList(kw);
+		if(segmentedIndex != null)
+			return segmentedIndex.occurrences(kw);
+		List<Occurrence> occs = postingList(kw);
+		if(occs == null || compactIndex == null)
+			return occs;
+		// a compact view decodes as it is read, and is meant for one reader: decode it here, once
+		return new ArrayList<Occurrence>(occs.subList(0, Math.min(depth, occs.size())));
+	}
+	
+	/**
+	 * Merges a range of a batch's queries, splitting the range in half until it is small.
+	 */
+	private static class BatchTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		
+		/**
+		 * Ranges of at most this many queries are merged on one thread.
+		 */
+		static final int SPLIT = 16;
+		
+		final List<List<String>> queries;
+		final int k;
+		final HashMap<String,List<Occurrence>> lists;
+		final int[] todo;
+		final int from;
+		final int to;
+		final ArrayList<ArrayList<String>> results;
+		final SearchMetrics metrics;
+		
+		BatchTask(List<List<String>> queries, int k, HashMap<String,List<Occurrence>> lists, int[] todo,
+				int from, int to, ArrayList<ArrayList<String>> results, SearchMetrics metrics)
+		{
+			this.queries = queries;
+			this.k = k;
+			this.lists = lists;
+			this.todo = todo;
+			this.from = from;
+			this.to = to;
+			this.results = results;
+			this.metrics = metrics;
 		}
-		if(w1 != null && w2 !=null)
-			res = searchHelp(res,w1,w2);
-		for(int i = 0; i < res.size(); i++)
+		
+		protected void compute()
 		{
-			String s = res.get(i);
-			if(i + 1 != res.size())
+			if(to - from > SPLIT)
 			{
-				for(int j = i+1; j < res.size(); j++)
-				{
-					String s1 = res.get(j);
-					if(s1 == s)
-						res.remove(j);
-				}
+				int mid = (from + to) >>> 1;
+				invokeAll(new BatchTask(queries, k, lists, todo, from, mid, results, metrics),
+						new BatchTask(queries, k, lists, todo, mid, to, results, metrics));
+				return;
+			}
+			for(int i = from; i < to; i++)
+			{
+				long start = metrics == null ? 0 : System.nanoTime();
+				List<String> q = queries.get(todo[i]);
+				ArrayList<List<Occurrence>> qLists = new ArrayList<List<Occurrence>>(q.size());
+				for(String kw : q)
+					qLists.add(lists.get(kw));
+				// each task writes its own slots, and invoke() publishes them to the caller
+				results.set(todo[i], searched(metrics, start, mergeTopK(qLists, k)));
 			}
 		}
-		return res;
 	}
 	
-	private ArrayList<String> searchHelp(ArrayList<String> res, ArrayList<Occurrence> w1, ArrayList<Occurrence> w2)
+	/**
+	 * Runs a topK search in the current layout, without the cache.
+	 * 
+	 * @param keywords Keywords to search for
+	 * @param k Maximum number of documents in the result
+	 * @return Names of at most k matching documents in descending order of frequencies
+	 */
+	private ArrayList<String> search(List<String> keywords, int k) 
+	{
+		// with concurrent reads on, search one snapshot so all keywords see the same documents
+		IndexSnapshot snap = snapshot;
+		if(snap != null)
+			return snap.topK(keywords, k);
+		if(segmentedIndex != null)
+			return segmentedIndex.topK(keywords, k);
+		
+		ArrayList<List<Occurrence>> lists = new ArrayList<List<Occurrence>>(keywords.size());
+		for(String kw : keywords)
+			lists.add(postingList(kw));
+		return mergeTopK(lists, k);
+	}
+	
+	/**
+	 * Ranked search for "kw1 or kw2 or ... or kwN". Unlike topK, which orders documents on the raw
+	 * frequency of a single keyword, documents are scored on all the keywords they contain, weighted
+	 * by how rare each keyword is, and normalized for document length so long documents do not
+	 * always win. Document lengths, document frequencies and norms are computed once per version of
+	 * the index, and the top k are found with MaxScore pruning.
+	 * 
+	 * @param keywords Keywords to search for
+	 * @param k Maximum number of documents in the result
+	 * @param scoring Scoring function
+	 * @return List of NAMES of at most k matching documents in descending order of score. The list
+	 *         is empty if no document matches.
+	 */
+	public ArrayList<String> rankedSearch(List<String> keywords, int k, Scoring scoring) 
+	{
+		SearchMetrics m = metrics;
+		long start = m == null ? 0 : System.nanoTime();
+		return searched(m, start, docOrderedIndex().topK(keywords, k, scoring == Scoring.TF_IDF));
+	}
+	
+	/**
+	 * Ranked search with BM25 scoring, see rankedSearch(keywords,k,scoring).
+	 * 
+	 * @param keywords Keywords to search for
+	 * @param k Maximum number of documents in the result
+	 * @return List of NAMES of at most k matching documents in descending order of score
+	 */
+	public ArrayList<String> rankedSearch(List<String> keywords, int k) 
+	{
+		return rankedSearch(keywords, k, Scoring.BM25);
+	}
+	
+	/**
+	 * Returns the indexed keywords that match a wildcard pattern, in which '*' matches any run of
+	 * characters and '?' any one character, as in "comput*". The keywords are found in a sorted,
+	 * front-coded dictionary of all keywords, so only those starting with the part of the pattern
+	 * before the first wildcard are looked at.
+	 * 
+	 * @param pattern Pattern; it is lower cased like keywords
+	 * @return Matching keywords in sorted order, empty if none
+	 */
+	public ArrayList<String> matchingKeywords(String pattern)
+	{
+		return termDictionary().wildcard(pattern.toLowerCase());
+	}
+	
+	/**
+	 * Wildcard search: top k search over every keyword that matches a pattern (see matchingKeywords).
+	 * All the matching keywords' occurrence lists are merged in a single topK pass. With snapshots or
+	 * segments, the pattern is expanded and searched in the same published version, without the
+	 * query cache.
+	 * 
+	 * @param pattern Pattern, such as "comput*" or "t?ee"
+	 * @param k Maximum number of documents in the result
+	 * @return List of NAMES of at most k documents in descending order of the highest frequency of
+	 *         any matching keyword in them. The list is empty if no document matches.
+	 */
+	public ArrayList<String> wildcardSearch(String pattern, int k)
+	{
+		IndexSnapshot snap = snapshot;
+		if(snap != null || segmentedIndex != null)
+		{
+			SearchMetrics m = metrics;
+			long start = m == null ? 0 : System.nanoTime();
+			ArrayList<String> res = snap != null ? snap.wildcardSearch(pattern, k) : segmentedIndex.wildcardSearch(pattern.toLowerCase(), k);
+			return searched(m, start, res);
+		}
+		ArrayList<String> kws = matchingKeywords(pattern);
+		if(kws.isEmpty())
+			return new ArrayList<String>();
+		return topK(kws, k);
+	}
+	
+	/**
+	 * Boolean search: "all1 and all2 and ... and (any1 or any2 or ...) and not none1 and not none2 ...".
+	 * Runs on the document ordered view of the index (see rankedSearch), intersecting required
+	 * keywords rarest first with galloping, so a query costs about as much as its rarest keyword's
+	 * list. Keywords that are not indexed match no document. With snapshots or segments, the whole
+	 * query runs on the view of the latest published version, read once as in topK.
+	 * 
+	 * @param all Keywords every result must contain; may be empty
+	 * @param any Keywords of which every result must contain at least one; empty for no condition
+	 * @param none Keywords no result may contain; may be empty
+	 * @param k Maximum number of documents in the result
+	 * @return List of NAMES of at most k matching documents, in descending order of the total
+	 *         frequency of the all and any keywords. The list is empty if no document matches, or if
+	 *         both all and any are empty.
+	 */
+	public ArrayList<String> booleanSearch(List<String> all, List<String> any, List<String> none, int k)
+	{
+		SearchMetrics m = metrics;
+		long start = m == null ? 0 : System.nanoTime();
+		return searched(m, start, docOrderedIndex().booleanQuery(all, any, none, k));
+	}
+	
+	/**
+	 * Phrase search: finds the documents where the words of the phrase appear next to each other,
+	 * in order. Words of the phrase are reduced to keywords as in getKeyWord; a noise word or other
+	 * non-keyword inside the phrase matches any single token in its place, and those at either end
+	 * of the phrase are dropped. Candidate documents are those of the keyword with the fewest
+	 * occurrences, and each is checked against the positional index, without reading the document.
+	 * 
+	 * @param phrase Words of the phrase, separated by whitespace
+	 * @param k Maximum number of documents in the result
+	 * @return List of NAMES of at most k documents containing the phrase, in descending order of the
+	 *         number of times they contain it. The list is empty if no document matches.
+	 * @throws IllegalStateException If positions are not being recorded
+	 */
+	public ArrayList<String> phraseSearch(String phrase, int k)
 	{
-		ArrayList<String> res5 = new ArrayList<String>(5);
-		int i = 0;
-		int j = 0;
-		int num = 0;
-		int s1 = w1.size();
-		int s2 = w2.size();
-		while(i != s1 && j != s2)
+		String[] words = phrase.trim().split("\\s+");
+		String[] kws = new String[words.length];
+		int first = -1;
+		int last = -1;
+		for(int i = 0; i < words.length; i++)
 		{
-			int f1 = w1.get(i).frequency;
-			int f2 = w2.get(j).frequency;
-			if(f1 == f2)
+			kws[i] = words[i].isEmpty() ? null : getKeyWord(words[i]);
+			if(kws[i] != null)
 			{
-				String a = w1.get(i).document;
-				String b = w2.get(j).document;
-				if(a == b)
-				{
-					res.add(a);
-					i++;
-					j++;
-				}else
-				{
-					res.add(a);
-					res.add(b);
-					i++;
-					j++;
-				}
-			}else if(f1 > f2)
+				if(first == -1)
+					first = i;
+				last = i;
+			}
+		}
+		kws = Arrays.copyOfRange(kws, Math.max(first, 0), last + 1);
+		final String[] terms = kws;
+		return positionalSearch(kws, k, new PositionMatcher()
+		{
+			public int count(PositionalIndex pi, String docFile)
 			{
-				String a = w1.get(i).document;
-				String b = w2.get(j).document;
-				if(a == b)
-				{
-					res.add(a);
-					i++;
-					j++;
-				}else
-				{
-					res.add(a);
-					i++;
-				}
-			}else if(f1 < f2)
+				return pi.countPhrase(docFile, terms);
+			}
+		});
+	}
+	
+	/**
+	 * Proximity search: finds the documents where all the given words appear, in any order, within
+	 * distance tokens of each other. Words are reduced to keywords as in getKeyWord, and words that
+	 * are not keywords are ignored.
+	 * 
+	 * @param words Words to search for, separated by whitespace
+	 * @param distance Largest difference between the positions of the first and last of the words;
+	 *        two words next to each other are 1 apart
+	 * @param k Maximum number of documents in the result
+	 * @return List of NAMES of at most k matching documents, in descending order of the number of
+	 *         places the words appear together. The list is empty if no document matches.
+	 * @throws IllegalStateException If positions are not being recorded
+	 */
+	public ArrayList<String> proximitySearch(String words, int distance, int k)
+	{
+		LinkedHashSet<String> distinct = new LinkedHashSet<String>();
+		for(String w : words.trim().split("\\s+"))
+		{
+			String kw = w.isEmpty() ? null : getKeyWord(w);
+			if(kw != null)
+				distinct.add(kw);
+		}
+		final String[] terms = distinct.toArray(new String[distinct.size()]);
+		final int d = distance;
+		return positionalSearch(terms, k, new PositionMatcher()
+		{
+			public int count(PositionalIndex pi, String docFile)
 			{
-				String a = w1.get(i).document;
-				String b = w2.get(j).document;
-				if(a == b)
-				{
-					res.add(b);
-					i++;
-					j++;
-				}else
-				{
-					res.add(b);
-					j++;
-				}
+				return pi.countNear(docFile, terms, d);
 			}
-			
+		});
+	}
+	
+	/**
+	 * Counts the matches of a positional query in one document.
+	 */
+	private interface PositionMatcher
+	{
+		int count(PositionalIndex pi, String docFile);
+	}
+	
+	/**
+	 * Runs a positional query over the documents of its rarest keyword.
+	 * 
+	 * @param kws Keywords of the query, with nulls for positions that match any token
+	 * @param k Maximum number of documents in the result
+	 * @param matcher Match counter
+	 * @return Names of at most k matching documents, most matches first
+	 */
+	private ArrayList<String> positionalSearch(String[] kws, int k, PositionMatcher matcher)
+	{
+		SearchMetrics m = metrics;
+		long start = m == null ? 0 : System.nanoTime();
+		return searched(m, start, positionalMatches(kws, k, matcher));
+	}
+	
+	/**
+	 * Does the work of positionalSearch.
+	 * 
+	 * @param kws Keywords of the query, with nulls for positions that match any token
+	 * @param k Maximum number of documents in the result
+	 * @param matcher Match counter
+	 * @return Names of at most k matching documents, most matches first
+	 */
+	private ArrayList<String> positionalMatches(String[] kws, int k, PositionMatcher matcher)
+	{
+		PositionalIndex pi = positionalIndex;
+		if(pi == null)
+			throw new IllegalStateException("Positions are not recorded, call enablePositions before indexing");
+		ArrayList<String> res = new ArrayList<String>();
+		List<Occurrence> rarest = null;
+		for(String kw : kws)
+		{
+			if(kw == null)
+				continue;
+			List<Occurrence> occs = postingList(kw);
+			if(occs == null)
+				return res;
+			if(rarest == null || occs.size() < rarest.size())
+				rarest = occs;
 		}
+		if(rarest == null || k <= 0)
+			return res;
 		
-		if(i == s1 && j != s2)
+		ArrayList<Occurrence> matches = new ArrayList<Occurrence>();
+		for(Occurrence o : rarest)
 		{
-			for(int k = j; k < s2; k++)
+			int count = matcher.count(pi, o.document);
+			if(count > 0)
+				matches.add(new Occurrence(o.document, count));
+		}
+		// stable, so documents with as many matches stay in occurrence list order
+		Collections.sort(matches, new Comparator<Occurrence>()
+		{
+			public int compare(Occurrence a, Occurrence b)
 			{
-				String b = w2.get(k).document;
-				if(res.contains(k) == false)
-				{
-					res.add(b);
-				}
+				return b.frequency - a.frequency;
 			}
-		}else if(i != s1 && j == s2)
+		});
+		for(int i = 0; i < matches.size() && i < k; i++)
+			res.add(matches.get(i).document);
+		return res;
+	}
+	
+	/**
+	 * Merges occurrence lists for topK.
+	 * 
+	 * @param lists Occurrence lists in query order, null for a keyword that is not indexed
+	 * @param k Maximum number of documents in the result
+	 * @return Names of at most k documents, in descending order of frequencies
+	 */
+	static ArrayList<String> mergeTopK(List<List<Occurrence>> lists, int k) 
+	{
+		return mergeTopK(lists, null, k);
+	}
+	
+	/**
+	 * Merges occurrence lists for topK, skipping the occurrences of deleted documents as they are
+	 * reached.
+	 * 
+	 * @param lists Occurrence lists in query order, null for a keyword that is not indexed
+	 * @param deleted Deleted documents of each list, null if no list has any
+	 * @param k Maximum number of documents in the result
+	 * @return Names of at most k documents, in descending order of frequencies
+	 */
+	static ArrayList<String> mergeTopK(List<List<Occurrence>> lists, List<Set<String>> deleted, int k) 
+	{
+		ArrayList<String> res = new ArrayList<String>(Math.min(Math.max(k, 0), 16));
+		if(k <= 0)
+			return res;
+		
+		PriorityQueue<Cursor> heap = new PriorityQueue<Cursor>(Math.max(lists.size(), 1));
+		for(int i = 0; i < lists.size(); i++)
+		{
+			List<Occurrence> occs = lists.get(i);
+			if(occs == null || occs.isEmpty())
+				continue;
+			Cursor c = new Cursor(occs, i, deleted == null ? null : deleted.get(i));
+			if(c.advance())
+				heap.add(c);
+		}
+		
+		HashSet<String> seen = new HashSet<String>();
+		while(res.size() < k && !heap.isEmpty())
+		{
+			Cursor c = heap.poll();
+			String doc = c.occs.get(c.pos).document;
+			if(seen.add(doc))
+				res.add(doc);
+			if(c.advance())
+				heap.add(c);
+		}
+		return res;
+	}
+	
+	/**
+	 * Position in one keyword's occurrence list during a topK merge. Cursors are ordered on
+	 * descending frequency of the current occurrence, then on the keyword's place in the query.
+	 */
+	private static class Cursor implements Comparable<Cursor> 
+	{
+		/**
+		 * Occurrence list being walked.
+		 */
+		final List<Occurrence> occs;
+		
+		/**
+		 * Place of the keyword in the query.
+		 */
+		final int rank;
+		
+		/**
+		 * Documents whose occurrences are skipped, null if none are.
+		 */
+		final Set<String> deleted;
+		
+		/**
+		 * Index of the current occurrence.
+		 */
+		int pos;
+		
+		/**
+		 * Frequency of the current occurrence.
+		 */
+		int freq;
+		
+		/**
+		 * Creates a cursor before the first occurrence; advance moves it to the first.
+		 */
+		Cursor(List<Occurrence> occs, int rank, Set<String> deleted) 
+		{
+			this.occs = occs;
+			this.rank = rank;
+			this.deleted = deleted;
+			pos = -1;
+		}
+		
+		/**
+		 * Moves to the next occurrence of a document that is not deleted.
+		 * 
+		 * @return False if the list is used up
+		 */
+		boolean advance() 
 		{
-			for(int k = i; k < s1; k++)
+			do
 			{
-				String a = w1.get(k).document;
-				if(res.contains(k) == false)
-				{
-					res.add(a);
-				}
-			}
+				if(++pos == occs.size())
+					return false;
+			} while(deleted != null && deleted.contains(occs.get(pos).document));
+			freq = occs.get(pos).frequency;
+			return true;
 		}
 		
-		while(num < 5 && num != res.size())
+		public int compareTo(Cursor o) 
 		{
-			res5.add(res.get(num));
-			num++;
+			if(freq != o.freq)
+				return freq > o.freq ? -1 : 1;
+			return rank - o.rank;
 		}
-		return res5;
 	}
 }
@@ -0,0 +1,105 @@
+package search;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Microbenchmark of the noise word check: the original HashMap (load factor 2.0, a String made and
+ * hashed for every token) against NoiseWordSet looking up tokens in a char buffer. Tokens are taken
+ * from the given documents the way the tokenizer sees them (lower case, trailing punctuation
+ * removed), so both sides check the same mix of noise words and keywords.
+ *
+ * Usage: java search.NoiseWordBenchmark noiseWordsFile docFile...
+ *
+ */
+class NoiseWordBenchmark
+{
+	/**
+	 * Number of timed rounds over all tokens, after as many warm-up rounds.
+	 */
+	static final int ROUNDS = 20;
+
+	public static void main(String[] args)
+	throws FileNotFoundException
+	{
+		if(args.length < 2)
+		{
+			System.err.println("Usage: java search.NoiseWordBenchmark noiseWordsFile docFile...");
+			return;
+		}
+
+		HashMap<String,String> map = new HashMap<String,String>(100,2.0f);
+		Scanner sc = new Scanner(new File(args[0]));
+		while (sc.hasNext())
+		{
+			String word = sc.next();
+			map.put(word,word);
+		}
+		NoiseWordSet set = new NoiseWordSet(map.keySet());
+
+		// all tokens back to back in one buffer, as the tokenizer holds them
+		StringBuilder sb = new StringBuilder();
+		ArrayList<Integer> ends = new ArrayList<Integer>();
+		for(int i = 1; i < args.length; i++)
+		{
+			sc = new Scanner(new File(args[i]));
+			while (sc.hasNext())
+			{
+				String t = sc.next().toLowerCase();
+				int end = t.length();
+				while(end > 0 && !Character.isLetter(t.charAt(end - 1)))
+					end--;
+				if(end == 0)
+					continue;
+				sb.append(t, 0, end);
+				ends.add(sb.length());
+			}
+		}
+		char[] buf = sb.toString().toCharArray();
+		int[] tokenEnds = new int[ends.size()];
+		for(int i = 0; i < tokenEnds.length; i++)
+			tokenEnds[i] = ends.get(i);
+
+		long mapHits = 0;
+		long setHits = 0;
+		long mapNanos = 0;
+		long setNanos = 0;
+		for(int round = 0; round < 2 * ROUNDS; round++)
+		{
+			long t0 = System.nanoTime();
+			int hits = 0;
+			int start = 0;
+			for(int end : tokenEnds)
+			{
+				if(map.get(new String(buf, start, end - start)) != null)
+					hits++;
+				start = end;
+			}
+			long t1 = System.nanoTime();
+			int setCount = 0;
+			start = 0;
+			for(int end : tokenEnds)
+			{
+				if(set.contains(buf, start, end - start))
+					setCount++;
+				start = end;
+			}
+			long t2 = System.nanoTime();
+			if(hits != setCount)
+				throw new IllegalStateException("HashMap found " + hits + " noise words, NoiseWordSet " + setCount);
+			if(round >= ROUNDS)
+			{
+				mapNanos += t1 - t0;
+				setNanos += t2 - t1;
+				mapHits += hits;
+				setHits += setCount;
+			}
+		}
+
+		long lookups = (long)tokenEnds.length * ROUNDS;
+		System.out.printf("%d noise words, %d tokens, %.1f%% noise%n", set.size(), tokenEnds.length,
+				100.0 * setHits / Math.max(1, lookups));
+		System.out.printf("HashMap<String,String>: %.1f ns/token%n", (double)mapNanos / Math.max(1, lookups));
+		System.out.printf("NoiseWordSet:           %.1f ns/token%n", (double)setNanos / Math.max(1, lookups));
+	}
+}
@@ -0,0 +1,268 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class is an immutable set of noise words with a perfect hash: every word has its own slot,
+ * found with one hash of its characters and one displacement lookup, so a lookup compares
+ * against at most one word and never follows a chain. Lookups work on a char array range, so the
+ * tokenizer can check a token in its own buffer without making a String.
+ *
+ * The table is built with hash and displace: words are hashed into buckets of about two words
+ * each, and buckets are placed largest first, each with the first displacement that moves all
+ * its words to free slots. A bit set of word lengths rejects most keywords before hashing.
+ *
+ */
+class NoiseWordSet
+{
+	/**
+	 * Set with no words.
+	 */
+	static final NoiseWordSet EMPTY = new NoiseWordSet(Collections.<String>emptySet());
+
+	/**
+	 * Largest displacement tried for a bucket before starting over with another seed.
+	 */
+	private static final int MAX_DISPLACEMENT = 1 << 16;
+
+	/**
+	 * Characters of all words, back to back.
+	 */
+	private final char[] chars;
+
+	/**
+	 * Start of the word in each slot in chars, and its length (-1 for an empty slot).
+	 */
+	private final int[] starts;
+	private final int[] lengths;
+
+	/**
+	 * Displacement of each bucket.
+	 */
+	private final int[] displacements;
+
+	private final int slotShift;
+	private final int bucketMask;
+	private final int seed;
+
+	/**
+	 * Bit i set if some word has length i, bit 63 for lengths of 63 and more.
+	 */
+	private final long lengthBits;
+
+	private final int size;
+
+	/**
+	 * Builds the set.
+	 *
+	 * @param words Noise words (duplicates are ignored)
+	 */
+	NoiseWordSet(Collection<String> words)
+	{
+		String[] w = new LinkedHashSet<String>(words).toArray(new String[0]);
+		size = w.length;
+		int slots = Integer.highestOneBit(Math.max(1, size) * 2 - 1) * 2;
+		slotShift = Integer.numberOfLeadingZeros(slots) + 1;
+		int buckets = Integer.highestOneBit(Math.max(1, size / 2));
+		bucketMask = buckets - 1;
+		displacements = new int[buckets];
+		starts = new int[slots];
+		lengths = new int[slots];
+
+		int total = 0;
+		long bits = 0;
+		for(String s : w)
+		{
+			total += s.length();
+			bits |= 1L << Math.min(s.length(), 63);
+		}
+		lengthBits = bits;
+		chars = new char[total];
+
+		int s = 0x811C9DC5;
+		while(!place(w, s))
+			s = mix(s + 1);
+		seed = s;
+
+		int at = 0;
+		for(String word : w)
+		{
+			int slot = slot(word.toCharArray(), 0, word.length());
+			word.getChars(0, word.length(), chars, at);
+			starts[slot] = at;
+			lengths[slot] = word.length();
+			at += word.length();
+		}
+	}
+
+	/**
+	 * Finds a displacement for every bucket with the given seed.
+	 *
+	 * @param w Words
+	 * @param s Seed
+	 * @return True if every bucket was placed, false to try another seed
+	 */
+	private boolean place(String[] w, int s)
+	{
+		int[] hashes = new int[w.length];
+		int[] bucketSize = new int[displacements.length];
+		for(int i = 0; i < w.length; i++)
+		{
+			hashes[i] = hash(w[i].toCharArray(), 0, w[i].length(), s);
+			bucketSize[hashes[i] & bucketMask]++;
+		}
+
+		// words grouped by bucket, largest bucket first
+		Integer[] order = new Integer[w.length];
+		for(int i = 0; i < order.length; i++)
+			order[i] = i;
+		final int[] h = hashes;
+		final int[] bs = bucketSize;
+		Arrays.sort(order, new Comparator<Integer>()
+		{
+			public int compare(Integer a, Integer b)
+			{
+				int ba = h[a] & bucketMask;
+				int bb = h[b] & bucketMask;
+				if(bs[ba] != bs[bb])
+					return bs[bb] - bs[ba];
+				return ba - bb;
+			}
+		});
+
+		Arrays.fill(lengths, -1);
+		Arrays.fill(displacements, 0);
+		boolean[] taken = new boolean[starts.length];
+		int[] tried = new int[8];
+		for(int i = 0; i < order.length; )
+		{
+			int b = hashes[order[i]] & bucketMask;
+			int n = bucketSize[b];
+			if(tried.length < n)
+				tried = new int[n];
+			int d = 0;
+			while(true)
+			{
+				if(d == MAX_DISPLACEMENT)
+					return false;
+				int placed = 0;
+				for(; placed < n; placed++)
+				{
+					int slot = slot(hashes[order[i + placed]], d);
+					if(taken[slot])
+						break;
+					taken[slot] = true;
+					tried[placed] = slot;
+				}
+				if(placed == n)
+					break;
+				for(int j = 0; j < placed; j++)
+					taken[tried[j]] = false;
+				d++;
+			}
+			displacements[b] = d;
+			i += n;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if the word in w[off..off+len-1] is in the set.
+	 *
+	 * @param w Characters
+	 * @param off Start of the word
+	 * @param len Length of the word
+	 * @return True if the word is a noise word
+	 */
+	boolean contains(char[] w, int off, int len)
+	{
+		if((lengthBits & (1L << Math.min(len, 63))) == 0)
+			return false;
+		int slot = slot(w, off, len);
+		if(lengths[slot] != len)
+			return false;
+		int start = starts[slot];
+		for(int i = 0; i < len; i++)
+		{
+			if(chars[start + i] != w[off + i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if the word is in the set.
+	 *
+	 * @param word Word
+	 * @return True if the word is a noise word
+	 */
+	boolean contains(String word)
+	{
+		int len = word.length();
+		if((lengthBits & (1L << Math.min(len, 63))) == 0)
+			return false;
+		int h = seed;
+		for(int i = 0; i < len; i++)
+			h = (h ^ word.charAt(i)) * 0x01000193;
+		h = mix(h);
+		int slot = slot(h, displacements[h & bucketMask]);
+		if(lengths[slot] != len)
+			return false;
+		int start = starts[slot];
+		for(int i = 0; i < len; i++)
+		{
+			if(chars[start + i] != word.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the number of words in the set.
+	 *
+	 * @return Number of words
+	 */
+	int size()
+	{
+		return size;
+	}
+
+	private int slot(char[] w, int off, int len)
+	{
+		int h = hash(w, off, len, seed);
+		return slot(h, displacements[h & bucketMask]);
+	}
+
+	/**
+	 * Slot of a word with hash h in a bucket with displacement d, from the high bits of the product.
+	 */
+	private int slot(int h, int d)
+	{
+		return ((h ^ d * 0x9E3779B9) * 0xC2B2AE35) >>> slotShift;
+	}
+
+	/**
+	 * FNV-1a hash of the characters, mixed so that both the low bits (bucket) and the high bits
+	 * (slot) depend on every character.
+	 */
+	private static int hash(char[] w, int off, int len, int seed)
+	{
+		int h = seed;
+		for(int i = 0; i < len; i++)
+			h = (h ^ w[off + i]) * 0x01000193;
+		return mix(h);
+	}
+
+	/**
+	 * Scrambles the bits of a 32-bit value (the finalizer of MurmurHash3).
+	 */
+	private static int mix(int h)
+	{
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		h *= 0xC2B2AE35;
+		h ^= h >>> 16;
+		return h;
+	}
+}
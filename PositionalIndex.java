@@ -0,0 +1,277 @@
+package search;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class keeps the token positions of every keyword in every document, for phrase and
+ * proximity queries. A position is the number of whitespace separated tokens before the word in
+ * its document, so noise words and other non-keywords still take up a position and a phrase
+ * cannot match across them.
+ *
+ * Positions are kept per document, and for each keyword in the document as a delta-encoded
+ * varint array: the first position, then the gap to each next one. Positions found by
+ * loadKeyWords are pending until the document is merged into the index, so they become visible
+ * together with its occurrences.
+ *
+ */
+class PositionalIndex
+{
+	/**
+	 * Encoded positions of each keyword, for each merged document.
+	 */
+	private final ConcurrentHashMap<String,HashMap<String,byte[]>> documents;
+
+	/**
+	 * Encoded positions of documents loaded but not merged yet.
+	 */
+	private final ConcurrentHashMap<String,HashMap<String,byte[]>> pending;
+
+	PositionalIndex()
+	{
+		documents = new ConcurrentHashMap<String,HashMap<String,byte[]>>();
+		pending = new ConcurrentHashMap<String,HashMap<String,byte[]>>();
+	}
+
+	/**
+	 * Records the positions found by loadKeyWords for a document.
+	 *
+	 * @param docFile Document
+	 * @param positions Encoded positions of each keyword
+	 */
+	void load(String docFile, HashMap<String,byte[]> positions)
+	{
+		pending.put(docFile, positions);
+	}
+
+	/**
+	 * Makes the pending positions of a document visible, when it is merged into the index.
+	 *
+	 * @param docFile Document
+	 */
+	void commit(String docFile)
+	{
+		HashMap<String,byte[]> positions = pending.remove(docFile);
+		if(positions != null)
+			documents.put(docFile, positions);
+	}
+
+	/**
+	 * Drops the positions of a document removed from the index.
+	 *
+	 * @param docFile Document
+	 */
+	void remove(String docFile)
+	{
+		documents.remove(docFile);
+	}
+
+	/**
+	 * Drops all positions.
+	 */
+	void clear()
+	{
+		documents.clear();
+		pending.clear();
+	}
+
+	/**
+	 * Returns the positions of a keyword in a document.
+	 *
+	 * @param docFile Document
+	 * @param kw Keyword
+	 * @return Ascending positions, null if the keyword is not in the document or the document was
+	 *         indexed without positions
+	 */
+	int[] positions(String docFile, String kw)
+	{
+		HashMap<String,byte[]> positions = documents.get(docFile);
+		if(positions == null)
+			return null;
+		byte[] enc = positions.get(kw);
+		return enc == null ? null : decode(enc);
+	}
+
+	/**
+	 * Counts the places where keywords appear at the given offsets from a common start. Offsets are
+	 * ascending, and a null keyword matches any token. The list with the fewest positions drives the
+	 * walk, and the others are searched by galloping, since every candidate start is higher than
+	 * the one before.
+	 *
+	 * @param docFile Document
+	 * @param kws Keywords, null for a position that may hold any token
+	 * @return Number of matches, 0 if the document does not contain all the keywords
+	 */
+	int countPhrase(String docFile, String[] kws)
+	{
+		HashMap<String,byte[]> positions = documents.get(docFile);
+		if(positions == null)
+			return 0;
+		int n = 0;
+		int[][] lists = new int[kws.length][];
+		int[] offsets = new int[kws.length];
+		int rarest = -1;
+		for(int i = 0; i < kws.length; i++)
+		{
+			if(kws[i] == null)
+				continue;
+			byte[] enc = positions.get(kws[i]);
+			if(enc == null)
+				return 0;
+			lists[n] = decode(enc);
+			offsets[n] = i;
+			if(rarest == -1 || lists[n].length < lists[rarest].length)
+				rarest = n;
+			n++;
+		}
+		if(n == 0)
+			return 0;
+
+		int[] cursor = new int[n];
+		int count = 0;
+		next:
+		for(int p : lists[rarest])
+		{
+			int start = p - offsets[rarest];
+			if(start < 0)
+				continue;
+			for(int j = 0; j < n; j++)
+			{
+				if(j == rarest)
+					continue;
+				int[] l = lists[j];
+				int target = start + offsets[j];
+				cursor[j] = DocOrderedIndex.advance(l, cursor[j], l.length, target);
+				if(cursor[j] == l.length)
+					break next;
+				if(l[cursor[j]] != target)
+					continue next;
+			}
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Counts the windows of at most distance + 1 tokens that hold all the keywords, in any order.
+	 * The lists are walked together, always moving the cursor on the lowest position, and a window
+	 * is counted for each lowest position whose keyword's window closes in time.
+	 *
+	 * @param docFile Document
+	 * @param kws Distinct keywords
+	 * @param distance Largest allowed distance between the first and last keyword of a window
+	 * @return Number of windows, 0 if the document does not contain all the keywords
+	 */
+	int countNear(String docFile, String[] kws, int distance)
+	{
+		HashMap<String,byte[]> positions = documents.get(docFile);
+		if(positions == null || kws.length == 0)
+			return 0;
+		int n = kws.length;
+		int[][] lists = new int[n][];
+		for(int i = 0; i < n; i++)
+		{
+			byte[] enc = positions.get(kws[i]);
+			if(enc == null)
+				return 0;
+			lists[i] = decode(enc);
+		}
+
+		int[] cursor = new int[n];
+		int count = 0;
+		while(true)
+		{
+			int low = 0;
+			int high = lists[0][cursor[0]];
+			for(int i = 1; i < n; i++)
+			{
+				int p = lists[i][cursor[i]];
+				if(p < lists[low][cursor[low]])
+					low = i;
+				if(p > high)
+					high = p;
+			}
+			if(high - lists[low][cursor[low]] <= distance)
+				count++;
+			if(++cursor[low] == lists[low].length)
+				return count;
+		}
+	}
+
+	/**
+	 * Estimates the heap used by the positions.
+	 *
+	 * @return Estimated bytes
+	 */
+	long heapBytes()
+	{
+		long bytes = 0;
+		for(HashMap<String,byte[]> positions : documents.values())
+		{
+			bytes += 48 + positions.size() * 32L;
+			for(byte[] enc : positions.values())
+				bytes += (16 + enc.length + 7) / 8 * 8;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Encodes ascending positions as a varint first position followed by varint gaps.
+	 *
+	 * @param positions Positions
+	 * @param n Number of positions to encode
+	 * @return Encoded positions
+	 */
+	static byte[] encode(int[] positions, int n)
+	{
+		byte[] out = new byte[n * 5];
+		int len = 0;
+		int prev = 0;
+		for(int i = 0; i < n; i++)
+		{
+			int v = positions[i] - prev;
+			prev = positions[i];
+			while((v & ~0x7f) != 0)
+			{
+				out[len++] = (byte)((v & 0x7f) | 0x80);
+				v >>>= 7;
+			}
+			out[len++] = (byte)v;
+		}
+		return Arrays.copyOf(out, len);
+	}
+
+	/**
+	 * Decodes positions made by encode.
+	 *
+	 * @param enc Encoded positions
+	 * @return Ascending positions
+	 */
+	static int[] decode(byte[] enc)
+	{
+		int n = 0;
+		for(byte b : enc)
+		{
+			if(b >= 0)
+				n++;
+		}
+		int[] positions = new int[n];
+		int p = 0;
+		int prev = 0;
+		for(int i = 0; i < n; i++)
+		{
+			int v = 0;
+			int shift = 0;
+			byte b;
+			do
+			{
+				b = enc[p++];
+				v |= (b & 0x7f) << shift;
+				shift += 7;
+			} while(b < 0);
+			prev += v;
+			positions[i] = prev;
+		}
+		return positions;
+	}
+}
@@ -0,0 +1,126 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class holds the occurrences of one keyword in two parallel int arrays, document ids and
+ * frequencies, instead of a list of Occurrence objects. Entries are kept in descending order of
+ * frequency, exactly as in an occurrence list of the keywords index.
+ *
+ */
+class Postings
+{
+	/**
+	 * Document ids.
+	 */
+	int[] docs;
+
+	/**
+	 * Frequency of the keyword in the document with the same index in docs.
+	 */
+	int[] freqs;
+
+	/**
+	 * Number of entries in use.
+	 */
+	int size;
+
+	/**
+	 * Creates an empty posting list with room for the given number of entries.
+	 *
+	 * @param capacity Initial capacity
+	 */
+	Postings(int capacity)
+	{
+		docs = new int[Math.max(capacity, 1)];
+		freqs = new int[docs.length];
+	}
+
+	/**
+	 * Appends an entry and moves it to its place in descending order of frequency.
+	 *
+	 * @param doc Document id
+	 * @param freq Frequency
+	 */
+	void add(int doc, int freq)
+	{
+		if(size == docs.length)
+		{
+			docs = Arrays.copyOf(docs, size * 2);
+			freqs = Arrays.copyOf(freqs, size * 2);
+		}
+		docs[size] = doc;
+		freqs[size] = freq;
+		size++;
+		insertLast();
+	}
+
+	/**
+	 * Inserts the last entry at its place among entries 0..size-2, which are in order. Probes the
+	 * same midpoints as LittleSearchEngine.insertLastOccurrence, so entries with equal frequencies
+	 * end up in the same order as in an occurrence list.
+	 */
+	private void insertLast()
+	{
+		if(size <= 1)
+			return;
+		int doc = docs[size-1];
+		int freq = freqs[size-1];
+		int min = 0;
+		int max = size-1;
+		int middle = 0;
+		int pos = -1;
+		while(min <= max)
+		{
+			middle = (min+max)/2;
+			if(freqs[middle] > freq)
+				min = middle+1;
+			else if(freqs[middle] < freq)
+				max = middle-1;
+			else
+			{
+				pos = middle;
+				break;
+			}
+		}
+		if(pos == -1)
+			pos = freq < freqs[middle] ? middle+1 : middle;
+		if(pos >= size-1)
+			return;
+		System.arraycopy(docs, pos, docs, pos+1, size-1-pos);
+		System.arraycopy(freqs, pos, freqs, pos+1, size-1-pos);
+		docs[pos] = doc;
+		freqs[pos] = freq;
+	}
+
+	/**
+	 * Removes the entry of a document, keeping the order of the others.
+	 *
+	 * @param doc Document id
+	 * @return True if the document had an entry
+	 */
+	boolean remove(int doc)
+	{
+		for(int i = 0; i < size; i++)
+		{
+			if(docs[i] == doc)
+			{
+				System.arraycopy(docs, i+1, docs, i, size-1-i);
+				System.arraycopy(freqs, i+1, freqs, i, size-1-i);
+				size--;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Estimates the heap used by this posting list.
+	 *
+	 * @return Estimated bytes
+	 */
+	long heapBytes()
+	{
+		return 24 + 2 * (16 + 4L * docs.length);
+	}
+}
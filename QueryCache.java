@@ -0,0 +1,247 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class is a bounded cache of search results in front of topK and top5search. Entries are
+ * evicted in least recently used order. Every cached query is listed under each of its keywords,
+ * so when the occurrence list of a keyword changes only the queries that use that keyword are
+ * dropped. Hits, misses, evictions and invalidations are counted.
+ *
+ * All methods are synchronized, so the cache can be shared by concurrent searches.
+ *
+ */
+public class QueryCache
+{
+	/**
+	 * A cached query: its keywords in order, and the result limit.
+	 */
+	private static class Key
+	{
+		final List<String> keywords;
+		final int k;
+
+		Key(List<String> keywords, int k)
+		{
+			this.keywords = keywords;
+			this.k = k;
+		}
+
+		public boolean equals(Object o)
+		{
+			if(!(o instanceof Key))
+				return false;
+			Key other = (Key)o;
+			return k == other.k && keywords.equals(other.keywords);
+		}
+
+		public int hashCode()
+		{
+			return 31 * keywords.hashCode() + k;
+		}
+	}
+
+	private final int maxEntries;
+
+	/**
+	 * Cached results, in access order.
+	 */
+	private final LinkedHashMap<Key,ArrayList<String>> entries;
+
+	/**
+	 * Cached queries that use each keyword.
+	 */
+	private final HashMap<String,HashSet<Key>> byKeyword;
+
+	/**
+	 * Incremented on every invalidation, so results computed before it are not cached after it.
+	 */
+	private long generation;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long invalidations;
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param maxEntries Maximum number of cached queries
+	 */
+	QueryCache(int maxEntries)
+	{
+		if(maxEntries < 1)
+			throw new IllegalArgumentException("Cache size must be at least 1: " + maxEntries);
+		this.maxEntries = maxEntries;
+		entries = new LinkedHashMap<Key,ArrayList<String>>(16, 0.75f, true);
+		byKeyword = new HashMap<String,HashSet<Key>>();
+	}
+
+	/**
+	 * Returns the generation to pass to put for a result about to be computed.
+	 *
+	 * @return Current generation
+	 */
+	synchronized long generation()
+	{
+		return generation;
+	}
+
+	/**
+	 * Looks up a query.
+	 *
+	 * @param keywords Keywords of the query
+	 * @param k Result limit
+	 * @return Copy of the cached result, null on a miss
+	 */
+	synchronized ArrayList<String> get(List<String> keywords, int k)
+	{
+		ArrayList<String> res = entries.get(new Key(keywords, k));
+		if(res == null)
+		{
+			misses++;
+			return null;
+		}
+		hits++;
+		return new ArrayList<String>(res);
+	}
+
+	/**
+	 * Caches the result of a query, unless an invalidation happened since the given generation.
+	 *
+	 * @param keywords Keywords of the query
+	 * @param k Result limit
+	 * @param res Result to cache (a copy is kept)
+	 * @param startGeneration Value of generation() before the result was computed
+	 */
+	synchronized void put(List<String> keywords, int k, ArrayList<String> res, long startGeneration)
+	{
+		if(startGeneration != generation)
+			return;
+		Key key = new Key(new ArrayList<String>(keywords), k);
+		if(entries.put(key, new ArrayList<String>(res)) != null)
+			return;
+		for(String kw : key.keywords)
+		{
+			HashSet<Key> keys = byKeyword.get(kw);
+			if(keys == null)
+			{
+				keys = new HashSet<Key>();
+				byKeyword.put(kw, keys);
+			}
+			keys.add(key);
+		}
+		if(entries.size() > maxEntries)
+		{
+			Key eldest = entries.keySet().iterator().next();
+			remove(eldest);
+			evictions++;
+		}
+	}
+
+	/**
+	 * Drops every cached query that uses one of the given keywords.
+	 *
+	 * @param kws Keywords whose occurrence lists changed
+	 */
+	synchronized void invalidate(Collection<String> kws)
+	{
+		generation++;
+		for(String kw : kws)
+		{
+			HashSet<Key> keys = byKeyword.get(kw);
+			if(keys == null)
+				continue;
+			for(Key key : keys.toArray(new Key[keys.size()]))
+			{
+				remove(key);
+				invalidations++;
+			}
+		}
+	}
+
+	/**
+	 * Drops every cached query.
+	 */
+	synchronized void clear()
+	{
+		generation++;
+		invalidations += entries.size();
+		entries.clear();
+		byKeyword.clear();
+	}
+
+	private void remove(Key key)
+	{
+		entries.remove(key);
+		for(String kw : key.keywords)
+		{
+			HashSet<Key> keys = byKeyword.get(kw);
+			if(keys != null)
+			{
+				keys.remove(key);
+				if(keys.isEmpty())
+					byKeyword.remove(kw);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of searches answered from the cache.
+	 *
+	 * @return Hits
+	 */
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+
+	/**
+	 * Returns the number of searches not found in the cache.
+	 *
+	 * @return Misses
+	 */
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+
+	/**
+	 * Returns the number of entries dropped to make room for new ones.
+	 *
+	 * @return Evictions
+	 */
+	public synchronized long getEvictions()
+	{
+		return evictions;
+	}
+
+	/**
+	 * Returns the number of entries dropped because the index changed.
+	 *
+	 * @return Invalidations
+	 */
+	public synchronized long getInvalidations()
+	{
+		return invalidations;
+	}
+
+	/**
+	 * Returns the number of cached queries.
+	 *
+	 * @return Number of entries
+	 */
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public synchronized String toString()
+	{
+		return "QueryCache(" + entries.size() + "/" + maxEntries + " entries, " + hits + " hits, "
+				+ misses + " misses, " + evictions + " evictions, " + invalidations + " invalidations)";
+	}
+}
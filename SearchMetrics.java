@@ -0,0 +1,325 @@
+package search;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * This class collects indexing and search metrics for one engine: documents and tokens scanned,
+ * the time spent scanning documents (tokenizing) and merging their keywords into the index,
+ * the lengths of the occurrence lists, and the latency of every search. Counters are LongAdders
+ * and latencies go into a lock-free histogram, so recording from many threads is cheap; when
+ * metrics are not enabled the engine skips recording altogether.
+ *
+ * The metrics can be read through the getters, or over JMX once registered with registerMBean.
+ * Tokenize and merge times are summed over threads, so with parallel indexing they can exceed
+ * the indexing (wall clock) time.
+ *
+ */
+public class SearchMetrics implements SearchMetricsMBean
+{
+	private final LongAdder documents = new LongAdder();
+	private final LongAdder tokens = new LongAdder();
+	private final LongAdder occurrences = new LongAdder();
+	private final LongAdder indexingNanos = new LongAdder();
+	private final LongAdder tokenizeNanos = new LongAdder();
+	private final LongAdder mergeNanos = new LongAdder();
+	private final LatencyHistogram queryLatency = new LatencyHistogram();
+
+	/**
+	 * Number of occurrence lists with length in [2^i, 2^(i+1)), as of the last makeIndex.
+	 */
+	private volatile long[] postingLengths = new long[0];
+
+	/**
+	 * Name this object is registered under with the platform MBean server, null if it is not.
+	 */
+	private ObjectName registeredName;
+
+	SearchMetrics()
+	{
+	}
+
+	/**
+	 * Records a scanned document.
+	 *
+	 * @param tokenCount Number of tokens in the document
+	 * @param nanos Time spent scanning it
+	 */
+	void scanned(int tokenCount, long nanos)
+	{
+		documents.increment();
+		tokens.add(tokenCount);
+		tokenizeNanos.add(nanos);
+	}
+
+	/**
+	 * Records keywords merged into the index.
+	 *
+	 * @param occurrenceCount Number of occurrences merged
+	 * @param nanos Time spent merging them
+	 */
+	void merged(int occurrenceCount, long nanos)
+	{
+		occurrences.add(occurrenceCount);
+		mergeNanos.add(nanos);
+	}
+
+	/**
+	 * Records the wall clock time of an indexing call.
+	 *
+	 * @param nanos Elapsed time
+	 */
+	void indexed(long nanos)
+	{
+		indexingNanos.add(nanos);
+	}
+
+	/**
+	 * Records the latency of a search.
+	 *
+	 * @param nanos Elapsed time
+	 */
+	void searched(long nanos)
+	{
+		queryLatency.record(nanos);
+	}
+
+	/**
+	 * Replaces the occurrence list length histogram.
+	 *
+	 * @param histogram Number of lists with length in [2^i, 2^(i+1)) at index i
+	 */
+	void postingLengths(long[] histogram)
+	{
+		postingLengths = histogram;
+	}
+
+	/**
+	 * Registers these metrics with the platform MBean server, under
+	 * "search:type=LittleSearchEngine,name=<i>name</i>".
+	 *
+	 * @param name Name that tells this engine apart from others in the same JVM
+	 * @return Name the metrics were registered under
+	 * @throws JMException If the name is malformed or already taken
+	 */
+	public synchronized ObjectName registerMBean(String name)
+	throws JMException
+	{
+		unregisterMBean();
+		ObjectName on = new ObjectName("search:type=LittleSearchEngine,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+		registeredName = on;
+		return on;
+	}
+
+	/**
+	 * Removes these metrics from the platform MBean server, if they are registered.
+	 *
+	 * @throws JMException If the MBean server fails to unregister them
+	 */
+	public synchronized void unregisterMBean()
+	throws JMException
+	{
+		if(registeredName == null)
+			return;
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		if(server.isRegistered(registeredName))
+			server.unregisterMBean(registeredName);
+		registeredName = null;
+	}
+
+	/**
+	 * Returns the number of documents scanned.
+	 *
+	 * @return Number of documents
+	 */
+	public long getDocuments()
+	{
+		return documents.sum();
+	}
+
+	/**
+	 * Returns the number of tokens (whitespace separated words) in the documents scanned.
+	 *
+	 * @return Number of tokens
+	 */
+	public long getTokens()
+	{
+		return tokens.sum();
+	}
+
+	/**
+	 * Returns the number of (keyword,document) occurrences merged into the index.
+	 *
+	 * @return Number of occurrences
+	 */
+	public long getOccurrences()
+	{
+		return occurrences.sum();
+	}
+
+	/**
+	 * Returns the wall clock time spent in makeIndex and addDocument.
+	 *
+	 * @return Milliseconds
+	 */
+	public long getIndexingMillis()
+	{
+		return indexingNanos.sum() / 1000000;
+	}
+
+	/**
+	 * Returns the time spent scanning documents for keywords, over all threads.
+	 *
+	 * @return Milliseconds
+	 */
+	public long getTokenizeMillis()
+	{
+		return tokenizeNanos.sum() / 1000000;
+	}
+
+	/**
+	 * Returns the time spent merging keywords into the index, over all threads.
+	 *
+	 * @return Milliseconds
+	 */
+	public long getMergeMillis()
+	{
+		return mergeNanos.sum() / 1000000;
+	}
+
+	/**
+	 * Returns the indexing throughput, in documents per second of indexing time.
+	 *
+	 * @return Documents per second, 0 if nothing was indexed
+	 */
+	public double getDocsPerSecond()
+	{
+		long nanos = indexingNanos.sum();
+		return nanos == 0 ? 0 : documents.sum() * 1e9 / nanos;
+	}
+
+	/**
+	 * Returns the indexing throughput, in tokens per second of indexing time.
+	 *
+	 * @return Tokens per second, 0 if nothing was indexed
+	 */
+	public double getTokensPerSecond()
+	{
+		long nanos = indexingNanos.sum();
+		return nanos == 0 ? 0 : tokens.sum() * 1e9 / nanos;
+	}
+
+	/**
+	 * Returns the histogram of occurrence list lengths as of the end of the last makeIndex: entry i
+	 * is the number of keywords whose list has between 2^i and 2^(i+1)-1 occurrences.
+	 *
+	 * @return Histogram, empty if no index was made since metrics were enabled
+	 */
+	public long[] getPostingLengthHistogram()
+	{
+		return postingLengths.clone();
+	}
+
+	/**
+	 * Returns the number of searches timed.
+	 *
+	 * @return Number of searches
+	 */
+	public long getQueries()
+	{
+		return queryLatency.count();
+	}
+
+	/**
+	 * Returns the median search latency.
+	 *
+	 * @return Microseconds
+	 */
+	public double getQueryLatencyP50Micros()
+	{
+		return queryLatencyMicros(50);
+	}
+
+	/**
+	 * Returns the 90th percentile search latency.
+	 *
+	 * @return Microseconds
+	 */
+	public double getQueryLatencyP90Micros()
+	{
+		return queryLatencyMicros(90);
+	}
+
+	/**
+	 * Returns the 99th percentile search latency.
+	 *
+	 * @return Microseconds
+	 */
+	public double getQueryLatencyP99Micros()
+	{
+		return queryLatencyMicros(99);
+	}
+
+	/**
+	 * Returns the 99.9th percentile search latency.
+	 *
+	 * @return Microseconds
+	 */
+	public double getQueryLatencyP999Micros()
+	{
+		return queryLatencyMicros(99.9);
+	}
+
+	/**
+	 * Returns the highest search latency.
+	 *
+	 * @return Microseconds
+	 */
+	public double getQueryLatencyMaxMicros()
+	{
+		return queryLatency.max() / 1000.0;
+	}
+
+	/**
+	 * Returns the search latency at a percentile, to within about 3%.
+	 *
+	 * @param percentile Percentile, 0 to 100
+	 * @return Microseconds, 0 if no search was timed
+	 */
+	public double queryLatencyMicros(double percentile)
+	{
+		return queryLatency.percentile(percentile) / 1000.0;
+	}
+
+	/**
+	 * Sets all counters and histograms back to zero.
+	 */
+	public void reset()
+	{
+		documents.reset();
+		tokens.reset();
+		occurrences.reset();
+		indexingNanos.reset();
+		tokenizeNanos.reset();
+		mergeNanos.reset();
+		queryLatency.reset();
+		postingLengths = new long[0];
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString()
+	{
+		return String.format("%d docs, %d tokens, %d occurrences; indexing %d ms (tokenize %d ms, merge %d ms), "
+				+ "%.1f docs/s, %.1f tokens/s; %d queries, p50 %.1f us, p99 %.1f us, max %.1f us",
+				getDocuments(), getTokens(), getOccurrences(), getIndexingMillis(), getTokenizeMillis(),
+				getMergeMillis(), getDocsPerSecond(), getTokensPerSecond(), getQueries(),
+				getQueryLatencyP50Micros(), getQueryLatencyP99Micros(), getQueryLatencyMaxMicros());
+	}
+}
@@ -0,0 +1,42 @@
+package search;
+
+/**
+ * JMX management interface of SearchMetrics. Times are in milliseconds, latencies in microseconds.
+ *
+ */
+public interface SearchMetricsMBean
+{
+	long getDocuments();
+
+	long getTokens();
+
+	long getOccurrences();
+
+	long getIndexingMillis();
+
+	long getTokenizeMillis();
+
+	long getMergeMillis();
+
+	double getDocsPerSecond();
+
+	double getTokensPerSecond();
+
+	long[] getPostingLengthHistogram();
+
+	long getQueries();
+
+	double getQueryLatencyP50Micros();
+
+	double getQueryLatencyP90Micros();
+
+	double getQueryLatencyP99Micros();
+
+	double getQueryLatencyP999Micros();
+
+	double getQueryLatencyMaxMicros();
+
+	double queryLatencyMicros(double percentile);
+
+	void reset();
+}
@@ -0,0 +1,814 @@
+package search;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * This class keeps the keywords index as a list of immutable in-memory segments, oldest first,
+ * in the manner of a log-structured merge tree. New documents are collected in a write buffer,
+ * and every flushDocs document changes the buffer is turned into a small segment, sorting each
+ * keyword's occurrences once instead of inserting them one by one. A background thread merges
+ * runs of mergeFactor neighboring segments of about the same size into one larger segment, so the
+ * number of segments stays logarithmic in the number of documents.
+ *
+ * Removed documents are buffered too, and on flush are marked in the deletion bitmap of the
+ * segments that hold them, skipped by searches, and dropped for good when those segments are
+ * merged. A removal sets one entry of a bitmap, so removing many documents does not copy
+ * anything per removal.
+ *
+ * Searches read the published segment list through a volatile reference and take no locks.
+ * Each state also carries the document ordered view of ranked and Boolean searches and the keyword
+ * dictionary of wildcard searches, brought up to date by whichever thread publishes the state. add, remove and flush must be called from a single
+ * writer thread.
+ *
+ */
+class SegmentedIndex
+{
+	/**
+	 * An immutable group of documents: the occurrence array of every keyword in descending order
+	 * of frequency (ties in document order), and the names of the documents, with a deletion
+	 * bitmap that is the only part ever written after the segment is made.
+	 */
+	static class Segment
+	{
+		final HashMap<String,Occurrence[]> postings;
+
+		/**
+		 * Document names, by id within the segment.
+		 */
+		final String[] docs;
+
+		/**
+		 * Id of each document within the segment.
+		 */
+		final HashMap<String,Integer> ids;
+
+		/**
+		 * Deletion bitmap, holding for each document the version of the state that deleted it, or
+		 * 0 while it is live. An entry is set once, under the publish lock and before the state
+		 * with that version is published, so a state sees exactly the deletions up to its own
+		 * version and is not disturbed by later ones.
+		 */
+		final AtomicIntegerArray deletedAt;
+
+		Segment(HashMap<String,Occurrence[]> postings, Collection<String> docs)
+		{
+			this.postings = postings;
+			this.docs = docs.toArray(new String[docs.size()]);
+			ids = new HashMap<String,Integer>(this.docs.length * 2);
+			for(int i = 0; i < this.docs.length; i++)
+				ids.put(this.docs[i], i);
+			deletedAt = new AtomicIntegerArray(this.docs.length);
+		}
+
+		/**
+		 * Returns true if the document is in this segment and was deleted at or before a version.
+		 */
+		boolean isDeleted(String doc, int version)
+		{
+			Integer id = ids.get(doc);
+			if(id == null)
+				return false;
+			int at = deletedAt.get(id);
+			return at != 0 && at <= version;
+		}
+	}
+
+	/**
+	 * A published version of the index: the live segments, and the number of deleted documents
+	 * in each.
+	 */
+	static class State
+	{
+		final List<Segment> segments;
+		final int[] deletedCount;
+
+		/**
+		 * Version number, higher than that of every state published before.
+		 */
+		final int version;
+
+		/**
+		 * Live occurrences of keywords that are in more than one segment or have deletions,
+		 * merged on first use.
+		 */
+		final ConcurrentHashMap<String,List<Occurrence>> merged = new ConcurrentHashMap<String,List<Occurrence>>();
+
+		/**
+		 * Document ordered view of this state. Set before the state is published, and not changed after.
+		 */
+		DocOrderedIndex docOrderedIndex;
+
+		/**
+		 * Sorted dictionary of the live keywords of this state. Set like docOrderedIndex.
+		 */
+		TermDictionary termDictionary;
+
+		State(List<Segment> segments, int[] deletedCount, int version)
+		{
+			this.segments = segments;
+			this.deletedCount = deletedCount;
+			this.version = version;
+		}
+
+		int liveDocs(int i)
+		{
+			return segments.get(i).docs.length - deletedCount[i];
+		}
+
+		/**
+		 * Returns the documents of segment i deleted as of this state.
+		 *
+		 * @param i Segment index
+		 * @return Read-only set, backed by the segment's deletion bitmap
+		 */
+		Set<String> deleted(int i)
+		{
+			return new Deletions(segments.get(i), version, deletedCount[i]);
+		}
+	}
+
+	/**
+	 * Read-only set of the documents of a segment deleted as of a version.
+	 */
+	private static class Deletions extends AbstractSet<String>
+	{
+		final Segment seg;
+		final int version;
+		final int size;
+
+		Deletions(Segment seg, int version, int size)
+		{
+			this.seg = seg;
+			this.version = version;
+			this.size = size;
+		}
+
+		public boolean contains(Object o)
+		{
+			return o instanceof String && seg.isDeleted((String)o, version);
+		}
+
+		public int size()
+		{
+			return size;
+		}
+
+		public Iterator<String> iterator()
+		{
+			ArrayList<String> docs = new ArrayList<String>(size);
+			for(int i = 0; i < seg.docs.length && docs.size() < size; i++)
+			{
+				int at = seg.deletedAt.get(i);
+				if(at != 0 && at <= version)
+					docs.add(seg.docs[i]);
+			}
+			return Collections.unmodifiableList(docs).iterator();
+		}
+	}
+
+	/**
+	 * Orders occurrences on descending frequency. Used with stable sorts only.
+	 */
+	private static final Comparator<Occurrence> BY_FREQUENCY = new Comparator<Occurrence>()
+	{
+		public int compare(Occurrence a, Occurrence b)
+		{
+			return b.frequency - a.frequency;
+		}
+	};
+
+	private final int flushDocs;
+	private final int mergeFactor;
+
+	/**
+	 * Latest published state.
+	 */
+	private volatile State state;
+
+	/**
+	 * Held while a new state is being published, so flushes and merges do not lose each other's work.
+	 */
+	private final Object publishLock = new Object();
+
+	/**
+	 * Keyword tables of documents not yet flushed into a segment, in document order.
+	 */
+	private final ArrayList<HashMap<String,Occurrence>> buffer;
+
+	/**
+	 * Documents in published segments that are removed with the next flush, with their keywords
+	 * (null if not known).
+	 */
+	private final LinkedHashMap<String,String[]> removals = new LinkedHashMap<String,String[]>();
+
+	/**
+	 * Runs segment merges in the background.
+	 */
+	private final ExecutorService merger;
+
+	/**
+	 * Creates an empty index.
+	 *
+	 * @param flushDocs Number of buffered document changes after which the buffer is flushed
+	 * @param mergeFactor Number of neighboring segments of the same size merged at a time
+	 */
+	SegmentedIndex(int flushDocs, int mergeFactor)
+	{
+		if(flushDocs < 1 || mergeFactor < 2)
+			throw new IllegalArgumentException("Need flushDocs >= 1 and mergeFactor >= 2");
+		this.flushDocs = flushDocs;
+		this.mergeFactor = mergeFactor;
+		state = new State(new ArrayList<Segment>(), new int[0], 0);
+		state.docOrderedIndex = new DocOrderedIndex(Collections.<String,List<Occurrence>>emptyMap());
+		state.termDictionary = new TermDictionary(Collections.<String>emptySet());
+		buffer = new ArrayList<HashMap<String,Occurrence>>(flushDocs);
+		merger = Executors.newSingleThreadExecutor(new ThreadFactory()
+		{
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, "segment-merger");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Adds an existing keywords index as the first segment.
+	 *
+	 * @param index Keywords index
+	 */
+	void load(Map<String,? extends List<Occurrence>> index)
+	{
+		if(index.isEmpty())
+			return;
+		HashMap<String,Occurrence[]> postings = new HashMap<String,Occurrence[]>(index.size() * 2);
+		HashSet<String> docs = new HashSet<String>();
+		for(Map.Entry<String,? extends List<Occurrence>> e : index.entrySet())
+		{
+			Occurrence[] occs = e.getValue().toArray(new Occurrence[e.getValue().size()]);
+			for(Occurrence o : occs)
+				docs.add(o.document);
+			postings.put(e.getKey(), occs);
+		}
+		publish(new Segment(postings, docs));
+	}
+
+	/**
+	 * Adds the keywords of one document to the write buffer, flushing it if it is full.
+	 *
+	 * @param kws Keywords hash table for a document
+	 * @return Keywords made visible to searches by a flush, null if the buffer was not flushed
+	 */
+	Set<String> add(HashMap<String,Occurrence> kws)
+	{
+		if(kws.isEmpty())
+			return null;
+		buffer.add(kws);
+		if(buffer.size() + removals.size() >= flushDocs)
+			return flush();
+		return null;
+	}
+
+	/**
+	 * Publishes the changes in the write buffer: the buffered documents become a new segment, and
+	 * the buffered removals are marked in the deletion bitmaps of the segments, in one new state.
+	 *
+	 * @return Keywords whose occurrences changed, empty if the buffer was empty
+	 */
+	Set<String> flush()
+	{
+		if(buffer.isEmpty() && removals.isEmpty())
+			return Collections.<String>emptySet();
+		Segment seg = null;
+		if(!buffer.isEmpty())
+		{
+			HashMap<String,ArrayList<Occurrence>> lists = new HashMap<String,ArrayList<Occurrence>>();
+			HashSet<String> docs = new HashSet<String>();
+			for(HashMap<String,Occurrence> kws : buffer)
+			{
+				for(Map.Entry<String,Occurrence> e : kws.entrySet())
+				{
+					ArrayList<Occurrence> occs = lists.get(e.getKey());
+					if(occs == null)
+					{
+						occs = new ArrayList<Occurrence>(2);
+						lists.put(e.getKey(), occs);
+					}
+					occs.add(e.getValue());
+					docs.add(e.getValue().document);
+				}
+			}
+			buffer.clear();
+			seg = new Segment(sortAll(lists), docs);
+		}
+		HashSet<String> changed = new HashSet<String>();
+		if(seg != null)
+			changed.addAll(seg.postings.keySet());
+		// after close the segment is still published, but segments are no longer merged
+		boolean merging = seg != null && !merger.isShutdown();
+
+		synchronized(publishLock)
+		{
+			State s = state;
+			int version = s.version + 1;
+			int[] deletedCount = Arrays.copyOf(s.deletedCount, s.segments.size() + (seg == null ? 0 : 1));
+			for(Map.Entry<String,String[]> e : removals.entrySet())
+			{
+				for(int i = 0; i < s.segments.size(); i++)
+				{
+					Segment old = s.segments.get(i);
+					Integer id = old.ids.get(e.getKey());
+					if(id != null && old.deletedAt.get(id) == 0)
+					{
+						if(e.getValue() == null)
+							keywordsOf(old, e.getKey(), changed);
+						// states before this version do not see the entry
+						old.deletedAt.set(id, version);
+						deletedCount[i]++;
+					}
+				}
+				if(e.getValue() != null)
+					changed.addAll(Arrays.asList(e.getValue()));
+			}
+			List<Segment> segments = s.segments;
+			if(seg != null)
+			{
+				ArrayList<Segment> added = new ArrayList<Segment>(s.segments);
+				added.add(seg);
+				segments = Collections.unmodifiableList(added);
+			}
+			State next = new State(segments, deletedCount, version);
+			updateViews(s, next, changed);
+			state = next;
+		}
+		removals.clear();
+
+		if(merging)
+		{
+			merger.execute(new Runnable()
+			{
+				public void run()
+				{
+					mergeSegments();
+				}
+			});
+		}
+		return changed;
+	}
+
+	/**
+	 * Removes a document from the index. A document still in the write buffer is dropped from it
+	 * right away; one in a segment is buffered as a removal, which becomes visible to searches with
+	 * the next flush, like an added document. A document that is removed and added again is
+	 * therefore replaced in a single step.
+	 *
+	 * @param doc Document name
+	 * @param kws Keywords of the document, null if they are not known
+	 * @return Keywords made visible to searches by a flush, empty if the buffer was not flushed;
+	 *         null if the document was not in the index
+	 */
+	Set<String> remove(String doc, String[] kws)
+	{
+		boolean found = false;
+		for(Iterator<HashMap<String,Occurrence>> it = buffer.iterator(); it.hasNext(); )
+		{
+			if(it.next().values().iterator().next().document.equals(doc))
+			{
+				it.remove();
+				found = true;
+			}
+		}
+
+		if(!removals.containsKey(doc))
+		{
+			State s = state;
+			for(int i = 0; i < s.segments.size(); i++)
+			{
+				Segment seg = s.segments.get(i);
+				Integer id = seg.ids.get(doc);
+				if(id != null && seg.deletedAt.get(id) == 0)
+				{
+					removals.put(doc, kws);
+					found = true;
+					break;
+				}
+			}
+		}
+		if(!found)
+			return null;
+		if(buffer.size() + removals.size() >= flushDocs)
+			return flush();
+		return Collections.<String>emptySet();
+	}
+
+	/**
+	 * Adds the keywords that have an occurrence of a document in a segment to a set, by scanning
+	 * the segment. Used for removed documents whose keywords were not given.
+	 */
+	private static void keywordsOf(Segment seg, String doc, Set<String> kws)
+	{
+		for(Map.Entry<String,Occurrence[]> e : seg.postings.entrySet())
+		{
+			for(Occurrence o : e.getValue())
+			{
+				if(o.document.equals(doc))
+				{
+					kws.add(e.getKey());
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Searches the published segments, like LittleSearchEngine.topK. Each segment's occurrences of
+	 * a keyword are merged as a separate list, ordered after the keyword's place in the query and
+	 * then on segment age, so ties still go to the earlier keyword.
+	 *
+	 * @param keywords Keywords to search for
+	 * @param k Maximum number of documents in the result
+	 * @return Names of at most k matching documents in descending order of frequencies
+	 */
+	ArrayList<String> topK(List<String> keywords, int k)
+	{
+		return topK(state, keywords, k);
+	}
+
+	/**
+	 * Wildcard search on the published state: the pattern is expanded with the keywords of the
+	 * state, and they are searched in the same state.
+	 *
+	 * @param pattern Lower case pattern, see TermDictionary.wildcard
+	 * @param k Maximum number of documents in the result
+	 * @return Names of at most k documents in descending order of frequencies
+	 */
+	ArrayList<String> wildcardSearch(String pattern, int k)
+	{
+		State s = state;
+		return topK(s, s.termDictionary.wildcard(pattern), k);
+	}
+
+	private static ArrayList<String> topK(State s, List<String> keywords, int k)
+	{
+		ArrayList<List<Occurrence>> lists = new ArrayList<List<Occurrence>>();
+		ArrayList<Set<String>> deleted = new ArrayList<Set<String>>();
+		for(String kw : keywords)
+		{
+			for(int i = 0; i < s.segments.size(); i++)
+			{
+				Occurrence[] occs = s.segments.get(i).postings.get(kw);
+				if(occs != null)
+				{
+					// deleted documents are skipped by the merge, as it reaches them
+					lists.add(Arrays.asList(occs));
+					deleted.add(s.deletedCount[i] == 0 ? null : s.deleted(i));
+				}
+			}
+		}
+		return LittleSearchEngine.mergeTopK(lists, deleted, k);
+	}
+
+	/**
+	 * Returns all live occurrences of a keyword across the published segments. A keyword held by
+	 * one segment with no deletions is returned as a view of the segment's array; any other is
+	 * merged once per published state and shared by later calls.
+	 *
+	 * @param kw Keyword
+	 * @return Read-only occurrences in descending order of frequency, null if the keyword is not indexed
+	 */
+	List<Occurrence> postings(String kw)
+	{
+		return postings(state, kw);
+	}
+
+	/**
+	 * Returns all live occurrences of a keyword in the given state, see postings(kw).
+	 */
+	private static List<Occurrence> postings(State s, String kw)
+	{
+		Occurrence[] only = null;
+		int holders = 0;
+		boolean deletions = false;
+		for(int i = 0; i < s.segments.size(); i++)
+		{
+			Occurrence[] occs = s.segments.get(i).postings.get(kw);
+			if(occs != null)
+			{
+				only = occs;
+				holders++;
+				deletions |= s.deletedCount[i] > 0;
+			}
+		}
+		if(holders == 0)
+			return null;
+		if(holders == 1 && !deletions)
+			return Collections.unmodifiableList(Arrays.asList(only));
+
+		List<Occurrence> all = s.merged.get(kw);
+		if(all != null)
+			return all.isEmpty() ? null : all;
+		ArrayList<Occurrence> live = new ArrayList<Occurrence>();
+		for(int i = 0; i < s.segments.size(); i++)
+		{
+			Occurrence[] occs = s.segments.get(i).postings.get(kw);
+			if(occs != null)
+				live.addAll(live(occs, s.deleted(i)));
+		}
+		Collections.sort(live, BY_FREQUENCY);
+		all = Collections.unmodifiableList(live);
+		s.merged.put(kw, all);
+		return all.isEmpty() ? null : all;
+	}
+
+	/**
+	 * Returns all live occurrences of a keyword across the published segments.
+	 *
+	 * @param kw Keyword
+	 * @return New list of occurrences in descending order of frequency, null if the keyword is not indexed
+	 */
+	ArrayList<Occurrence> occurrences(String kw)
+	{
+		List<Occurrence> all = postings(kw);
+		return all == null ? null : new ArrayList<Occurrence>(all);
+	}
+
+	/**
+	 * Returns every keyword with at least one live occurrence in the published segments. A keyword
+	 * whose documents have all been deleted is left out, even before the segments holding it are
+	 * merged.
+	 *
+	 * @return Set of keywords
+	 */
+	HashSet<String> keywords()
+	{
+		State s = state;
+		HashSet<String> kws = new HashSet<String>();
+		for(int i = 0; i < s.segments.size(); i++)
+		{
+			Segment seg = s.segments.get(i);
+			if(s.deletedCount[i] == 0)
+			{
+				kws.addAll(seg.postings.keySet());
+				continue;
+			}
+			for(Map.Entry<String,Occurrence[]> e : seg.postings.entrySet())
+			{
+				if(!kws.contains(e.getKey()) && hasLive(seg, s.version, e.getValue()))
+					kws.add(e.getKey());
+			}
+		}
+		return kws;
+	}
+
+	/**
+	 * Returns true if any of the occurrences is of a document that is live as of a version.
+	 */
+	private static boolean hasLive(Segment seg, int version, Occurrence[] occs)
+	{
+		for(Occurrence o : occs)
+		{
+			if(!seg.isDeleted(o.document, version))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the number of published segments.
+	 *
+	 * @return Number of segments
+	 */
+	int segmentCount()
+	{
+		return state.segments.size();
+	}
+
+	/**
+	 * Estimates the heap used by the published segments, not counting keyword and document name
+	 * Strings, with the same assumptions as CompactIndex.heapBytes.
+	 *
+	 * @return Estimated bytes
+	 */
+	long heapBytes()
+	{
+		long bytes = 0;
+		for(Segment seg : state.segments)
+		{
+			// name slot, hash table node and slot, boxed id and deletion entry per document
+			bytes += 16 + 4L * seg.postings.size() * 2 + 60L * seg.docs.length;
+			for(Occurrence[] occs : seg.postings.values())
+				bytes += 32 + 16 + 4L * occs.length + 24L * occs.length;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Stops the background merge thread. Merges already running are finished first.
+	 */
+	void close()
+	{
+		merger.shutdown();
+	}
+
+	/**
+	 * Returns the document ordered view of the published state.
+	 *
+	 * @return View
+	 */
+	DocOrderedIndex docOrderedIndex()
+	{
+		return state.docOrderedIndex;
+	}
+
+	/**
+	 * Returns the keyword dictionary of the published state.
+	 *
+	 * @return Dictionary
+	 */
+	TermDictionary termDictionary()
+	{
+		return state.termDictionary;
+	}
+
+	/**
+	 * Sets the views of a state about to be published, from those of the state it replaces.
+	 * Called with publishLock held.
+	 *
+	 * @param prev Published state
+	 * @param next New state
+	 * @param changed Keywords whose occurrences differ between the two
+	 */
+	private static void updateViews(State prev, State next, Collection<String> changed)
+	{
+		HashMap<String,List<Occurrence>> lists = new HashMap<String,List<Occurrence>>(changed.size() * 2);
+		for(String kw : changed)
+			lists.put(kw, postings(next, kw));
+		next.docOrderedIndex = prev.docOrderedIndex.update(lists);
+		next.termDictionary = prev.termDictionary.update(lists);
+	}
+
+	/**
+	 * Appends a segment to the published list.
+	 */
+	private void publish(Segment seg)
+	{
+		synchronized(publishLock)
+		{
+			State s = state;
+			ArrayList<Segment> segments = new ArrayList<Segment>(s.segments);
+			segments.add(seg);
+			State next = new State(Collections.unmodifiableList(segments), Arrays.copyOf(s.deletedCount, segments.size()), s.version + 1);
+			updateViews(s, next, seg.postings.keySet());
+			state = next;
+		}
+	}
+
+	/**
+	 * Merges runs of mergeFactor neighboring segments that are on the same size level, until there
+	 * are none left. Level l holds segments of flushDocs*mergeFactor^l up to (but not including)
+	 * flushDocs*mergeFactor^(l+1) live documents. Runs on the merge thread.
+	 */
+	private void mergeSegments()
+	{
+		while(true)
+		{
+			State s = state;
+			int from = -1;
+			int run = 0;
+			int runLevel = -1;
+			for(int i = 0; i < s.segments.size(); i++)
+			{
+				int level = level(s.liveDocs(i));
+				if(level == runLevel)
+				{
+					run++;
+				}
+				else
+				{
+					runLevel = level;
+					run = 1;
+				}
+				if(run == mergeFactor)
+				{
+					from = i - mergeFactor + 1;
+					break;
+				}
+			}
+			if(from == -1)
+				return;
+			merge(s, from, from + mergeFactor);
+		}
+	}
+
+	private int level(int docs)
+	{
+		int level = 0;
+		for(long size = (long)flushDocs * mergeFactor; docs >= size; size *= mergeFactor)
+			level++;
+		return level;
+	}
+
+	/**
+	 * Merges segments from..to-1 of the given state into one segment and publishes it in their place.
+	 * Documents deleted while the merge was running stay deleted in the merged segment.
+	 */
+	private void merge(State s, int from, int to)
+	{
+		HashMap<String,ArrayList<Occurrence>> lists = new HashMap<String,ArrayList<Occurrence>>();
+		HashSet<String> docs = new HashSet<String>();
+		for(int i = from; i < to; i++)
+		{
+			Segment seg = s.segments.get(i);
+			Set<String> del = s.deleted(i);
+			for(String d : seg.docs)
+			{
+				if(!del.contains(d))
+					docs.add(d);
+			}
+			for(Map.Entry<String,Occurrence[]> e : seg.postings.entrySet())
+			{
+				List<Occurrence> occs = live(e.getValue(), del);
+				if(occs.isEmpty())
+					continue;
+				ArrayList<Occurrence> all = lists.get(e.getKey());
+				if(all == null)
+				{
+					all = new ArrayList<Occurrence>(occs.size());
+					lists.put(e.getKey(), all);
+				}
+				all.addAll(occs);
+			}
+		}
+		Segment merged = new Segment(sortAll(lists), docs);
+
+		synchronized(publishLock)
+		{
+			State cur = state;
+			// only this thread replaces segments, and flushes only append, so from..to-1 are unchanged
+			int deletedSince = 0;
+			for(int i = from; i < to; i++)
+			{
+				Segment seg = cur.segments.get(i);
+				for(int d = 0; d < seg.docs.length; d++)
+				{
+					// carry over deletions made while the merge ran, with their versions
+					int at = seg.deletedAt.get(d);
+					if(at > s.version)
+					{
+						merged.deletedAt.set(merged.ids.get(seg.docs[d]), at);
+						deletedSince++;
+					}
+				}
+			}
+			ArrayList<Segment> segments = new ArrayList<Segment>(cur.segments.subList(0, from));
+			int[] deletedCount = new int[cur.segments.size() - (to - from) + (docs.isEmpty() ? 0 : 1)];
+			System.arraycopy(cur.deletedCount, 0, deletedCount, 0, from);
+			if(!docs.isEmpty())
+			{
+				segments.add(merged);
+				deletedCount[from] = deletedSince;
+			}
+			System.arraycopy(cur.deletedCount, to, deletedCount, segments.size(), cur.segments.size() - to);
+			segments.addAll(cur.segments.subList(to, cur.segments.size()));
+			State next = new State(Collections.unmodifiableList(segments), deletedCount, cur.version + 1);
+			// a merge does not change what searches see
+			next.docOrderedIndex = cur.docOrderedIndex;
+			next.termDictionary = cur.termDictionary;
+			state = next;
+		}
+	}
+
+	/**
+	 * Sorts every list on descending frequency, keeping the order of equal frequencies.
+	 */
+	private static HashMap<String,Occurrence[]> sortAll(HashMap<String,ArrayList<Occurrence>> lists)
+	{
+		HashMap<String,Occurrence[]> postings = new HashMap<String,Occurrence[]>(lists.size() * 2);
+		for(Map.Entry<String,ArrayList<Occurrence>> e : lists.entrySet())
+		{
+			Occurrence[] occs = e.getValue().toArray(new Occurrence[e.getValue().size()]);
+			Arrays.sort(occs, BY_FREQUENCY);
+			postings.put(e.getKey(), occs);
+		}
+		return postings;
+	}
+
+	/**
+	 * Returns the occurrences of documents that are not deleted.
+	 */
+	private static List<Occurrence> live(Occurrence[] occs, Set<String> deleted)
+	{
+		if(deleted.isEmpty())
+			return Arrays.asList(occs);
+		ArrayList<Occurrence> live = new ArrayList<Occurrence>(occs.length);
+		for(Occurrence o : occs)
+		{
+			if(!deleted.contains(o.document))
+				live.add(o);
+		}
+		return live;
+	}
+}
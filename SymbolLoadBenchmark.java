@@ -0,0 +1,101 @@
+package apps;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Benchmark of loading a large array: the Scanner and StringTokenizer loadSymbolValues against the
+ * streaming text parser and the binary format. A values file with one array of the given number
+ * of random elements, as (index,value) pairs, and two scalars is written to a temporary file,
+ * loaded each way, and saved once in the binary format to load that back. Each loader is checked
+ * to produce the same values.
+ *
+ * Usage: java apps.SymbolLoadBenchmark [elements]
+ *
+ */
+class SymbolLoadBenchmark
+{
+	/**
+	 * Number of timed loads of each kind, after one warm-up load.
+	 */
+	static final int ROUNDS = 3;
+
+	public static void main(String[] args)
+	throws IOException
+	{
+		int elements = args.length > 0 ? Integer.parseInt(args[0]) : 4000000;
+		Expression expr = new Expression("a+A[b]");
+		expr.buildSymbols();
+
+		File text = File.createTempFile("values", ".txt");
+		File binary = File.createTempFile("values", ".bin");
+		text.deleteOnExit();
+		binary.deleteOnExit();
+		Random random = new Random(elements);
+		PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(text)));
+		pw.println("a 3");
+		pw.print("A " + elements);
+		for(int i = 0; i < elements; i++)
+			pw.print(" (" + i + "," + random.nextInt(1000000) + ")");
+		pw.println();
+		pw.println("b 7");
+		pw.close();
+
+		int[] expected = null;
+		long scannerNanos = Long.MAX_VALUE;
+		for(int round = 0; round <= ROUNDS; round++)
+		{
+			long t0 = System.nanoTime();
+			Scanner sc = new Scanner(text);
+			expr.loadSymbolValues(sc);
+			sc.close();
+			long t1 = System.nanoTime();
+			if(round > 0)
+				scannerNanos = Math.min(scannerNanos, t1 - t0);
+			expected = expr.symbols.arrayValues[0];
+		}
+
+		long streamNanos = Long.MAX_VALUE;
+		for(int round = 0; round <= ROUNDS; round++)
+		{
+			long t0 = System.nanoTime();
+			FileInputStream in = new FileInputStream(text);
+			expr.loadSymbolValues(in);
+			in.close();
+			long t1 = System.nanoTime();
+			if(round > 0)
+				streamNanos = Math.min(streamNanos, t1 - t0);
+			check(expr, expected, "streaming text");
+		}
+
+		FileOutputStream out = new FileOutputStream(binary);
+		expr.saveSymbolValues(out);
+		out.close();
+		long binaryNanos = Long.MAX_VALUE;
+		for(int round = 0; round <= ROUNDS; round++)
+		{
+			long t0 = System.nanoTime();
+			FileInputStream in = new FileInputStream(binary);
+			expr.loadBinarySymbolValues(in);
+			in.close();
+			long t1 = System.nanoTime();
+			if(round > 0)
+				binaryNanos = Math.min(binaryNanos, t1 - t0);
+			check(expr, expected, "binary");
+		}
+
+		System.out.printf("%d elements, text %.1f MB, binary %.1f MB%n", elements,
+				text.length() / 1e6, binary.length() / 1e6);
+		System.out.printf("Scanner/StringTokenizer: %8.1f ms%n", scannerNanos / 1e6);
+		System.out.printf("streaming text:          %8.1f ms  (%.1fx)%n", streamNanos / 1e6, (double)scannerNanos / streamNanos);
+		System.out.printf("binary:                  %8.1f ms  (%.1fx)%n", binaryNanos / 1e6, (double)scannerNanos / binaryNanos);
+	}
+
+	private static void check(Expression expr, int[] expected, String loader)
+	{
+		if(!Arrays.equals(expr.symbols.arrayValues[0], expected)
+				|| expr.symbols.scalarValues[expr.scalarSlot("a")] != 3
+				|| expr.symbols.scalarValues[expr.scalarSlot("b")] != 7)
+			throw new IllegalStateException(loader + " loaded different values");
+	}
+}
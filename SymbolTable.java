@@ -0,0 +1,180 @@
+package apps;
+
+import java.util.*;
+
+/**
+ * This class holds the values of the symbols of an expression in primitive arrays. Each distinct
+ * scalar name and each distinct array name gets a dense slot, in the order of the scalars and
+ * arrays lists of the expression, when the table is built; names are looked up only then, when an
+ * expression is parsed and when values are loaded. Evaluation reads scalarValues[slot] and
+ * arrayValues[slot] directly.
+ *
+ * The table is the store of the values: setScalar and setArray also copy each value to its symbol
+ * object, so the symbols still print their values, but a value written straight into a symbol is
+ * not seen by evaluation. They also tell the listener, if there is one, which slots changed.
+ *
+ */
+class SymbolTable
+{
+	/**
+	 * Value of each scalar, by slot.
+	 */
+	final int[] scalarValues;
+
+	/**
+	 * Values of each array, by slot; null until loaded.
+	 */
+	final int[][] arrayValues;
+
+	/**
+	 * Receives the slots whose values change.
+	 */
+	interface Listener
+	{
+		/**
+		 * Called after the value of a scalar changes.
+		 *
+		 * @param slot Slot of the scalar
+		 */
+		void scalarChanged(int slot);
+
+		/**
+		 * Called after the values of an array are replaced.
+		 *
+		 * @param slot Slot of the array
+		 */
+		void arrayChanged(int slot);
+	}
+
+	/**
+	 * Listener told of value changes, null if none.
+	 */
+	Listener listener;
+
+	private final ScalarSymbol[] scalars;
+	private final ArraySymbol[] arrays;
+	private final HashMap<String,Integer> scalarSlots;
+	private final HashMap<String,Integer> arraySlots;
+
+	/**
+	 * Builds the table, with the current values of the symbols.
+	 *
+	 * @param scalars Scalar symbols, with distinct names; the index of each is its slot
+	 * @param arrays Array symbols, with distinct names; the index of each is its slot
+	 */
+	SymbolTable(List<ScalarSymbol> scalars, List<ArraySymbol> arrays)
+	{
+		this.scalars = scalars.toArray(new ScalarSymbol[0]);
+		this.arrays = arrays.toArray(new ArraySymbol[0]);
+		scalarValues = new int[this.scalars.length];
+		arrayValues = new int[this.arrays.length][];
+		scalarSlots = new HashMap<String,Integer>(this.scalars.length * 2);
+		arraySlots = new HashMap<String,Integer>(this.arrays.length * 2);
+		for(int i = 0; i < this.scalars.length; i++)
+		{
+			scalarSlots.put(this.scalars[i].name, i);
+			scalarValues[i] = this.scalars[i].value;
+		}
+		for(int i = 0; i < this.arrays.length; i++)
+		{
+			arraySlots.put(this.arrays[i].name, i);
+			arrayValues[i] = this.arrays[i].values;
+		}
+	}
+
+	/**
+	 * Returns the slot of a scalar.
+	 *
+	 * @param name Name of the scalar
+	 * @return Slot, -1 if there is no scalar of that name
+	 */
+	int scalarSlot(String name)
+	{
+		Integer slot = scalarSlots.get(name);
+		return slot == null ? -1 : slot;
+	}
+
+	/**
+	 * Returns the slot of an array.
+	 *
+	 * @param name Name of the array
+	 * @return Slot, -1 if there is no array of that name
+	 */
+	int arraySlot(String name)
+	{
+		Integer slot = arraySlots.get(name);
+		return slot == null ? -1 : slot;
+	}
+
+	/**
+	 * Returns the number of scalar slots.
+	 *
+	 * @return Number of scalars
+	 */
+	int scalarCount()
+	{
+		return scalarValues.length;
+	}
+
+	/**
+	 * Returns the number of array slots.
+	 *
+	 * @return Number of arrays
+	 */
+	int arrayCount()
+	{
+		return arrayValues.length;
+	}
+
+	/**
+	 * Returns the name of a scalar.
+	 *
+	 * @param slot Slot of the scalar
+	 * @return Name
+	 */
+	String scalarName(int slot)
+	{
+		return scalars[slot].name;
+	}
+
+	/**
+	 * Returns the name of an array.
+	 *
+	 * @param slot Slot of the array
+	 * @return Name
+	 */
+	String arrayName(int slot)
+	{
+		return arrays[slot].name;
+	}
+
+	/**
+	 * Sets the value of a scalar. The listener is told only if the value is different.
+	 *
+	 * @param slot Slot of the scalar
+	 * @param value Value
+	 */
+	void setScalar(int slot, int value)
+	{
+		scalars[slot].value = value;
+		if(scalarValues[slot] == value)
+			return;
+		scalarValues[slot] = value;
+		if(listener != null)
+			listener.scalarChanged(slot);
+	}
+
+	/**
+	 * Sets the values of an array.
+	 *
+	 * @param slot Slot of the array
+	 * @param values Values, not copied
+	 */
+	void setArray(int slot, int[] values)
+	{
+		arrayValues[slot] = values;
+		arrays[slot].values = values;
+		if(listener != null)
+			listener.arrayChanged(slot);
+	}
+}
@@ -0,0 +1,447 @@
+package apps;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * This class loads symbol values straight into a symbol table, from text or from a binary file.
+ *
+ * The text format is the one read by Expression.loadSymbolValues, a symbol per line:
+ *
+ * <pre>
+ * name value
+ * name size (index,value) (index,value) ...
+ * </pre>
+ *
+ * It is parsed a byte at a time out of one reused buffer: names are matched against the table
+ * as bytes and numbers are built digit by digit, so no Strings or tokens are made, and the only
+ * allocation is the values array of each array symbol. Lines for names the expression does not
+ * use are skipped.
+ *
+ * The binary format is big-endian, as written by DataOutputStream, and holds whole arrays:
+ *
+ * <pre>
+ * int magic 'EXPV', int version 1, then until the end:
+ *   byte 'S', short name length, name bytes, int value
+ *   byte 'A', short name length, name bytes, int size, size ints
+ * </pre>
+ *
+ * Array values are copied from the buffer a block at a time with a bulk IntBuffer get.
+ *
+ */
+class SymbolValueLoader
+{
+	static final int MAGIC = 0x45585056;
+	static final int VERSION = 1;
+
+	private static final int BUFFER = 1 << 16;
+
+	private final SymbolTable symbols;
+	private final NameIndex scalarNames;
+	private final NameIndex arrayNames;
+
+	private final InputStream in;
+	private final byte[] buf = new byte[BUFFER];
+	private int pos;
+	private int limit;
+	private byte[] name = new byte[32];
+	private int line = 1;
+
+	private SymbolValueLoader(SymbolTable symbols, InputStream in)
+	{
+		this.symbols = symbols;
+		this.in = in;
+		String[] names = new String[symbols.scalarCount()];
+		for(int i = 0; i < names.length; i++)
+			names[i] = symbols.scalarName(i);
+		scalarNames = new NameIndex(names);
+		names = new String[symbols.arrayCount()];
+		for(int i = 0; i < names.length; i++)
+			names[i] = symbols.arrayName(i);
+		arrayNames = new NameIndex(names);
+	}
+
+	/**
+	 * Loads values in the text format.
+	 *
+	 * @param symbols Symbol table to fill
+	 * @param in Input, read to the end but not closed
+	 * @throws IOException If the input cannot be read or is malformed
+	 */
+	static void loadText(SymbolTable symbols, InputStream in)
+	throws IOException
+	{
+		new SymbolValueLoader(symbols, in).text();
+	}
+
+	/**
+	 * Loads values in the binary format.
+	 *
+	 * @param symbols Symbol table to fill
+	 * @param in Input, read to the end but not closed
+	 * @throws IOException If the input cannot be read or is malformed
+	 */
+	static void loadBinary(SymbolTable symbols, InputStream in)
+	throws IOException
+	{
+		new SymbolValueLoader(symbols, in).binary();
+	}
+
+	/**
+	 * Writes the values of all scalars, and of all arrays that have values, in the binary format.
+	 *
+	 * @param symbols Symbol table
+	 * @param out Output, flushed but not closed
+	 * @throws IOException If the output cannot be written
+	 */
+	static void saveBinary(SymbolTable symbols, OutputStream out)
+	throws IOException
+	{
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, BUFFER));
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		for(int slot = 0; slot < symbols.scalarCount(); slot++)
+		{
+			data.writeByte('S');
+			writeName(data, symbols.scalarName(slot));
+			data.writeInt(symbols.scalarValues[slot]);
+		}
+		ByteBuffer block = ByteBuffer.allocate(BUFFER);
+		IntBuffer ints = block.asIntBuffer();
+		for(int slot = 0; slot < symbols.arrayCount(); slot++)
+		{
+			int[] values = symbols.arrayValues[slot];
+			if(values == null)
+				continue;
+			data.writeByte('A');
+			writeName(data, symbols.arrayName(slot));
+			data.writeInt(values.length);
+			for(int off = 0; off < values.length; off += BUFFER / 4)
+			{
+				int n = Math.min(BUFFER / 4, values.length - off);
+				ints.clear();
+				ints.put(values, off, n);
+				data.write(block.array(), 0, n * 4);
+			}
+		}
+		data.flush();
+	}
+
+	private static void writeName(DataOutputStream data, String name)
+	throws IOException
+	{
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		data.writeShort(bytes.length);
+		data.write(bytes);
+	}
+
+	private void text()
+	throws IOException
+	{
+		while(true)
+		{
+			int c = skipBlanks();
+			if(c == -1)
+				return;
+			if(c == '\n')
+			{
+				pos++;
+				line++;
+				continue;
+			}
+
+			int len = readName();
+			int scalar = scalarNames.find(name, len);
+			int array = arrayNames.find(name, len);
+			if(scalar == -1 && array == -1)
+			{
+				skipLine();
+				continue;
+			}
+			skipBlanks();
+			int num = readInt();
+			c = skipBlanks();
+			if(c == '\n' || c == -1)
+			{
+				if(scalar != -1)
+					symbols.setScalar(scalar, num);
+				else
+					symbols.setArray(array, new int[num]);
+				continue;
+			}
+			if(array == -1)
+			{
+				skipLine();
+				continue;
+			}
+
+			// following are (index,val) pairs
+			int[] values = new int[num];
+			while(true)
+			{
+				c = skipPairDelimiters();
+				if(c == '\n' || c == -1)
+					break;
+				int index = readInt();
+				skipPairDelimiters();
+				int val = readInt();
+				if(index < 0 || index >= num)
+					throw error("index " + index + " out of bounds for size " + num);
+				values[index] = val;
+			}
+			symbols.setArray(array, values);
+		}
+	}
+
+	private void binary()
+	throws IOException
+	{
+		if(!fill(8))
+			throw new IOException("not a symbol values file: too short");
+		ByteBuffer bb = ByteBuffer.wrap(buf);
+		if(bb.getInt(pos) != MAGIC)
+			throw new IOException("not a symbol values file: bad magic number");
+		if(bb.getInt(pos + 4) != VERSION)
+			throw new IOException("unsupported symbol values version " + bb.getInt(pos + 4));
+		pos += 8;
+
+		while(fill(1))
+		{
+			int kind = buf[pos++];
+			if(kind != 'S' && kind != 'A')
+				throw new IOException("bad symbol values record type " + kind);
+			int len = readShort();
+			if(len > name.length)
+				name = new byte[Math.max(len, name.length * 2)];
+			readFully(name, len);
+			int num = readBinaryInt();
+			if(kind == 'S')
+			{
+				int slot = scalarNames.find(name, len);
+				if(slot != -1)
+					symbols.setScalar(slot, num);
+				continue;
+			}
+
+			int slot = arrayNames.find(name, len);
+			if(num < 0)
+				throw new IOException("bad array size " + num);
+			int[] values = slot == -1 ? null : new int[num];
+			for(int off = 0; off < num; )
+			{
+				if(!fill(4))
+					throw new EOFException("array " + new String(name, 0, len, StandardCharsets.UTF_8) + " cut short");
+				int n = Math.min(num - off, (limit - pos) / 4);
+				if(values != null)
+					ByteBuffer.wrap(buf, pos, n * 4).asIntBuffer().get(values, off, n);
+				pos += n * 4;
+				off += n;
+			}
+			if(values != null)
+				symbols.setArray(slot, values);
+		}
+	}
+
+	/**
+	 * Makes at least n bytes available from pos, moving what is left to the front of the buffer.
+	 *
+	 * @return False if the input ends first
+	 */
+	private boolean fill(int n)
+	throws IOException
+	{
+		if(limit - pos >= n)
+			return true;
+		System.arraycopy(buf, pos, buf, 0, limit - pos);
+		limit -= pos;
+		pos = 0;
+		while(limit < n)
+		{
+			int read = in.read(buf, limit, buf.length - limit);
+			if(read < 0)
+				return false;
+			limit += read;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the next byte without consuming it, -1 at the end of the input.
+	 */
+	private int peek()
+	throws IOException
+	{
+		if(pos == limit && !fill(1))
+			return -1;
+		return buf[pos] & 0xff;
+	}
+
+	private int skipBlanks()
+	throws IOException
+	{
+		int c = peek();
+		while(c == ' ' || c == '\t' || c == '\r')
+		{
+			pos++;
+			c = peek();
+		}
+		return c;
+	}
+
+	private int skipPairDelimiters()
+	throws IOException
+	{
+		int c = peek();
+		while(c == ' ' || c == '\t' || c == '\r' || c == '(' || c == ',' || c == ')')
+		{
+			pos++;
+			c = peek();
+		}
+		return c;
+	}
+
+	private void skipLine()
+	throws IOException
+	{
+		int c = peek();
+		while(c != '\n' && c != -1)
+		{
+			pos++;
+			c = peek();
+		}
+	}
+
+	/**
+	 * Reads a name into the name buffer.
+	 *
+	 * @return Length of the name
+	 */
+	private int readName()
+	throws IOException
+	{
+		int len = 0;
+		int c = peek();
+		while(c != -1 && c != ' ' && c != '\t' && c != '\r' && c != '\n')
+		{
+			if(len == name.length)
+				name = Arrays.copyOf(name, len * 2);
+			name[len++] = (byte)c;
+			pos++;
+			c = peek();
+		}
+		return len;
+	}
+
+	private int readInt()
+	throws IOException
+	{
+		int c = peek();
+		boolean negative = c == '-';
+		if(negative)
+		{
+			pos++;
+			c = peek();
+		}
+		if(c < '0' || c > '9')
+			throw error(c == -1 || c == '\n' ? "missing number" : "bad number");
+		long v = 0;
+		while(c >= '0' && c <= '9')
+		{
+			v = v * 10 + (c - '0');
+			if(v > Integer.MAX_VALUE + 1L)
+				throw error("number too large");
+			pos++;
+			c = peek();
+		}
+		if(!negative && v > Integer.MAX_VALUE)
+			throw error("number too large");
+		return (int)(negative ? -v : v);
+	}
+
+	private int readShort()
+	throws IOException
+	{
+		if(!fill(2))
+			throw new EOFException();
+		int v = ((buf[pos] & 0xff) << 8) | (buf[pos + 1] & 0xff);
+		pos += 2;
+		return v;
+	}
+
+	private int readBinaryInt()
+	throws IOException
+	{
+		if(!fill(4))
+			throw new EOFException();
+		int v = ((buf[pos] & 0xff) << 24) | ((buf[pos + 1] & 0xff) << 16) | ((buf[pos + 2] & 0xff) << 8) | (buf[pos + 3] & 0xff);
+		pos += 4;
+		return v;
+	}
+
+	private void readFully(byte[] b, int n)
+	throws IOException
+	{
+		if(!fill(n))
+			throw new EOFException();
+		System.arraycopy(buf, pos, b, 0, n);
+		pos += n;
+	}
+
+	private IOException error(String message)
+	{
+		return new IOException(message + " at line " + line);
+	}
+
+	/**
+	 * Open-addressing index from names, as bytes, to slots.
+	 */
+	private static final class NameIndex
+	{
+		private final byte[][] names;
+		private final int[] table;
+
+		NameIndex(String[] names)
+		{
+			this.names = new byte[names.length][];
+			table = new int[Integer.highestOneBit(Math.max(1, names.length) * 4)];
+			Arrays.fill(table, -1);
+			for(int slot = 0; slot < names.length; slot++)
+			{
+				this.names[slot] = names[slot].getBytes(StandardCharsets.UTF_8);
+				int i = hash(this.names[slot], this.names[slot].length) & (table.length - 1);
+				while(table[i] != -1)
+					i = (i + 1) & (table.length - 1);
+				table[i] = slot;
+			}
+		}
+
+		/**
+		 * Returns the slot of a name.
+		 *
+		 * @return Slot, -1 if not found
+		 */
+		int find(byte[] name, int len)
+		{
+			int i = hash(name, len) & (table.length - 1);
+			while(table[i] != -1)
+			{
+				byte[] n = names[table[i]];
+				if(n.length == len && Arrays.equals(n, 0, len, name, 0, len))
+					return table[i];
+				i = (i + 1) & (table.length - 1);
+			}
+			return -1;
+		}
+
+		private static int hash(byte[] b, int len)
+		{
+			int h = 0;
+			for(int i = 0; i < len; i++)
+				h = 31 * h + b[i];
+			return h ^ (h >>> 16);
+		}
+	}
+}
@@ -0,0 +1,456 @@
+package search;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * This class is a sorted, front-coded dictionary of keywords, for prefix and wildcard expansion.
+ * Keywords are sorted on their UTF-8 bytes and cut into blocks of BLOCK keywords. The first
+ * keyword of a block is stored whole, and each of the others as the number of leading bytes it
+ * shares with the keyword before it followed by the rest of its bytes:
+ *
+ * <pre>
+ * keyword: varint shared, varint suffix length, suffix bytes
+ * </pre>
+ *
+ * Neighboring keywords share long prefixes, so the dictionary takes a fraction of the memory of the
+ * keys of a HashMap. A prefix is found by binary search over the first keywords of the blocks, and
+ * the matching keywords are then decoded in order from there.
+ *
+ * The dictionary is immutable. update makes a new dictionary with keywords added and removed,
+ * merging them into the sorted keywords of this one without sorting again, and returns this one
+ * when the keywords stay the same, as they do when only occurrence lists change.
+ *
+ */
+class TermDictionary
+{
+	/**
+	 * Number of keywords per block.
+	 */
+	static final int BLOCK = 16;
+
+	/**
+	 * Front-coded blocks.
+	 */
+	private final byte[] data;
+
+	/**
+	 * Byte offset of each block in data.
+	 */
+	private final int[] blockStart;
+
+	/**
+	 * Number of keywords.
+	 */
+	private final int size;
+
+	/**
+	 * Orders keywords on their UTF-8 bytes.
+	 */
+	private static final Comparator<byte[]> BY_BYTES = new Comparator<byte[]>()
+	{
+		public int compare(byte[] a, byte[] b)
+		{
+			return IndexFile.compareBytes(a, b);
+		}
+	};
+
+	/**
+	 * Builds the dictionary.
+	 *
+	 * @param keywords Keywords, in any order, without repeats
+	 */
+	TermDictionary(Collection<String> keywords)
+	{
+		this(sorted(keywords));
+	}
+
+	/**
+	 * Builds the dictionary from keywords sorted on their bytes.
+	 */
+	private TermDictionary(byte[][] terms)
+	{
+		int n = terms.length;
+		int total = 0;
+		for(byte[] term : terms)
+			total += term.length + 2;
+		size = n;
+		blockStart = new int[(n + BLOCK - 1) / BLOCK];
+		byte[] out = new byte[total + 16];
+		int len = 0;
+		for(int i = 0; i < n; i++)
+		{
+			if(i % BLOCK == 0)
+				blockStart[i / BLOCK] = len;
+			int shared = i % BLOCK == 0 ? 0 : sharedPrefix(terms[i-1], terms[i]);
+			int suffix = terms[i].length - shared;
+			if(len + suffix + 10 > out.length)
+				out = Arrays.copyOf(out, (len + suffix + 10) * 2);
+			len = writeVarint(out, len, shared);
+			len = writeVarint(out, len, suffix);
+			System.arraycopy(terms[i], shared, out, len, suffix);
+			len += suffix;
+		}
+		data = Arrays.copyOf(out, len);
+	}
+
+	private static byte[][] sorted(Collection<String> keywords)
+	{
+		byte[][] terms = new byte[keywords.size()][];
+		int n = 0;
+		for(String kw : keywords)
+			terms[n++] = kw.getBytes(StandardCharsets.UTF_8);
+		Arrays.sort(terms, BY_BYTES);
+		return terms;
+	}
+
+	/**
+	 * Makes the dictionary of the next version of the index, in which the given keywords changed.
+	 * A changed keyword is added if it is now indexed and was not in this dictionary, and removed if
+	 * it is no longer indexed.
+	 *
+	 * @param changed Current occurrence lists of the changed keywords, null or empty for removed keywords
+	 * @return New dictionary, or this one if no keyword was added or removed
+	 */
+	TermDictionary update(Map<String,? extends List<Occurrence>> changed)
+	{
+		ArrayList<byte[]> added = new ArrayList<byte[]>();
+		ArrayList<byte[]> removed = new ArrayList<byte[]>();
+		for(Map.Entry<String,? extends List<Occurrence>> e : changed.entrySet())
+		{
+			boolean indexed = e.getValue() != null && !e.getValue().isEmpty();
+			if(indexed == contains(e.getKey()))
+				continue;
+			if(indexed)
+				added.add(e.getKey().getBytes(StandardCharsets.UTF_8));
+			else
+				removed.add(e.getKey().getBytes(StandardCharsets.UTF_8));
+		}
+		if(added.isEmpty() && removed.isEmpty())
+			return this;
+		Collections.sort(added, BY_BYTES);
+		Collections.sort(removed, BY_BYTES);
+
+		// merge the sorted keywords of this dictionary, less the removed ones, with the added ones
+		byte[][] terms = new byte[size - removed.size() + added.size()][];
+		int n = 0;
+		int a = 0;
+		int d = 0;
+		Reader r = new Reader(0);
+		while(r.next())
+		{
+			if(d < removed.size() && r.compareTo(removed.get(d)) == 0)
+			{
+				d++;
+				continue;
+			}
+			while(a < added.size() && r.compareTo(added.get(a)) > 0)
+				terms[n++] = added.get(a++);
+			terms[n++] = Arrays.copyOf(r.term, r.length);
+		}
+		while(a < added.size())
+			terms[n++] = added.get(a++);
+		return new TermDictionary(terms);
+	}
+
+	/**
+	 * Returns the number of keywords.
+	 *
+	 * @return Number of keywords
+	 */
+	int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Returns true if the keyword is in the dictionary.
+	 *
+	 * @param kw Keyword
+	 * @return True if found
+	 */
+	boolean contains(String kw)
+	{
+		byte[] key = kw.getBytes(StandardCharsets.UTF_8);
+		Reader r = new Reader(startBlock(key));
+		while(r.next())
+		{
+			int c = r.compareTo(key);
+			if(c >= 0)
+				return c == 0;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the keywords that start with a prefix, in sorted order.
+	 *
+	 * @param prefix Prefix
+	 * @return Matching keywords
+	 */
+	ArrayList<String> prefix(String prefix)
+	{
+		return expand(prefix, null);
+	}
+
+	/**
+	 * Returns the keywords that match a wildcard pattern, in sorted order. In the pattern, '*' matches
+	 * any run of characters (including none) and '?' matches exactly one character. Only keywords
+	 * that start with the part of the pattern before the first wildcard are decoded and matched.
+	 *
+	 * @param pattern Pattern
+	 * @return Matching keywords
+	 */
+	ArrayList<String> wildcard(String pattern)
+	{
+		int literal = 0;
+		while(literal < pattern.length() && pattern.charAt(literal) != '*' && pattern.charAt(literal) != '?')
+			literal++;
+		if(literal == pattern.length())
+		{
+			ArrayList<String> res = new ArrayList<String>(1);
+			if(contains(pattern))
+				res.add(pattern);
+			return res;
+		}
+		return expand(pattern.substring(0, literal), pattern);
+	}
+
+	/**
+	 * Decodes the keywords that start with a prefix and match a pattern.
+	 *
+	 * @param prefix Prefix
+	 * @param pattern Wildcard pattern, null to take every keyword with the prefix
+	 * @return Matching keywords, in sorted order
+	 */
+	private ArrayList<String> expand(String prefix, String pattern)
+	{
+		byte[] key = prefix.getBytes(StandardCharsets.UTF_8);
+		ArrayList<String> res = new ArrayList<String>();
+		Reader r = new Reader(startBlock(key));
+		while(r.next())
+		{
+			if(r.startsWith(key))
+			{
+				String term = r.term();
+				if(pattern == null || matches(pattern, term))
+					res.add(term);
+			}
+			else if(r.compareTo(key) > 0)
+			{
+				break;
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Returns the last block whose first keyword is not after key, where a scan for key starts.
+	 */
+	private int startBlock(byte[] key)
+	{
+		int lo = 0;
+		int hi = blockStart.length - 1;
+		while(lo < hi)
+		{
+			int mid = (lo + hi + 1) >>> 1;
+			if(compareFirst(mid, key) <= 0)
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+		return lo;
+	}
+
+	/**
+	 * Compares the first keyword of a block, which is stored whole, with key, in place.
+	 */
+	private int compareFirst(int block, byte[] key)
+	{
+		// skip the shared length, always a single 0 byte here
+		int pos = blockStart[block] + 1;
+		int length = 0;
+		int shift = 0;
+		byte b;
+		do
+		{
+			b = data[pos++];
+			length |= (b & 0x7f) << shift;
+			shift += 7;
+		} while(b < 0);
+		int n = Math.min(length, key.length);
+		for(int i = 0; i < n; i++)
+		{
+			int c = (data[pos + i] & 0xff) - (key[i] & 0xff);
+			if(c != 0)
+				return c;
+		}
+		return length - key.length;
+	}
+
+	/**
+	 * Matches a keyword against a wildcard pattern, backtracking to the last '*' on a mismatch.
+	 *
+	 * @param pattern Pattern with '*' and '?' wildcards
+	 * @param s Keyword
+	 * @return True if the whole keyword matches
+	 */
+	static boolean matches(String pattern, String s)
+	{
+		int p = 0;
+		int i = 0;
+		int star = -1;
+		int mark = 0;
+		while(i < s.length())
+		{
+			if(p < pattern.length() && (pattern.charAt(p) == '?' || pattern.charAt(p) == s.charAt(i)))
+			{
+				p++;
+				i++;
+			}
+			else if(p < pattern.length() && pattern.charAt(p) == '*')
+			{
+				star = p++;
+				mark = i;
+			}
+			else if(star != -1)
+			{
+				p = star + 1;
+				i = ++mark;
+			}
+			else
+			{
+				return false;
+			}
+		}
+		while(p < pattern.length() && pattern.charAt(p) == '*')
+			p++;
+		return p == pattern.length();
+	}
+
+	/**
+	 * Estimates the heap used by the dictionary.
+	 *
+	 * @return Estimated bytes
+	 */
+	long heapBytes()
+	{
+		return 24 + (16 + data.length + 7) / 8 * 8 + 16 + 4L * blockStart.length;
+	}
+
+	/**
+	 * Estimates the heap used by the keys of a HashMap: the String objects, their byte arrays and the
+	 * table entries, as a baseline for heapBytes.
+	 *
+	 * @param keys Keys of the map
+	 * @return Estimated bytes
+	 */
+	static long hashMapKeyBytes(Collection<String> keys)
+	{
+		long bytes = 16 + 4L * Integer.highestOneBit(Math.max(1, keys.size()) * 2);
+		for(String k : keys)
+			bytes += 24 + (16 + k.length() + 7) / 8 * 8 + 32;
+		return bytes;
+	}
+
+	private static int sharedPrefix(byte[] a, byte[] b)
+	{
+		int n = Math.min(a.length, b.length);
+		int i = 0;
+		while(i < n && a[i] == b[i])
+			i++;
+		return i;
+	}
+
+	private static int writeVarint(byte[] out, int at, int v)
+	{
+		while((v & ~0x7f) != 0)
+		{
+			out[at++] = (byte)((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		out[at++] = (byte)v;
+		return at;
+	}
+
+	/**
+	 * Decodes keywords one at a time from the start of a block to the end of the dictionary. The
+	 * current keyword is kept as bytes, and only made into a String on request.
+	 */
+	private class Reader
+	{
+		private byte[] term = new byte[32];
+		private int length;
+		private int pos;
+		private int index;
+
+		Reader(int block)
+		{
+			index = block * BLOCK;
+			pos = blockStart.length == 0 ? 0 : blockStart[block];
+		}
+
+		/**
+		 * Moves to the next keyword.
+		 *
+		 * @return False if there are no more keywords
+		 */
+		boolean next()
+		{
+			if(index == size)
+				return false;
+			int shared = readVarint();
+			int suffix = readVarint();
+			length = shared + suffix;
+			if(length > term.length)
+				term = Arrays.copyOf(term, Math.max(length, term.length * 2));
+			System.arraycopy(data, pos, term, shared, suffix);
+			pos += suffix;
+			index++;
+			return true;
+		}
+
+		int compareTo(byte[] key)
+		{
+			int n = Math.min(length, key.length);
+			for(int i = 0; i < n; i++)
+			{
+				int c = (term[i] & 0xff) - (key[i] & 0xff);
+				if(c != 0)
+					return c;
+			}
+			return length - key.length;
+		}
+
+		boolean startsWith(byte[] key)
+		{
+			if(length < key.length)
+				return false;
+			for(int i = 0; i < key.length; i++)
+			{
+				if(term[i] != key[i])
+					return false;
+			}
+			return true;
+		}
+
+		String term()
+		{
+			return new String(term, 0, length, StandardCharsets.UTF_8);
+		}
+
+		private int readVarint()
+		{
+			int v = 0;
+			int shift = 0;
+			byte b;
+			do
+			{
+				b = data[pos++];
+				v |= (b & 0x7f) << shift;
+				shift += 7;
+			} while(b < 0);
+			return v;
+		}
+	}
+}
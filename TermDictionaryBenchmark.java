@@ -0,0 +1,94 @@
+package search;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Compares the sorted, front-coded TermDictionary with the keys of the keywordsIndex HashMap:
+ * estimated memory, exact lookup time, and the time to find all keywords with a prefix (a
+ * dictionary range against a scan of every key).
+ *
+ * Usage: java search.TermDictionaryBenchmark docsFile noiseWordsFile
+ *
+ */
+class TermDictionaryBenchmark
+{
+	/**
+	 * Number of timed rounds, after as many warm-up rounds.
+	 */
+	static final int ROUNDS = 10;
+
+	public static void main(String[] args)
+	throws FileNotFoundException
+	{
+		if(args.length != 2)
+		{
+			System.err.println("Usage: java search.TermDictionaryBenchmark docsFile noiseWordsFile");
+			return;
+		}
+		LittleSearchEngine engine = new LittleSearchEngine();
+		engine.makeIndex(args[0], args[1]);
+		HashMap<String,ArrayList<Occurrence>> map = engine.keywordsIndex;
+		TermDictionary dict = engine.termDictionary();
+		String[] keys = map.keySet().toArray(new String[map.size()]);
+		Collections.shuffle(Arrays.asList(keys), new Random(1));
+
+		// prefixes: the first two or three letters of sample keywords
+		String[] prefixes = new String[Math.min(200, keys.length)];
+		for(int i = 0; i < prefixes.length; i++)
+			prefixes[i] = keys[i].substring(0, Math.min(keys[i].length(), 2 + i % 2));
+
+		long mapLookup = 0;
+		long dictLookup = 0;
+		long mapPrefix = 0;
+		long dictPrefix = 0;
+		for(int round = 0; round < 2 * ROUNDS; round++)
+		{
+			int found = 0;
+			long t0 = System.nanoTime();
+			for(String k : keys)
+			{
+				if(map.containsKey(k))
+					found++;
+			}
+			long t1 = System.nanoTime();
+			for(String k : keys)
+			{
+				if(dict.contains(k))
+					found--;
+			}
+			long t2 = System.nanoTime();
+			for(String p : prefixes)
+			{
+				for(String k : map.keySet())
+				{
+					if(k.startsWith(p))
+						found++;
+				}
+			}
+			long t3 = System.nanoTime();
+			for(String p : prefixes)
+				found -= dict.prefix(p).size();
+			long t4 = System.nanoTime();
+			if(found != 0)
+				throw new IllegalStateException("HashMap and TermDictionary disagree");
+			if(round >= ROUNDS)
+			{
+				mapLookup += t1 - t0;
+				dictLookup += t2 - t1;
+				mapPrefix += t3 - t2;
+				dictPrefix += t4 - t3;
+			}
+		}
+
+		long lookups = (long)keys.length * ROUNDS;
+		long scans = (long)prefixes.length * ROUNDS;
+		System.out.printf("%d keywords%n", keys.length);
+		System.out.printf("memory:  HashMap keys ~%d bytes, TermDictionary ~%d bytes%n",
+				TermDictionary.hashMapKeyBytes(map.keySet()), dict.heapBytes());
+		System.out.printf("lookup:  HashMap %.1f ns, TermDictionary %.1f ns%n",
+				(double)mapLookup / Math.max(1, lookups), (double)dictLookup / Math.max(1, lookups));
+		System.out.printf("prefix:  HashMap scan %.1f us, TermDictionary %.1f us%n",
+				mapPrefix / 1000.0 / Math.max(1, scans), dictPrefix / 1000.0 / Math.max(1, scans));
+	}
+}